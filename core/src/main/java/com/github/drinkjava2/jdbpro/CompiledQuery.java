@@ -0,0 +1,196 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.dbutils.ResultSetHandler;
+
+/**
+ * CompiledQuery is a precompiled query handle created by DbPro.compile()
+ * method, SQL items (SQL pieces, ResultSetHandler, SqlHandlers, Connection,
+ * master-slave option, template setting...) are explained only once, later
+ * executions only need bind parameters, for example:
+ *
+ * <pre>
+ * CompiledQuery q = db.compile("select * from users where age>? and name=?", new MapListHandler());
+ * List&lt;Map&lt;String, Object&gt;&gt; result = q.query(20, "Tom");
+ * </pre>
+ *
+ * Parameters given in compile() (by param() method) are kept and always put
+ * before parameters given in query()/update()/batch() methods, they are shared
+ * by all executions, so stream parameters (blob(), clob(), InputStream,
+ * Reader) are not allowed in compile(), pass them to each execution. Global
+ * SqlHandlers are captured at compile time, ThreadLocal SqlHandlers are added
+ * at each execution.
+ *
+ * A CompiledQuery is immutable and thread safe, each execution runs on a new
+ * PreparedSQL built from the captured one.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public final class CompiledQuery {
+	private static final Object[] EMPTY = new Object[0];
+
+	private final DbPro dbPro;
+	private final PreparedSQL compiled;
+
+	CompiledQuery(DbPro dbPro, PreparedSQL compiled) {
+		this.dbPro = dbPro;
+		this.compiled = compiled;
+	}
+
+	/** Build a new PreparedSQL from captured one, with given parameters */
+	private PreparedSQL prepare(SqlOption defaultType, Object[] params) {
+		PreparedSQL ps = new PreparedSQL(compiled.getOperationType(), compiled.getConnection(),
+				compiled.getResultSetHandler(), compiled.getSql(), joinParams(params));
+		ps.ifNullSetType(defaultType);
+		ps.setMasterSlaveOption(compiled.getMasterSlaveOption());
+		ps.setSwitchTo(compiled.getSwitchTo());
+		ps.setUseTemplate(compiled.getUseTemplate());
+		ps.setTemplateEngine(compiled.getTemplateEngine());
+		Map<String, Object> templateParams = compiled.getTemplateParamMap();
+		if (!templateParams.isEmpty())// each execution has its own copy
+			ps.setTemplateParamMap(new HashMap<String, Object>(templateParams));
+		ps.setDisabledHandlers(compiled.getDisabledHandlers());
+		SqlHandler[] threadLocalHandlers = ImprovedQueryRunner.getThreadLocalSqlHandlers();
+		if (threadLocalHandlers == null)
+			ps.setSqlHandlerChain(compiled.getSqlHandlerChain());
+		else {
+			ImprovedQueryRunner.setThreadLocalSqlHandlers((SqlHandler[]) null);
+			ps.setSqlHandlerChain(compiled.getSqlHandlerChain().merge(SqlHandlerChain.of(threadLocalHandlers)));
+		}
+		return ps;
+	}
+
+	private Object[] joinParams(Object[] params) {
+		Object[] fixed = compiled.getParams();
+		if (params == null || params.length == 0)
+			return fixed.length == 0 ? EMPTY : fixed.clone();
+		if (fixed.length == 0)
+			return params.clone();
+		Object[] result = new Object[fixed.length + params.length];
+		System.arraycopy(fixed, 0, result, 0, fixed.length);
+		System.arraycopy(params, 0, result, fixed.length, params.length);
+		return result;
+	}
+
+	/**
+	 * Execute this query with given parameters, if operation type not set in
+	 * compile() method, run as QUERY type
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T query(Object... params) {
+		return (T) dbPro.runPreparedSQL(prepare(SqlOption.QUERY, params));
+	}
+
+	/**
+	 * Execute this query with given parameters, if operation type not set in
+	 * compile() method, run as UPDATE type
+	 *
+	 * @return The number of rows updated.
+	 */
+	public int update(Object... params) {
+		return (Integer) dbPro.runPreparedSQL(prepare(SqlOption.UPDATE, params));
+	}
+
+	/**
+	 * Execute this SQL as a JDBC batch, each element of paramsList is one row of
+	 * parameters. The batch is executed on master (or the compiled Connection)
+	 * directly, SqlHandlers are not called, WriteListeners are notified once.
+	 * Template style query can not run as batch.
+	 *
+	 * @return The number of rows updated of each row of parameters
+	 */
+	public int[] batch(List<Object[]> paramsList) {
+		if (Boolean.TRUE.equals(compiled.getUseTemplate()))
+			throw new DbProException("Template style CompiledQuery can not run as batch");
+		if (paramsList == null || paramsList.isEmpty())
+			return new int[0];
+		Object[][] allParams = new Object[paramsList.size()][];
+		for (int i = 0; i < allParams.length; i++) {
+			allParams[i] = joinParams(paramsList.get(i));
+			if (InListParam.contains(allParams[i]))
+				throw new DbProException("In list parameter is not supported in batch");
+		}
+		DbPro runner = compiled.getSwitchTo() == null ? dbPro : compiled.getSwitchTo();
+		int[] result;
+		try {
+			if (compiled.getConnection() != null)
+				result = runner.batch(compiled.getConnection(), compiled.getSql(), allParams);
+			else
+				result = runner.batch(compiled.getSql(), allParams);
+		} catch (SQLException e) {
+			throw new DbProException(e);
+		}
+		runner.notifyWriteListeners(new PreparedSQL(SqlOption.UPDATE, compiled.getConnection(), null,
+				compiled.getSql(), allParams[allParams.length - 1]));
+		return result;
+	}
+
+	/** Execute this SQL as a JDBC batch, see batch(List) method */
+	public int[] batch(Object[]... paramsList) {
+		List<Object[]> list = new ArrayList<Object[]>(paramsList.length);
+		for (Object[] params : paramsList)
+			list.add(params);
+		return batch(list);
+	}
+
+	public void ________Getters________() {// NOSONAR
+	}
+
+	/** @return The final SQL, for template style it's the template */
+	public String getSql() {
+		return compiled.getSql();
+	}
+
+	public ResultSetHandler<?> getResultSetHandler() {// NOSONAR
+		return compiled.getResultSetHandler();
+	}
+
+	/** @return Operation type set in compile() method, can be null */
+	public SqlOption getOperationType() {
+		return compiled.getOperationType();
+	}
+
+	public SqlOption getMasterSlaveOption() {
+		return compiled.getMasterSlaveOption();
+	}
+
+	public boolean isTemplate() {
+		return Boolean.TRUE.equals(compiled.getUseTemplate());
+	}
+
+	/** @return A copy of captured SqlHandlers, in executing order */
+	public List<SqlHandler> getSqlHandlers() {
+		return new ArrayList<SqlHandler>(compiled.getSqlHandlerChain().subList(0));
+	}
+
+	public DbPro getDbPro() {
+		return dbPro;
+	}
+
+	@Override
+	public String toString() {
+		return "CompiledQuery[" + compiled.getSql() + "]";
+	}
+
+}
@@ -15,9 +15,22 @@
  */
 package com.github.drinkjava2.jdbpro;
 
+import java.io.InputStream;
+import java.io.Reader;
 import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import javax.sql.DataSource;
 
@@ -26,6 +39,8 @@ import org.apache.commons.dbutils.ResultSetHandler;
 import org.apache.commons.dbutils.handlers.MapListHandler;
 import org.apache.commons.dbutils.handlers.ScalarHandler;
 
+import com.github.drinkjava2.jdbpro.template.BasicSqlTemplate;
+import com.github.drinkjava2.jdbpro.template.DynamicSqlTemplate;
 import com.github.drinkjava2.jdbpro.template.SqlTemplateEngine;
 
 /**
@@ -44,6 +59,13 @@ import com.github.drinkjava2.jdbpro.template.SqlTemplateEngine;
  */
 @SuppressWarnings({ "unchecked", "rawtypes" })
 public class DbPro extends ImprovedQueryRunner implements NormalJdbcTool {// NOSONAR
+	private static final LinkedHashMap<Class<?>, SqlItemExplainer> DEFAULT_EXPLAINERS = SqlItemExplainers
+			.createDefaults();
+
+	/** Registered explainers, copy on write, never modify it directly */
+	private volatile LinkedHashMap<Class<?>, SqlItemExplainer> sqlItemExplainers = DEFAULT_EXPLAINERS;
+	private volatile ConcurrentHashMap<Class<?>, SqlItemExplainer> explainerCache = new ConcurrentHashMap<Class<?>, SqlItemExplainer>();
+
 	public DbPro() {
 		super();
 	}
@@ -148,112 +170,179 @@ public class DbPro extends ImprovedQueryRunner implements NormalJdbcTool {// NOS
 
 	/**
 	 * Here deal one SqlItem, if can deal it, return true, otherwise return false,
-	 * subclass (like DbContext) can override this method
+	 * subclass (like DbContext) can override this method, or register a
+	 * SqlItemExplainer by registerSqlItemExplainer method
 	 */
 	protected boolean dealOneSqlItem(boolean inlineStyle, PreparedSQL predSQL, Object item) {// NOSONAR
-		if (item instanceof String) {
-			predSQL.addSqlOrParam(inlineStyle, (String) item);
-		} else if (item instanceof PreparedSQL) {
-			PreparedSQL psItem = (PreparedSQL) item;
-			if (psItem.getSql() != null)
-				predSQL.addSql(psItem.getSql());
-			if (psItem.getParams() != null)
-				for (Object obj : psItem.getParams())
-					predSQL.addParam(obj);
-		} else if (item instanceof SqlTemplateEngine) {
-			predSQL.setTemplateEngine((SqlTemplateEngine) item);
-		} else if (item instanceof Map<?, ?>) {
-			predSQL.addTemplateMap((Map<String, Object>) item);
-		} else if (item instanceof SqlOption) {
-			if (SqlOption.USE_MASTER.equals(item)) {
-				predSQL.setMasterSlaveOption(SqlOption.USE_MASTER);
-			} else if (SqlOption.USE_SLAVE.equals(item)) {
-				predSQL.setMasterSlaveOption(SqlOption.USE_SLAVE);
-			} else if (SqlOption.USE_AUTO.equals(item)) {
-				predSQL.setMasterSlaveOption(SqlOption.USE_AUTO);
-			} else if (SqlOption.USE_BOTH.equals(item)) {
-				predSQL.setMasterSlaveOption(SqlOption.USE_BOTH);
-			} else if (SqlOption.USE_TEMPLATE.equals(item)) {
-				predSQL.setUseTemplate(true);
-			} else if (SqlOption.EXECUTE.equals(item)) {
-				predSQL.setOperationType(SqlOption.EXECUTE);
-			} else if (SqlOption.UPDATE.equals(item)) {
-				predSQL.setOperationType(SqlOption.UPDATE);
-			} else if (SqlOption.QUERY.equals(item)) {
-				predSQL.setOperationType(SqlOption.QUERY);
-			} else if (SqlOption.INSERT.equals(item)) {
-				predSQL.setOperationType(SqlOption.INSERT);
-			} else
-				return false;
-		} else if (item instanceof SqlItem) {
-			SqlItem sqItem = (SqlItem) item;
-			SqlOption sqlItemType = sqItem.getType();
-			if (SqlOption.OTHER.equals(sqlItemType))
-				predSQL.addOther(sqItem);
-			else if (SqlOption.PARAM.equals(sqlItemType)) {
-				for (Object pm : sqItem.getParameters())
-					predSQL.addParam(pm);
-			} else if (SqlOption.BIND.equals(sqlItemType)) {
-				predSQL.addTemplateParam(sqItem);
-			} else if (SqlOption.SQL.equals(sqlItemType)) {
-				for (Object pm : sqItem.getParameters())
-					predSQL.addSql(pm);
-			} else if (SqlOption.QUESTION_PARAM.equals(sqlItemType)) {
-				int i = 0;
-				for (Object pm : sqItem.getParameters()) {
-					predSQL.addParam(pm);
-					if (i > 0)
-						predSQL.addSql(",");
-					predSQL.addSql("?");
-					i++;
+		if (item == null)
+			return false;
+		return getSqlItemExplainer(item.getClass()).explain(this, inlineStyle, predSQL, item);
+	}
+
+	/**
+	 * Register a SqlItemExplainer for items which are instance of itemType, it
+	 * has higher precedence than explainers registered before it. Usually
+	 * called at program starting or in constructor of subclass
+	 */
+	public synchronized void registerSqlItemExplainer(Class<?> itemType, SqlItemExplainer explainer) {
+		if (itemType == null || explainer == null)
+			throw new DbProException("itemType and explainer can not be null");
+		LinkedHashMap<Class<?>, SqlItemExplainer> map = new LinkedHashMap<Class<?>, SqlItemExplainer>();
+		map.put(itemType, explainer);
+		for (Entry<Class<?>, SqlItemExplainer> entry : sqlItemExplainers.entrySet())
+			if (!entry.getKey().equals(itemType))
+				map.put(entry.getKey(), entry.getValue());
+		sqlItemExplainers = map;
+		explainerCache = new ConcurrentHashMap<Class<?>, SqlItemExplainer>();
+	}
+
+	/**
+	 * Find the SqlItemExplainer of a item class, the first registered type which
+	 * the class is assignable to wins, result is cached by class so it only be
+	 * searched once
+	 */
+	public SqlItemExplainer getSqlItemExplainer(Class<?> itemClass) {
+		ConcurrentHashMap<Class<?>, SqlItemExplainer> cache = explainerCache;
+		SqlItemExplainer explainer = cache.get(itemClass);
+		if (explainer != null)
+			return explainer;
+		explainer = SqlItemExplainers.NONE;
+		for (Entry<Class<?>, SqlItemExplainer> entry : sqlItemExplainers.entrySet())
+			if (entry.getKey().isAssignableFrom(itemClass)) {
+				explainer = entry.getValue();
+				break;
+			}
+		cache.put(itemClass, explainer);
+		return explainer;
+	}
+
+	/**
+	 * Preload Text classes and precompile templates of a WarmUpRegistry in
+	 * parallel on a ForkJoinPool, and optionally prepare SQL on some connections,
+	 * usually called at program starting. A failed item does not stop others.
+	 * 
+	 * @return A WarmUpReport has time cost and error of each item
+	 */
+	public WarmUpReport warmUp(WarmUpRegistry registry) {
+		long start = System.nanoTime();
+		List<Callable<List<WarmUpReport.Item>>> tasks = new ArrayList<Callable<List<WarmUpReport.Item>>>();
+		for (final Class<? extends Text> clazz : registry.getTexts())
+			tasks.add(warmUpTask("text", clazz.getName(), new Callable<Object>() {
+				@Override
+				public Object call() {
+					return Text.classToString(clazz);
 				}
-			} else if (SqlOption.NOT_NULL.equals(sqlItemType)) {
-				Object[] args = sqItem.getParameters();
-				if (args.length < 2)
-					throw new DbProException("NOT_NULL type SqlItem need at least 2 args");
-				if (args[args.length - 1] != null) {
-					for (int i = 0; i < args.length - 1; i++)
-						dealOneSqlItem(true, predSQL, args[i]);// in NOT_NULL type, force use i style
-					predSQL.addParam(args[args.length - 1]);
+			}));
+		final SqlTemplateEngine engine = getSqlTemplateEngine();
+		for (final Entry<String, String> template : registry.getTemplates().entrySet())
+			tasks.add(warmUpTask("template", template.getKey(), new Callable<Object>() {
+				@Override
+				public Object call() {
+					if (engine instanceof DynamicSqlTemplate)
+						((DynamicSqlTemplate) engine).precompile(template.getValue());
+					else if (engine instanceof BasicSqlTemplate)
+						((BasicSqlTemplate) engine).precompile(template.getValue());
+					else
+						throw new DbProException("Template engine " + engine + " does not support precompile");
+					return null;
 				}
-			} else if (SqlOption.VALUES_QUESTIONS.equals(sqlItemType)) {
-				predSQL.addSql(" values(");
-				for (int i = 0; i < predSQL.getParamSize(); i++) {
-					if (i > 0)
-						predSQL.addSql(",");
-					predSQL.addSql("?");
+			}));
+		ForkJoinPool pool = new ForkJoinPool(registry.getParallelism());
+		try {
+			List<WarmUpReport.Item> items = runWarmUpTasks(pool, tasks);
+			if (registry.isPrepareStatements())
+				items.addAll(prepareStatements(pool, registry, items));
+			return new WarmUpReport(items, System.nanoTime() - start);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static Callable<List<WarmUpReport.Item>> warmUpTask(final String type, final String name,
+			final Callable<Object> job) {
+		return new Callable<List<WarmUpReport.Item>>() {
+			@Override
+			public List<WarmUpReport.Item> call() {
+				List<WarmUpReport.Item> result = new ArrayList<WarmUpReport.Item>(1);
+				long start = System.nanoTime();
+				Throwable error = null;
+				try {
+					job.call();
+				} catch (Throwable e) {// NOSONAR record any error in report
+					error = e;
 				}
-				predSQL.addSql(")");
-			} else if (SqlOption.ENABLE_HANDLERS.equals(sqlItemType)) {
-				predSQL.enableAllHandlers();
-			} else if (SqlOption.DISABLE_HANDLERS.equals(sqlItemType)) {
-				predSQL.disableHandlers((Object[]) sqItem.getParameters());
-			} else if (SqlOption.SWITCHTO.equals(sqlItemType)) {
-				predSQL.setSwitchTo((DbPro) sqItem.getParameters()[0]);
-			} else
-				return false;
-		} else if (item instanceof Text)
-			predSQL.addSql(item.toString());
-		else if (item instanceof Connection)
-			predSQL.setConnection((Connection) item);
-		else if (item instanceof DbPro)
-			predSQL.setSwitchTo((DbPro) item);
-		else if (item instanceof SqlHandler)
-			predSQL.addHandler((SqlHandler) item);
-		else if (item instanceof ResultSetHandler)
-			predSQL.setResultSetHandler((ResultSetHandler) item);
-		else if (item instanceof Class) {
-			if (Text.class.isAssignableFrom((Class) item)) {
-				String text = Text.classToString((Class) item);
-				predSQL.addSqlOrParam(inlineStyle, text);
-				return true;
-			} else
-				return false;
-		} else if (item instanceof CustomizedSqlItem) {
-			((CustomizedSqlItem) item).doPrepare(predSQL);
-		} else
-			return false;
-		return true;
+				result.add(new WarmUpReport.Item(type, name, System.nanoTime() - start, error));
+				return result;
+			}
+		};
+	}
+
+	private static List<WarmUpReport.Item> runWarmUpTasks(ForkJoinPool pool,
+			List<Callable<List<WarmUpReport.Item>>> tasks) {
+		List<WarmUpReport.Item> items = new ArrayList<WarmUpReport.Item>();
+		try {
+			for (Future<List<WarmUpReport.Item>> future : pool.invokeAll(tasks))
+				items.addAll(future.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DbProException("Interrupted when warm up", e);
+		} catch (ExecutionException e) {
+			throw new DbProException(e.getCause());
+		}
+		return items;
+	}
+
+	/**
+	 * Hold given count of connections at same time (so a pool give different
+	 * ones), prepare SQL on them in parallel
+	 */
+	private List<WarmUpReport.Item> prepareStatements(ForkJoinPool pool, WarmUpRegistry registry,
+			List<WarmUpReport.Item> warmedItems) {
+		Set<String> failedTexts = new HashSet<String>();
+		for (WarmUpReport.Item item : warmedItems)
+			if ("text".equals(item.getType()) && item.isFailed())
+				failedTexts.add(item.getName());
+		final Map<String, String> sqls = new LinkedHashMap<String, String>();
+		for (Class<? extends Text> clazz : registry.getTexts())
+			if (!failedTexts.contains(clazz.getName()))
+				sqls.put(clazz.getName(), Text.classToString(clazz));
+		sqls.putAll(registry.getSqls());
+		List<WarmUpReport.Item> items = new ArrayList<WarmUpReport.Item>();
+		List<Connection> connections = new ArrayList<Connection>();
+		try {
+			List<Callable<List<WarmUpReport.Item>>> tasks = new ArrayList<Callable<List<WarmUpReport.Item>>>();
+			for (int i = 0; i < registry.getConnections(); i++) {
+				long start = System.nanoTime();
+				final Connection conn;
+				try {
+					conn = getDataSource().getConnection();
+				} catch (Exception e) {// NOSONAR
+					items.add(new WarmUpReport.Item("connect", "#" + (i + 1), System.nanoTime() - start, e));
+					continue;
+				}
+				connections.add(conn);
+				final String suffix = registry.getConnections() > 1 ? " #" + (i + 1) : "";
+				for (final Entry<String, String> sql : sqls.entrySet())
+					tasks.add(warmUpTask("prepare", sql.getKey() + suffix, new Callable<Object>() {
+						@Override
+						public Object call() throws SQLException {
+							synchronized (conn) {// a Connection may not support concurrent use
+								conn.prepareStatement(sql.getValue()).close();
+							}
+							return null;
+						}
+					}));
+			}
+			items.addAll(runWarmUpTasks(pool, tasks));
+		} finally {
+			for (Connection conn : connections)
+				try {
+					conn.close();
+				} catch (SQLException e) {// NOSONAR
+					logger.warn("Fail to close connection after warm up", e);
+				}
+		}
+		return items;
 	}
 
 	// ============================================================================
@@ -367,6 +456,30 @@ public class DbPro extends ImprovedQueryRunner implements NormalJdbcTool {// NOS
 		return (T) runPreparedSQL(ps);
 	}
 
+	/**
+	 * Compile in-line style SQL items into a CompiledQuery, SQL items are explained
+	 * only once, later executions only need bind parameters, for example:
+	 *
+	 * CompiledQuery q = db.compile("select count(*) from users where age>?",
+	 * new ScalarHandler&lt;Long&gt;());<br/>
+	 * long count = q.query(20);
+	 *
+	 * Global SqlHandlers and master-slave option are captured at compile time.
+	 * Stream parameters (blob(), clob(), InputStream, Reader) can only be read
+	 * once, they can not be given in compile(), pass them to each execution.
+	 */
+	public CompiledQuery compile(Object... items) {
+		PreparedSQL ps = dealSqlItems(null, true, items);
+		for (Object param : ps.getParams())
+			if (param instanceof LobParam || param instanceof InputStream || param instanceof Reader)
+				throw new DbProException(
+						"Stream parameter can only be used once, it can not be compiled, pass it to each execution");
+		ps.setSqlHandlerChain(ps.getSqlHandlerChain().merge(getSqlHandlerChain()));
+		if (ps.getMasterSlaveOption() == null)
+			ps.setMasterSlaveOption(getMasterSlaveOption());
+		return new CompiledQuery(this, ps);
+	}
+
 	public void ________pXxxxStyles________() {// NOSONAR
 	}
 
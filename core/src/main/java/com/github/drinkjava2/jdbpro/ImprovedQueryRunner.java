@@ -66,6 +66,8 @@ public class ImprovedQueryRunner extends QueryRunner implements DataSourceHolder
 	protected static Integer globalNextBatchSize = 300;
 	protected static SqlTemplateEngine globalNextTemplateEngine = BasicSqlTemplate.instance();
 	protected static SqlHandler[] globalNextSqlHandlers = null;
+	protected static WriteListener[] globalNextWriteListeners = null;
+	protected static int[] globalNextInQuestionBuckets = null;
 
 	protected SqlTemplateEngine sqlTemplateEngine = globalNextTemplateEngine;
 	protected ConnectionManager connectionManager = globalNextConnectionManager;
@@ -73,6 +75,10 @@ public class ImprovedQueryRunner extends QueryRunner implements DataSourceHolder
 	protected SqlOption masterSlaveOption = globalNextMasterSlaveOption;
 	protected Integer batchSize = globalNextBatchSize;
 	protected SqlHandler[] sqlHandlers = globalNextSqlHandlers;
+	private volatile SqlHandlerChain sqlHandlerChain = SqlHandlerChain.of(sqlHandlers);
+	private volatile ThreadedChain lastThreadedChain; // last merged thread-local chain
+	protected volatile WriteListener[] writeListeners = globalNextWriteListeners;
+	protected int[] inQuestionBuckets = globalNextInQuestionBuckets; // null means power of 2
 
 	protected DbPro[] slaves;
 	protected DbPro[] masters;
@@ -158,7 +164,24 @@ public class ImprovedQueryRunner extends QueryRunner implements DataSourceHolder
 	public void fillStatement(PreparedStatement stmt, Object... params) throws SQLException {
 		if (this.getAllowShowSQL() && !batchEnabled.get())
 			logger.info(formatParametersForLoggerOutput(params));
-		super.fillStatement(stmt, params);
+		if (params == null) {
+			super.fillStatement(stmt, params);
+			return;
+		}
+		Object[] realParams = params;
+		for (int i = 0; i < params.length; i++) // LOB streams be bound after other parameters
+			if (LobParam.asLobParam(params[i]) != null) {
+				if (realParams == params)
+					realParams = params.clone();
+				realParams[i] = null;
+			}
+		super.fillStatement(stmt, realParams);
+		if (realParams != params)
+			for (int i = 0; i < params.length; i++) {
+				LobParam lob = LobParam.asLobParam(params[i]);
+				if (lob != null)
+					lob.bind(stmt, i + 1);
+			}
 	}
 
 	// =========== Explain SQL about methods========================
@@ -280,6 +303,7 @@ public class ImprovedQueryRunner extends QueryRunner implements DataSourceHolder
 			default:
 				throw new DbProException("Unknow batch sql operation type:" + first.getOperationType());
 			}
+			notifyWriteListeners(first);
 		}
 		sqlBatchCache.get().clear();
 		return (T) result;
@@ -422,12 +446,11 @@ public class ImprovedQueryRunner extends QueryRunner implements DataSourceHolder
 			ps.setParams(rendered.getParams());
 		}
 
-		while (ps.getSqlHandlers() != null && !ps.getSqlHandlers().isEmpty()) {
-			SqlHandler handler = ps.getSqlHandlers().get(0);
-			ps.getSqlHandlers().remove(0);
-			if (!ps.isDisabledHandler(handler))
-				return handler.handle(this, ps);
-		}
+		SqlHandler handler = ps.nextSqlHandler();
+		if (handler != null)
+			return handler.handle(this, ps);
+		if (InListParam.contains(ps.getParams()))
+			InListParam.expandToQuestions(ps, this);
 		return runRealSqlMethod(ps);
 	}
 
@@ -449,23 +472,9 @@ public class ImprovedQueryRunner extends QueryRunner implements DataSourceHolder
 		case EXECUTE:
 		case UPDATE:
 		case INSERT: {
-			if (SqlOption.USE_MASTER.equals(ps.getMasterSlaveOption())
-					|| SqlOption.USE_AUTO.equals(ps.getMasterSlaveOption())) {
-				return runWriteOperations(this, ps);
-			} else if (SqlOption.USE_BOTH.equals(ps.getMasterSlaveOption())) {
-				if (this.getSlaves() != null)
-					for (DbPro dbPro : this.getSlaves())
-						runWriteOperations(dbPro, ps);
-				return runWriteOperations(this, ps);
-			} else if (SqlOption.USE_SLAVE.equals(ps.getMasterSlaveOption())) {
-				Object result = null;
-				if (this.getSlaves() == null || this.getSlaves().length == 0)
-					throw new DbProException("Try to write slaves but slave list not found");
-				for (DbPro dbPro : this.getSlaves())
-					result = runWriteOperations(dbPro, ps);
-				return result;
-			} else
-				throw new DbProException("Should never run to here");
+			Object result = runWriteSql(ps);
+			notifyWriteListeners(ps);
+			return result;
 		}
 		case QUERY: {
 			if (SqlOption.USE_MASTER.equals(ps.getMasterSlaveOption())
@@ -486,6 +495,35 @@ public class ImprovedQueryRunner extends QueryRunner implements DataSourceHolder
 		throw new DbProException("Unknow SQL operation type " + ps.getOperationType());
 	}
 
+	/** Execute write SQL on master and/or slaves according MasterSlaveOption */
+	private Object runWriteSql(PreparedSQL ps) {
+		if (SqlOption.USE_MASTER.equals(ps.getMasterSlaveOption())
+				|| SqlOption.USE_AUTO.equals(ps.getMasterSlaveOption())) {
+			return runWriteOperations(this, ps);
+		} else if (SqlOption.USE_BOTH.equals(ps.getMasterSlaveOption())) {
+			if (this.getSlaves() != null)
+				for (DbPro dbPro : this.getSlaves())
+					runWriteOperations(dbPro, ps);
+			return runWriteOperations(this, ps);
+		} else if (SqlOption.USE_SLAVE.equals(ps.getMasterSlaveOption())) {
+			Object result = null;
+			if (this.getSlaves() == null || this.getSlaves().length == 0)
+				throw new DbProException("Try to write slaves but slave list not found");
+			for (DbPro dbPro : this.getSlaves())
+				result = runWriteOperations(dbPro, ps);
+			return result;
+		} else
+			throw new DbProException("Should never run to here");
+	}
+
+	/** Notify all WriteListeners after a write SQL executed */
+	protected void notifyWriteListeners(PreparedSQL ps) {
+		WriteListener[] listeners = writeListeners;
+		if (listeners != null)
+			for (WriteListener listener : listeners)
+				listener.afterWrite(this, ps);
+	}
+
 	private Object runReadOperation(PreparedSQL ps) {
 		if (SqlOption.USE_MASTER.equals(ps.getMasterSlaveOption())
 				|| SqlOption.USE_BOTH.equals(ps.getMasterSlaveOption()))
@@ -787,6 +825,50 @@ public class ImprovedQueryRunner extends QueryRunner implements DataSourceHolder
 		return array;
 	}
 
+	/**
+	 * Return the sorted chain of global SqlHandlers, it's only rebuilt when
+	 * SqlHandlers changed
+	 */
+	public SqlHandlerChain getSqlHandlerChain() {
+		SqlHandlerChain chain = sqlHandlerChain;
+		SqlHandler[] handlers = sqlHandlers;
+		if (!chain.isBuiltFrom(handlers)) {
+			chain = SqlHandlerChain.of(handlers);
+			sqlHandlerChain = chain;
+		}
+		return chain;
+	}
+
+	/**
+	 * Return the chain of global SqlHandlers merged with given ThreadLocal
+	 * SqlHandlers, the last merged chain is cached and reused if called again
+	 * with same handlers
+	 */
+	public SqlHandlerChain getSqlHandlerChain(SqlHandler[] threadLocalHandlers) {
+		SqlHandlerChain global = getSqlHandlerChain();
+		if (threadLocalHandlers == null || threadLocalHandlers.length == 0)
+			return global;
+		ThreadedChain last = lastThreadedChain;
+		if (last != null && last.global == global && Arrays.equals(last.threaded, threadLocalHandlers))
+			return last.merged;
+		SqlHandler[] threaded = threadLocalHandlers.clone();
+		SqlHandlerChain merged = global.merge(SqlHandlerChain.of(threaded));
+		lastThreadedChain = new ThreadedChain(global, threaded, merged);
+		return merged;
+	}
+
+	private static class ThreadedChain {
+		final SqlHandlerChain global;
+		final SqlHandler[] threaded;
+		final SqlHandlerChain merged;
+
+		ThreadedChain(SqlHandlerChain global, SqlHandler[] threaded, SqlHandlerChain merged) {
+			this.global = global;
+			this.threaded = threaded;
+			this.merged = merged;
+		}
+	}
+
 	/**
 	 * Get current thread's ThreadLocal SqlHandler
 	 */
@@ -863,6 +945,32 @@ public class ImprovedQueryRunner extends QueryRunner implements DataSourceHolder
 		return this.getConnectionManager().rollbackTransaction();
 	}
 
+	/** Return the padded size of an IN list has given size */
+	public int inQuestionBucketSize(int size) {
+		if (size <= 1)
+			return size;
+		int[] buckets = inQuestionBuckets;
+		if (buckets == null) {
+			int bucket = Integer.highestOneBit(size);
+			return bucket == size || bucket >= (1 << 30) ? size : bucket << 1;
+		}
+		for (int bucket : buckets)
+			if (bucket >= size)
+				return bucket;
+		int biggest = buckets[buckets.length - 1];
+		return (int) Math.min(Integer.MAX_VALUE, ((long) size + biggest - 1) / biggest * biggest);
+	}
+
+	private static int[] checkInQuestionBuckets(int[] buckets) {
+		if (buckets == null || buckets.length == 0)
+			return null;
+		int[] sorted = buckets.clone();
+		Arrays.sort(sorted);
+		if (sorted[0] <= 0)
+			throw new DbProException("In question bucket size should be bigger than 0");
+		return sorted;
+	}
+
 	protected void staticGlobalNextMethods_____________________() {// NOSONAR
 	}
 
@@ -914,6 +1022,22 @@ public class ImprovedQueryRunner extends QueryRunner implements DataSourceHolder
 		globalNextSqlHandlers = sqlHandlers;
 	}
 
+	public static WriteListener[] getGlobalNextWriteListeners() {
+		return globalNextWriteListeners;
+	}
+
+	public static void setGlobalNextWriteListeners(WriteListener... writeListeners) {
+		globalNextWriteListeners = writeListeners;
+	}
+
+	public static int[] getGlobalNextInQuestionBuckets() {
+		return globalNextInQuestionBuckets;
+	}
+
+	public static void setGlobalNextInQuestionBuckets(int... buckets) {
+		globalNextInQuestionBuckets = checkInQuestionBuckets(buckets);
+	}
+
 	private void normalGetterSetters_____________________() {// NOSONAR
 	}
 
@@ -926,6 +1050,20 @@ public class ImprovedQueryRunner extends QueryRunner implements DataSourceHolder
 		this.allowShowSQL = allowShowSQL;
 	}
 
+	public int[] getInQuestionBuckets() {
+		return inQuestionBuckets;
+	}
+
+	/**
+	 * Set bucket sizes of inQuestion() parameters, for example 10, 50, 200, an IN
+	 * list longer than the biggest bucket is padded to multiple of it. Set null to
+	 * use power of 2 buckets. This method is not thread safe, suggest only use at
+	 * program starting
+	 */
+	public void setInQuestionBuckets(int... inQuestionBuckets) {// NOSONAR
+		this.inQuestionBuckets = checkInQuestionBuckets(inQuestionBuckets);
+	}
+
 	public SqlTemplateEngine getSqlTemplateEngine() {
 		return sqlTemplateEngine;
 	}
@@ -962,6 +1100,43 @@ public class ImprovedQueryRunner extends QueryRunner implements DataSourceHolder
 		this.sqlHandlers = sqlHandlers;
 	}
 
+	public WriteListener[] getWriteListeners() {
+		return writeListeners;
+	}
+
+	/** This method is not thread safe, suggest only use at program starting */
+	public void setWriteListeners(WriteListener[] writeListeners) {// NOSONAR
+		this.writeListeners = writeListeners;
+	}
+
+	/**
+	 * Add a WriteListener if not added, this method is thread safe, it can be
+	 * called at runtime, for example by a cache SqlHandler
+	 */
+	public synchronized void addWriteListener(WriteListener listener) {
+		WriteListener[] old = writeListeners;
+		if (old == null) {
+			writeListeners = new WriteListener[] { listener };
+			return;
+		}
+		for (WriteListener l : old)
+			if (l == listener)
+				return;
+		WriteListener[] listeners = Arrays.copyOf(old, old.length + 1);
+		listeners[old.length] = listener;
+		writeListeners = listeners;
+	}
+
+	/** Remove a WriteListener, this method is thread safe */
+	public synchronized void removeWriteListener(WriteListener listener) {
+		WriteListener[] old = writeListeners;
+		if (old == null)
+			return;
+		List<WriteListener> list = new ArrayList<WriteListener>(Arrays.asList(old));
+		if (list.remove(listener))
+			writeListeners = list.isEmpty() ? null : list.toArray(new WriteListener[list.size()]);
+	}
+
 	public DbPro[] getSlaves() {
 		return slaves;
 	}
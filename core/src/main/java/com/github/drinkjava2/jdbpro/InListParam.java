@@ -0,0 +1,195 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * InListParam is a SQL parameter stands for values of an IN list, it's created
+ * by JDBPRO.inList() method and take only one "?" in SQL, for example:
+ *
+ * <pre>
+ * db.iQuery(new MapListHandler(), "select * from users where id in (", inList(ids), ")");
+ * </pre>
+ *
+ * Before SQL be executed, by default the "?" is expanded to "?,?,?...?" and
+ * padded to a bucket size like inQuestion() method. A LargeInListHandler can
+ * choose other strategies for large lists, like bind a SQL ARRAY, split query
+ * into chunks or load values into a temporary table.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class InListParam {
+	private final Object[] values;
+
+	private InListParam(Object[] values) {
+		this.values = values;
+	}
+
+	/**
+	 * Create an InListParam, a single Collection or array value is expanded,
+	 * empty list is not allowed because "in ()" is illegal SQL
+	 */
+	public static InListParam of(Object... values) {
+		Object[] array = flatten(values);
+		if (array.length == 0)
+			throw new DbProException("IN list need at least 1 value");
+		return new InListParam(array);
+	}
+
+	/** If values is a single Collection or array, return its items */
+	public static Object[] flatten(Object... values) {
+		if (values == null)
+			return new Object[] { null };
+		if (values.length != 1 || values[0] == null)
+			return values;
+		Object value = values[0];
+		if (value instanceof Collection)
+			return ((Collection<?>) value).toArray();
+		if (value instanceof Object[])
+			return (Object[]) value;
+		if (value.getClass().isArray()) {
+			Object[] result = new Object[Array.getLength(value)];
+			for (int i = 0; i < result.length; i++)
+				result[i] = Array.get(value, i);
+			return result;
+		}
+		return values;
+	}
+
+	/** Return a new InListParam has values from fromIndex(inclusive) to toIndex */
+	public InListParam subList(int fromIndex, int toIndex) {
+		return new InListParam(Arrays.copyOfRange(values, fromIndex, toIndex));
+	}
+
+	/** Expand an InListParam to SQL piece and parameters */
+	public interface Expander {
+		/**
+		 * @param inList
+		 *            The InListParam
+		 * @param params
+		 *            Add real parameters into this list
+		 * @return The SQL piece to replace the "?" of InListParam, return null to
+		 *         keep the "?" and InListParam unchanged
+		 */
+		String expand(InListParam inList, List<Object> params);
+	}
+
+	/** Check if parameters has any InListParam */
+	public static boolean contains(Object[] params) {
+		if (params != null)
+			for (Object param : params)
+				if (param instanceof InListParam)
+					return true;
+		return false;
+	}
+
+	/**
+	 * Rewrite SQL and parameters of a PreparedSQL, each InListParam and its "?"
+	 * is replaced by the result of expander
+	 */
+	public static void expand(PreparedSQL ps, Expander expander) {
+		Object[] params = ps.getParams();
+		if (!contains(params))
+			return;
+		String sql = ps.getSql();
+		StringBuilder sb = new StringBuilder(sql.length() + 16);
+		List<Object> newParams = new ArrayList<Object>(params.length + 16);
+		int paramIndex = 0;
+		int pieceStart = 0;
+		int len = sql.length();
+		for (int i = 0; i < len; i++) {
+			char c = sql.charAt(i);
+			if (c == '\'' || c == '"') {
+				int end = sql.indexOf(c, i + 1);
+				i = end < 0 ? len : end;
+			} else if (c == '-' && i + 1 < len && sql.charAt(i + 1) == '-') {
+				int end = sql.indexOf('\n', i);
+				i = end < 0 ? len : end;
+			} else if (c == '/' && i + 1 < len && sql.charAt(i + 1) == '*') {
+				int end = sql.indexOf("*/", i + 2);
+				i = end < 0 ? len : end + 1;
+			} else if (c == '?') {
+				if (paramIndex >= params.length)
+					break;
+				Object param = params[paramIndex++];
+				String piece = param instanceof InListParam ? expander.expand((InListParam) param, newParams) : null;
+				if (piece == null)
+					newParams.add(param);
+				else {
+					sb.append(sql, pieceStart, i).append(piece);
+					pieceStart = i + 1;
+				}
+			}
+		}
+		if (paramIndex != params.length)
+			throw new DbProException("Can not locate IN list parameters, question marks in SQL not match parameters: "
+					+ sql);
+		sb.append(sql, pieceStart, len);
+		ps.setSql(sb.toString());
+		ps.setParams(newParams.toArray());
+	}
+
+	/**
+	 * Expand all InListParam to "?,?,?...?", question marks count padded to bucket
+	 * size of given runner
+	 */
+	public static void expandToQuestions(PreparedSQL ps, final ImprovedQueryRunner runner) {
+		expand(ps, new Expander() {
+			@Override
+			public String expand(InListParam inList, List<Object> params) {
+				int size = runner.inQuestionBucketSize(inList.values.length);
+				StringBuilder sb = new StringBuilder(size * 2);
+				for (int i = 0; i < size; i++) {
+					if (i > 0)
+						sb.append(',');
+					sb.append('?');
+					params.add(inList.values[Math.min(i, inList.values.length - 1)]);
+				}
+				return sb.toString();
+			}
+		});
+	}
+
+	public Object[] getValues() {
+		return values;
+	}
+
+	public int size() {
+		return values.length;
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(values);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof InListParam && Arrays.equals(values, ((InListParam) obj).values);
+	}
+
+	@Override
+	public String toString() {
+		return "inList(" + values.length + " values)";
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro;
+
+import java.util.Arrays;
+
+/**
+ * InlineParams store parameters of JDBPRO's PARA0/PARA/QUES0/QUES/PARAMS
+ * methods in a stack of frames of current thread: PARA0 and QUES0 start a new
+ * frame, PARA and QUES add parameters into current frame, PARAMS return and
+ * remove current frame, so a nested PARA0...PARAMS call (for example in a
+ * method called when building SQL) does not disturb outer parameters:
+ * 
+ * <pre>
+ * db.pExecute("update users set name=" + QUES0("Tom") + " where id=" + QUES(findId("Sam")), PARAMS());
+ * </pre>
+ * 
+ * All frames share one growable buffer, when the outermost frame is removed
+ * the ThreadLocal is removed too, so nothing is retained by pooled threads or
+ * virtual threads. A PARA0() call without parameter removes all frames as
+ * before. Frames left by exceptions before PARAMS() called are kept until next
+ * PARA0(), or dropped (oldest first) when frames nested more than 64 levels.
+ * To remove unfinished frames at once, use a Scope:
+ * 
+ * <pre>
+ * try (InlineParams.Scope scope = InlineParams.open()) {
+ * 	db.pExecute("insert into users (name) " + PARA0(name) + VALUESQUES(), PARAMS());
+ * }
+ * </pre>
+ * 
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public final class InlineParams {
+	private static final Object[] EMPTY = new Object[0];
+	private static final int MAX_DEPTH = 64;
+	private static final ThreadLocal<InlineParams> CURRENT = new ThreadLocal<InlineParams>();
+
+	private Object[] buffer = new Object[16];
+	private int size = 0;
+	private int[] frames = new int[4]; // start position of each frame in buffer
+	private int depth = 0;
+
+	private InlineParams() {
+	}
+
+	private static InlineParams current() {
+		InlineParams params = CURRENT.get();
+		if (params == null) {
+			params = new InlineParams();
+			CURRENT.set(params);
+		}
+		return params;
+	}
+
+	private void push() {
+		if (depth == MAX_DEPTH)
+			dropOldest(MAX_DEPTH / 2);
+		if (depth == frames.length)
+			frames = Arrays.copyOf(frames, depth * 2);
+		frames[depth++] = size;
+	}
+
+	private void append(Object[] params) {
+		if (depth == 0)
+			push();
+		if (size + params.length > buffer.length)
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + params.length));
+		System.arraycopy(params, 0, buffer, size, params.length);
+		size += params.length;
+	}
+
+	/**
+	 * Remove given number of oldest frames, they are left by statements failed
+	 * before PARAMS() called
+	 */
+	private void dropOldest(int count) {
+		int start = frames[count];
+		System.arraycopy(buffer, start, buffer, 0, size - start);
+		Arrays.fill(buffer, size - start, size, null);
+		size -= start;
+		depth -= count;
+		for (int i = 0; i < depth; i++)
+			frames[i] = frames[i + count] - start;
+	}
+
+	/** Remove frames until only given number of frames left */
+	private void truncate(int toDepth) {
+		if (depth <= toDepth)
+			return;
+		int start = frames[toDepth];
+		depth = toDepth;
+		Arrays.fill(buffer, start, size, null);
+		size = start;
+		if (depth == 0)
+			CURRENT.remove();
+	}
+
+	/** Start a new frame in current thread */
+	public static void begin() {
+		current().push();
+	}
+
+	/** Add parameters into current frame, if no frame, start one */
+	public static void add(Object... params) {
+		current().append(params);
+	}
+
+	/** Return how many parameters in current frame */
+	public static int size() {
+		InlineParams params = CURRENT.get();
+		if (params == null || params.depth == 0)
+			return 0;
+		return params.size - params.frames[params.depth - 1];
+	}
+
+	/** Return parameters of current frame and remove the frame */
+	public static Object[] end() {
+		InlineParams params = CURRENT.get();
+		if (params == null || params.depth == 0)
+			return EMPTY;
+		int start = params.frames[params.depth - 1];
+		Object[] result = start == params.size ? EMPTY : Arrays.copyOfRange(params.buffer, start, params.size);
+		params.truncate(params.depth - 1);
+		return result;
+	}
+
+	/** Return how many frames exist in current thread */
+	public static int depth() {
+		InlineParams params = CURRENT.get();
+		return params == null ? 0 : params.depth;
+	}
+
+	/** Remove all frames of current thread */
+	public static void clear() {
+		CURRENT.remove();
+	}
+
+	/**
+	 * Open a Scope, when it closed, frames started after it opened and not ended
+	 * are removed
+	 */
+	public static Scope open() {
+		return new Scope(depth());
+	}
+
+	/** A Scope used in try-with-resources statement to clean unfinished frames */
+	public static final class Scope implements AutoCloseable {
+		private final int depth;
+
+		private Scope(int depth) {
+			this.depth = depth;
+		}
+
+		@Override
+		public void close() {
+			InlineParams params = CURRENT.get();
+			if (params != null)
+				params.truncate(depth);
+		}
+	}
+
+}
@@ -15,7 +15,8 @@
  */
 package com.github.drinkjava2.jdbpro;
 
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.io.Reader;
 
 /**
  * JDBPRO store some public static methods, usually used for static import to
@@ -34,68 +35,63 @@ public abstract class JDBPRO {
 	protected void ________INLINE_Methods________() {// NOSONAR
 	}
 
-	/** ThreadLocal variant cache INLINE methods */
-	private static ThreadLocal<ArrayList<Object>> INLINE_PARAM_CACHE = new ThreadLocal<ArrayList<Object>>() {// NOSONAR
-		@Override
-		protected ArrayList<Object> initialValue() {
-			return new ArrayList<Object>();
-		}
-	};
-
 	/**
-	 * Clear all ThreadLocal parameters first, then cache parameters in ThreadLocal
-	 * and return an empty String, a non parameter param0() call equal to
-	 * clearAllInlineThreadlocalParams()
+	 * Start a new frame of inline parameters and cache parameters in it, return an
+	 * empty String, see InlineParams. If no parameter given, clear all inline
+	 * parameters of current thread.
 	 */
 	public static String PARA0(Object... params) {// NOSONAR
-		INLINE_PARAM_CACHE.get().clear();
+		if (params == null || params.length == 0) {
+			InlineParams.clear();
+			return "";
+		}
+		InlineParams.begin();
 		return PARA(params);
 	}
 
-	/** Cache parameters in ThreadLocal and return an empty String */
+	/**
+	 * Cache parameters in current inline parameters frame and return an empty
+	 * String
+	 */
 	public static String PARA(Object... params) {// NOSONAR
-		for (Object o : params)
-			INLINE_PARAM_CACHE.get().add(o);
+		InlineParams.add(params);
 		return "";
 	}
 
 	/**
-	 * Build a PreparedSQL instance by given in-line style SQL and parameters stored
-	 * in ThreadLocal
+	 * Return parameters cached in current inline parameters frame, and remove the
+	 * frame
 	 * 
-	 * @param inlineSQL
-	 * @return PreparedSQL instance
+	 * @return parameters array
 	 */
 	public static Object[] PARAMS() {// NOSONAR
-		try {
-			return INLINE_PARAM_CACHE.get().toArray();
-		} finally {
-			INLINE_PARAM_CACHE.get().clear();
-		}
+		return InlineParams.end();
 	}
 
 	/**
-	 * Clear all ThreadLocal parameters first, then cache parameters in ThreadLocal,
-	 * then return a "?" String
+	 * Start a new frame of inline parameters and cache parameters in it, then
+	 * return a "?" String
 	 */
 	public static String QUES0(Object... params) {// NOSONAR
-		INLINE_PARAM_CACHE.get().clear();
+		InlineParams.begin();
 		return QUES(params);
 	}
 
-	/** Cache parameters in ThreadLocal and return a "?" String */
+	/**
+	 * Cache parameters in current inline parameters frame and return a "?"
+	 * String
+	 */
 	public static String QUES(Object... params) {// NOSONAR
-		for (Object o : params)
-			INLINE_PARAM_CACHE.get().add(o);
+		InlineParams.add(params);
 		return "?";
 	}
 
 	/**
 	 * Create "values(?,?,?...,?)" String according how many SQL parameters be
-	 * cached in ThreadLocal
+	 * cached in current inline parameters frame
 	 */
 	public static String VALUESQUES() {// NOSONAR
-		int howManyQuestionMarks = INLINE_PARAM_CACHE.get().size();
+		int howManyQuestionMarks = InlineParams.size();
 		StringBuilder sb = new StringBuilder("values(");
 		for (int i = 0; i < howManyQuestionMarks; i++) {
 			if (i != howManyQuestionMarks - 1)
@@ -136,6 +132,28 @@ public abstract class JDBPRO {
 		return new SqlItem(SqlOption.QUESTION_PARAM, parameters);
 	}
 
+	/**
+	 * Cache parameters and return a "?,?,?...?" String for an IN list, parameters
+	 * count is padded to a bucket size (default is power of 2) by repeating the
+	 * last parameter, so IN lists of different sizes share a few SQL. A single
+	 * Collection or array parameter is expanded.<br/>
+	 * Example: iQuery("select * from users where id in (", inQuestion(ids), ")");
+	 */
+	public static SqlItem inQuestion(Object... parameters) {
+		return new SqlItem(SqlOption.IN_QUESTION_PARAM, parameters);
+	}
+
+	/**
+	 * Return a "?" String and an InListParam parameter for an IN list, by default
+	 * it's expanded as same as inQuestion() method, a LargeInListHandler can use
+	 * SQL ARRAY, chunks or temporary table for large lists. A single Collection or
+	 * array parameter is expanded.<br/>
+	 * Example: iQuery("select * from users where id in (", inList(ids), ")");
+	 */
+	public static SqlItem inList(Object... values) {
+		return new SqlItem(SqlOption.IN_LIST_PARAM, values);
+	}
+
 	/**
 	 * If last param is not null, then add all items in SQL<br/>
 	 * Example: query("select * from a where 1=1",notNull(" and name=?",name));
@@ -193,4 +211,30 @@ public abstract class JDBPRO {
 	public static SqlItem disableHandlers(Class<?>... args) {
 		return new SqlItem(SqlOption.DISABLE_HANDLERS, (Object[]) args);
 	}
+
+	/**
+	 * Create a LobParam to bind an InputStream by setBinaryStream method,
+	 * Usage: pExecute("insert into docs values(?,?)", id, blob(in));
+	 */
+	public static LobParam blob(InputStream inputStream) {
+		return LobParam.blob(inputStream, -1);
+	}
+
+	/** Create a LobParam to bind an InputStream with known length */
+	public static LobParam blob(InputStream inputStream, long length) {
+		return LobParam.blob(inputStream, length);
+	}
+
+	/**
+	 * Create a LobParam to bind a Reader by setCharacterStream method, Usage:
+	 * pExecute("insert into docs values(?,?)", id, clob(reader));
+	 */
+	public static LobParam clob(Reader reader) {
+		return LobParam.clob(reader, -1);
+	}
+
+	/** Create a LobParam to bind a Reader with known length */
+	public static LobParam clob(Reader reader, long length) {
+		return LobParam.clob(reader, length);
+	}
 }
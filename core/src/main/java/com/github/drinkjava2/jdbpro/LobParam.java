@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * LobParam is a SQL parameter which bind an InputStream or Reader to a
+ * PreparedStatement by setBinaryStream/setCharacterStream method, so large
+ * objects can be written to database without load them into memory. Create it
+ * by JDBPRO.blob() or JDBPRO.clob() method, for example:
+ *
+ * <pre>
+ * db.pExecute("insert into docs (id, content) values(?,?)", 1, blob(in, file.length()));
+ * db.iExecute("insert into docs (id, content) values(?,?)", param(1, clob(reader)));
+ * </pre>
+ *
+ * Stream will not be closed by jDbPro, caller should close it after SQL
+ * executed.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class LobParam {
+	private final InputStream inputStream;
+	private final Reader reader;
+	private final long length; // -1 means unknown length
+
+	private LobParam(InputStream inputStream, Reader reader, long length) {
+		this.inputStream = inputStream;
+		this.reader = reader;
+		this.length = length;
+	}
+
+	/** Create a binary LobParam, length -1 means unknown */
+	public static LobParam blob(InputStream inputStream, long length) {
+		return new LobParam(inputStream, null, length);
+	}
+
+	/** Create a character LobParam, length -1 means unknown */
+	public static LobParam clob(Reader reader, long length) {
+		return new LobParam(null, reader, length);
+	}
+
+	/** Bind this LobParam to given parameter index (start from 1) */
+	public void bind(PreparedStatement stmt, int index) throws SQLException {
+		if (inputStream != null) {
+			if (length < 0)
+				stmt.setBinaryStream(index, inputStream);
+			else
+				stmt.setBinaryStream(index, inputStream, length);
+		} else if (reader != null) {
+			if (length < 0)
+				stmt.setCharacterStream(index, reader);
+			else
+				stmt.setCharacterStream(index, reader, length);
+		} else
+			stmt.setObject(index, null);
+	}
+
+	/**
+	 * Check if a SQL parameter should be bind as stream, return a LobParam or
+	 * null if not
+	 */
+	public static LobParam asLobParam(Object param) {
+		if (param instanceof LobParam)
+			return (LobParam) param;
+		if (param instanceof InputStream)
+			return blob((InputStream) param, -1);
+		if (param instanceof Reader)
+			return clob((Reader) param, -1);
+		return null;
+	}
+
+	public InputStream getInputStream() {
+		return inputStream;
+	}
+
+	public Reader getReader() {
+		return reader;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	@Override
+	public String toString() {
+		return (inputStream != null ? "blob" : "clob") + "(" + (length < 0 ? "?" : String.valueOf(length)) + ")";
+	}
+
+}
@@ -18,6 +18,7 @@ package com.github.drinkjava2.jdbpro;
 import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -67,7 +68,19 @@ public class PreparedSQL {
 	/** Store template parameter map, for #{someName} format */
 	private Map<String, Object> templateParamMap;
 
-	/** Optional,SqlHandler instance list */
+	/** Immutable sorted SqlHandler chain, shared with DbPro */
+	private SqlHandlerChain sqlHandlerChain = SqlHandlerChain.EMPTY;
+
+	/** Index of next SqlHandler in sqlHandlerChain to be executed */
+	private int handlerIndex = 0;
+
+	/** Bit i set if handler i of sqlHandlerChain is disabled, built lazily */
+	private BitSet disabledMask;
+
+	/**
+	 * Mutable SqlHandler list, only created when getSqlHandlers() or
+	 * setSqlHandlers() called, if not null it replaces sqlHandlerChain
+	 */
 	private List<SqlHandler> sqlHandlers;
 
 	/** Optional,ResultSetHandler instance, only allow have one */
@@ -119,7 +132,7 @@ public class PreparedSQL {
 		sb.append("\nmasterSlaveSelect=").append(masterSlaveOption);
 		sb.append("\nconnection=").append(connection);
 		sb.append("\nresultSetHandler=").append(resultSetHandler);
-		sb.append("\nsqlHandlers=").append(sqlHandlers);
+		sb.append("\nsqlHandlers=").append(remainingSqlHandlers());
 		sb.append("\nuseTemplate=").append(useTemplate);
 		sb.append("\ntemplateEngine=").append(templateEngine);
 		sb.append("\ntemplateParams=").append(templateParamMap);
@@ -205,15 +218,22 @@ public class PreparedSQL {
 	}
 
 	public void addSqlHandler(SqlHandler sqlHandler) {
-		if (sqlHandlers == null)
-			sqlHandlers = new ArrayList<SqlHandler>();
-		for (int i = sqlHandlers.size() - 1; i >= 0; i--) {
-			if (sqlHandlers.get(i).getOrder() <= sqlHandler.getOrder()) {
-				sqlHandlers.add(i + 1, sqlHandler);
-				return;
+		if (sqlHandlers != null) {
+			for (int i = sqlHandlers.size() - 1; i >= 0; i--) {
+				if (sqlHandlers.get(i).getOrder() <= sqlHandler.getOrder()) {
+					sqlHandlers.add(i + 1, sqlHandler);
+					return;
+				}
 			}
+			sqlHandlers.add(0, sqlHandler);
+			return;
+		}
+		if (handlerIndex > 0) {// drop executed handlers
+			sqlHandlerChain = SqlHandlerChain.ofUnsorted(remainingSqlHandlers());
+			handlerIndex = 0;
 		}
-		sqlHandlers.add(sqlHandler);
+		sqlHandlerChain = sqlHandlerChain.with(sqlHandler);
+		disabledMask = null;
 	}
 
 	public void disableHandlers(Object[] handlersClass) {
@@ -223,6 +243,7 @@ public class PreparedSQL {
 			disabledHandlers = new ArrayList<Class<?>>();
 		for (Object obj : handlersClass)
 			disabledHandlers.add((Class<?>) obj);
+		disabledMask = null;
 	}
 
 	public boolean isDisabledHandler(Object handler) {
@@ -236,6 +257,7 @@ public class PreparedSQL {
 
 	public void enableAllHandlers() {
 		disabledHandlers = null;
+		disabledMask = null;
 	}
 
 	public int getParamSize() {
@@ -285,17 +307,50 @@ public class PreparedSQL {
 	}
 
 	public void addGlobalAndThreadedHandlers(ImprovedQueryRunner dbPro) {
-		if (dbPro.getSqlHandlers() != null)
-			for (SqlHandler handler : dbPro.getSqlHandlers())
-				addSqlHandler(handler);
-		if (ImprovedQueryRunner.getThreadLocalSqlHandlers() != null) {
-			try {
-				for (SqlHandler handler : ImprovedQueryRunner.getThreadLocalSqlHandlers())
-					addSqlHandler(handler);
-			} finally {
-				ImprovedQueryRunner.setThreadLocalSqlHandlers((SqlHandler[]) null);
+		SqlHandler[] threaded = ImprovedQueryRunner.getThreadLocalSqlHandlers();
+		if (threaded != null)
+			ImprovedQueryRunner.setThreadLocalSqlHandlers((SqlHandler[]) null);
+		SqlHandlerChain chain = dbPro.getSqlHandlerChain(threaded);
+		if (sqlHandlers != null) {
+			for (int i = 0; i < chain.size(); i++)
+				addSqlHandler(chain.get(i));
+			return;
+		}
+		if (sqlHandlerChain.isEmpty() && handlerIndex == 0)
+			sqlHandlerChain = chain;
+		else {
+			if (handlerIndex > 0) {
+				sqlHandlerChain = SqlHandlerChain.ofUnsorted(remainingSqlHandlers());
+				handlerIndex = 0;
+			}
+			sqlHandlerChain = sqlHandlerChain.merge(chain);
+		}
+		disabledMask = null;
+	}
+
+	/**
+	 * Return next SqlHandler which is not disabled and move cursor after it, if
+	 * no more SqlHandler, return null
+	 */
+	public SqlHandler nextSqlHandler() {
+		if (sqlHandlers != null) {
+			while (!sqlHandlers.isEmpty()) {
+				SqlHandler handler = sqlHandlers.remove(0);
+				if (!isDisabledHandler(handler))
+					return handler;
 			}
+			return null;
+		}
+		while (handlerIndex < sqlHandlerChain.size()) {
+			int i = handlerIndex++;
+			if (disabledHandlers == null || disabledHandlers.isEmpty())
+				return sqlHandlerChain.get(i);
+			if (disabledMask == null)
+				disabledMask = sqlHandlerChain.disabledMask(disabledHandlers);
+			if (!disabledMask.get(i))
+				return sqlHandlerChain.get(i);
 		}
+		return null;
 	}
 
 	/** If current type is null, set with new type value */
@@ -326,6 +381,34 @@ public class PreparedSQL {
 			addSql(item);
 	}
 
+	/**
+	 * Return a copy of this PreparedSQL which can be executed again later, for
+	 * example by a background thread. Parameters array, SqlHandler list and
+	 * disabled handler list are copied, other fields are shared
+	 */
+	public PreparedSQL copy() {
+		PreparedSQL ps = new PreparedSQL(operationType, connection, resultSetHandler, sql,
+				params == null ? null : params.clone());
+		ps.sqlBuilder.append(sqlBuilder);
+		ps.masterSlaveOption = masterSlaveOption;
+		ps.switchTo = switchTo;
+		ps.useTemplate = useTemplate;
+		ps.templateEngine = templateEngine;
+		ps.templateParamMap = templateParamMap;
+		ps.sqlHandlerChain = sqlHandlerChain;
+		ps.handlerIndex = handlerIndex;
+		ps.sqlHandlers = sqlHandlers == null ? null : new ArrayList<SqlHandler>(sqlHandlers);
+		ps.disabledHandlers = disabledHandlers == null ? null : new ArrayList<Class<?>>(disabledHandlers);
+		ps.disabledMask = disabledMask;
+		ps.others = others;
+		ps.ignoreNull = ignoreNull;
+		ps.models = models;
+		ps.aliases = aliases;
+		ps.givesList = givesList;
+		ps.entityNet = entityNet;
+		return ps;
+	}
+
 	protected void GetterSetters_________________________() {// NOSONAR
 		// === below this line are normal getter && setter======
 	}
@@ -380,14 +463,57 @@ public class PreparedSQL {
 		this.templateParamMap = templateParamMap;
 	}
 
+	/** @return SqlHandlers not executed yet, without copy the shared chain */
+	private List<SqlHandler> remainingSqlHandlers() {
+		return sqlHandlers != null ? sqlHandlers : sqlHandlerChain.subList(handlerIndex);
+	}
+
+	/**
+	 * Return the mutable list of SqlHandlers not executed yet, changes of this
+	 * list take effect on this PreparedSQL, return null if no SqlHandler. Note:
+	 * after this method called, SqlHandlers are run from this list instead of the
+	 * shared SqlHandlerChain, use getSqlHandlerChain() if only need read them.
+	 */
 	public List<SqlHandler> getSqlHandlers() {
+		if (sqlHandlers == null) {
+			if (sqlHandlerChain.isEmpty() && handlerIndex == 0)
+				return null;// NOSONAR
+			sqlHandlers = new ArrayList<SqlHandler>(sqlHandlerChain.subList(handlerIndex));
+			sqlHandlerChain = SqlHandlerChain.EMPTY;
+			handlerIndex = 0;
+			disabledMask = null;
+		}
 		return sqlHandlers;
 	}
 
+	/**
+	 * Set SqlHandlers, they will be executed in the sequence of given list, the
+	 * list is used directly, not copied
+	 */
 	public void setSqlHandlers(List<SqlHandler> sqlHandlers) {
+		setSqlHandlerChain(null);
 		this.sqlHandlers = sqlHandlers;
 	}
 
+	/** @return An immutable chain of SqlHandlers, include executed ones */
+	public SqlHandlerChain getSqlHandlerChain() {
+		if (sqlHandlers != null)
+			return SqlHandlerChain.ofUnsorted(sqlHandlers);
+		return sqlHandlerChain;
+	}
+
+	/** Set SqlHandler chain and reset cursor to its first handler */
+	public void setSqlHandlerChain(SqlHandlerChain sqlHandlerChain) {
+		this.sqlHandlerChain = sqlHandlerChain == null ? SqlHandlerChain.EMPTY : sqlHandlerChain;
+		this.handlerIndex = 0;
+		this.disabledMask = null;
+		this.sqlHandlers = null;
+	}
+
+	public int getHandlerIndex() {
+		return handlerIndex;
+	}
+
 	public ResultSetHandler<?> getResultSetHandler() {// NOSONAR
 		return resultSetHandler;
 	}
@@ -418,6 +544,7 @@ public class PreparedSQL {
 
 	public void setDisabledHandlers(List<Class<?>> disabledHandlers) {
 		this.disabledHandlers = disabledHandlers;
+		this.disabledMask = null;
 	}
 
 	public String[] getAliases() {
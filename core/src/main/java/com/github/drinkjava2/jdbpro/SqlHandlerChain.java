@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SqlHandlerChain is an immutable list of SqlHandlers sorted by their order,
+ * handlers have same order keep the sequence they be added. DbPro build its
+ * chain only when SqlHandlers changed, a PreparedSQL share the chain and use a
+ * cursor index to walk it, so no list copying or sorting for each SQL.
+ * 
+ * Note: chain is sorted when it's built, if change a handler's order later,
+ * need set SqlHandlers again to rebuild the chain.
+ * 
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public final class SqlHandlerChain {
+	public static final SqlHandlerChain EMPTY = new SqlHandlerChain(new SqlHandler[0], null);
+
+	private final SqlHandler[] handlers;
+
+	/** Copy of the array this chain built from, used to check if need rebuild */
+	private final SqlHandler[] source;
+
+	private SqlHandlerChain(SqlHandler[] handlers, SqlHandler[] source) {
+		this.handlers = handlers;
+		this.source = source;
+	}
+
+	/** Build a sorted chain from given handlers, null or empty return EMPTY */
+	public static SqlHandlerChain of(SqlHandler... handlers) {
+		if (handlers == null || handlers.length == 0)
+			return handlers == null ? EMPTY : new SqlHandlerChain(handlers.clone(), handlers.clone());
+		return new SqlHandlerChain(sort(handlers), handlers.clone());
+	}
+
+	/** Build a chain keep the sequence of given list, do not sort */
+	public static SqlHandlerChain ofUnsorted(List<SqlHandler> handlers) {
+		if (handlers == null || handlers.isEmpty())
+			return EMPTY;
+		return new SqlHandlerChain(handlers.toArray(new SqlHandler[handlers.size()]), null);
+	}
+
+	private static SqlHandler[] sort(SqlHandler[] handlers) {
+		SqlHandler[] result = new SqlHandler[handlers.length];
+		int size = 0;
+		for (SqlHandler handler : handlers)
+			size = insert(result, size, handler);
+		return result;
+	}
+
+	/** Insert after the last handler which order not bigger, return new size */
+	private static int insert(SqlHandler[] array, int size, SqlHandler handler) {
+		int i = size;
+		while (i > 0 && array[i - 1].getOrder() > handler.getOrder())
+			i--;
+		System.arraycopy(array, i, array, i + 1, size - i);
+		array[i] = handler;
+		return size + 1;
+	}
+
+	/**
+	 * Return a new chain with given handler inserted after the last handler which
+	 * order not bigger than it
+	 */
+	public SqlHandlerChain with(SqlHandler handler) {
+		SqlHandler[] result = Arrays.copyOf(handlers, handlers.length + 1);
+		insert(result, handlers.length, handler);
+		return new SqlHandlerChain(result, null);
+	}
+
+	/**
+	 * Merge another chain into this one, handlers of other chain are put after
+	 * the handlers of this chain which have same order
+	 */
+	public SqlHandlerChain merge(SqlHandlerChain other) {
+		if (other == null || other.handlers.length == 0)
+			return this;
+		if (handlers.length == 0)
+			return other;
+		SqlHandler[] result = new SqlHandler[handlers.length + other.handlers.length];
+		int i = 0;
+		int j = 0;
+		int k = 0;
+		while (i < handlers.length && j < other.handlers.length) {
+			if (handlers[i].getOrder() <= other.handlers[j].getOrder())
+				result[k++] = handlers[i++];
+			else
+				result[k++] = other.handlers[j++];
+		}
+		while (i < handlers.length)
+			result[k++] = handlers[i++];
+		while (j < other.handlers.length)
+			result[k++] = other.handlers[j++];
+		return new SqlHandlerChain(result, null);
+	}
+
+	/**
+	 * Build a mask of handlers whose class is in given disabled classes list, bit
+	 * i is set if handler i is disabled
+	 */
+	public BitSet disabledMask(List<Class<?>> disabledHandlers) {
+		BitSet mask = new BitSet(handlers.length);
+		for (int i = 0; i < handlers.length; i++)
+			if (disabledHandlers.contains(handlers[i].getClass()))
+				mask.set(i);
+		return mask;
+	}
+
+	/**
+	 * @return true if this chain is built from an array has same handlers as
+	 *         given array, compared by content because an element of the array
+	 *         may be changed in place
+	 */
+	boolean isBuiltFrom(SqlHandler[] array) {
+		if (array == null || source == null)
+			return array == source;
+		if (array.length != source.length)
+			return false;
+		for (int i = 0; i < array.length; i++)
+			if (array[i] != source[i])
+				return false;
+		return true;
+	}
+
+	public int size() {
+		return handlers.length;
+	}
+
+	public boolean isEmpty() {
+		return handlers.length == 0;
+	}
+
+	public SqlHandler get(int index) {
+		return handlers[index];
+	}
+
+	/** @return An unmodifiable list of handlers start from given index */
+	public List<SqlHandler> subList(int fromIndex) {
+		if (fromIndex >= handlers.length)
+			return Collections.emptyList();
+		return Collections.unmodifiableList(Arrays.asList(handlers).subList(fromIndex, handlers.length));
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(handlers);
+	}
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro;
+
+/**
+ * SqlItemExplainer explain one kind of SQL item (String, SqlItem,
+ * Connection...) into a PreparedSQL. DbPro keeps a registry of explainers
+ * keyed by item type, subclass like jSqlBox can register its own explainers
+ * by DbPro.registerSqlItemExplainer() method, for example:
+ * 
+ * <pre>
+ * registerSqlItemExplainer(Entity.class, new SqlItemExplainer() {
+ * 	public boolean explain(DbPro dbPro, boolean inlineStyle, PreparedSQL predSQL, Object item) {
+ * 		predSQL.addModel(item);
+ * 		return true;
+ * 	}
+ * });
+ * </pre>
+ * 
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public interface SqlItemExplainer {
+
+	/**
+	 * Explain a SQL item into a PreparedSQL
+	 * 
+	 * @param dbPro
+	 *            the DbPro instance which is preparing the SQL
+	 * @param inlineStyle
+	 *            if is inside of a in-line style call?
+	 * @param predSQL
+	 *            the PreparedSQL instance
+	 * @param item
+	 *            the SQL item, it's an instance of the registered type
+	 * @return if can not explain the item, return false, otherwise return true
+	 */
+	public boolean explain(DbPro dbPro, boolean inlineStyle, PreparedSQL predSQL, Object item);
+
+}
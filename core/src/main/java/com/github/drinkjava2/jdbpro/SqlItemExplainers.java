@@ -0,0 +1,269 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro;
+
+import java.sql.Connection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.dbutils.ResultSetHandler;
+
+import com.github.drinkjava2.jdbpro.template.SqlTemplateEngine;
+
+/**
+ * Default SqlItemExplainers of DbPro, registered in the order of precedence
+ * (if an item is instance of more than one type, the first one is used)
+ * 
+ * @author Yong Zhu
+ * @since 4.0
+ */
+@SuppressWarnings({ "unchecked", "rawtypes" })
+final class SqlItemExplainers {// NOSONAR
+
+	private SqlItemExplainers() {
+	}
+
+	/** @return A new map of default explainers, in order of precedence */
+	static LinkedHashMap<Class<?>, SqlItemExplainer> createDefaults() {
+		LinkedHashMap<Class<?>, SqlItemExplainer> map = new LinkedHashMap<Class<?>, SqlItemExplainer>();
+		map.put(String.class, STRING);
+		map.put(PreparedSQL.class, PREPARED_SQL);
+		map.put(SqlTemplateEngine.class, TEMPLATE_ENGINE);
+		map.put(Map.class, MAP);
+		map.put(SqlOption.class, SQL_OPTION);
+		map.put(SqlItem.class, SQL_ITEM);
+		map.put(Text.class, TEXT);
+		map.put(Connection.class, CONNECTION);
+		map.put(DbPro.class, DB_PRO);
+		map.put(SqlHandler.class, SQL_HANDLER);
+		map.put(ResultSetHandler.class, RESULTSET_HANDLER);
+		map.put(Class.class, CLASS);
+		map.put(CustomizedSqlItem.class, CUSTOMIZED);
+		return map;
+	}
+
+	/** Used as "no explainer found" result, always return false */
+	static final SqlItemExplainer NONE = new SqlItemExplainer() {
+		@Override
+		public boolean explain(DbPro dbPro, boolean inlineStyle, PreparedSQL predSQL, Object item) {
+			return false;
+		}
+	};
+
+	static final SqlItemExplainer STRING = new SqlItemExplainer() {
+		@Override
+		public boolean explain(DbPro dbPro, boolean inlineStyle, PreparedSQL predSQL, Object item) {
+			predSQL.addSqlOrParam(inlineStyle, (String) item);
+			return true;
+		}
+	};
+
+	static final SqlItemExplainer PREPARED_SQL = new SqlItemExplainer() {
+		@Override
+		public boolean explain(DbPro dbPro, boolean inlineStyle, PreparedSQL predSQL, Object item) {
+			PreparedSQL psItem = (PreparedSQL) item;
+			if (psItem.getSql() != null)
+				predSQL.addSql(psItem.getSql());
+			if (psItem.getParams() != null)
+				for (Object obj : psItem.getParams())
+					predSQL.addParam(obj);
+			return true;
+		}
+	};
+
+	static final SqlItemExplainer TEMPLATE_ENGINE = new SqlItemExplainer() {
+		@Override
+		public boolean explain(DbPro dbPro, boolean inlineStyle, PreparedSQL predSQL, Object item) {
+			predSQL.setTemplateEngine((SqlTemplateEngine) item);
+			return true;
+		}
+	};
+
+	static final SqlItemExplainer MAP = new SqlItemExplainer() {
+		@Override
+		public boolean explain(DbPro dbPro, boolean inlineStyle, PreparedSQL predSQL, Object item) {
+			predSQL.addTemplateMap((Map<String, Object>) item);
+			return true;
+		}
+	};
+
+	static final SqlItemExplainer SQL_OPTION = new SqlItemExplainer() {
+		@Override
+		public boolean explain(DbPro dbPro, boolean inlineStyle, PreparedSQL predSQL, Object item) {
+			SqlOption option = (SqlOption) item;
+			switch (option) {
+			case USE_MASTER:
+			case USE_SLAVE:
+			case USE_AUTO:
+			case USE_BOTH:
+				predSQL.setMasterSlaveOption(option);
+				return true;
+			case USE_TEMPLATE:
+				predSQL.setUseTemplate(true);
+				return true;
+			case EXECUTE:
+			case UPDATE:
+			case QUERY:
+			case INSERT:
+				predSQL.setOperationType(option);
+				return true;
+			default:
+				return false;
+			}
+		}
+	};
+
+	static final SqlItemExplainer SQL_ITEM = new SqlItemExplainer() {
+		@Override
+		public boolean explain(DbPro dbPro, boolean inlineStyle, PreparedSQL predSQL, Object item) {// NOSONAR
+			SqlItem sqItem = (SqlItem) item;
+			if (sqItem.getType() == null)
+				return false;
+			switch (sqItem.getType()) {
+			case OTHER:
+				predSQL.addOther(sqItem);
+				return true;
+			case PARAM:
+				for (Object pm : sqItem.getParameters())
+					predSQL.addParam(pm);
+				return true;
+			case BIND:
+				predSQL.addTemplateParam(sqItem);
+				return true;
+			case SQL:
+				for (Object pm : sqItem.getParameters())
+					predSQL.addSql(pm);
+				return true;
+			case QUESTION_PARAM: {
+				int i = 0;
+				for (Object pm : sqItem.getParameters()) {
+					predSQL.addParam(pm);
+					if (i > 0)
+						predSQL.addSql(",");
+					predSQL.addSql("?");
+					i++;
+				}
+				return true;
+			}
+			case IN_QUESTION_PARAM: {
+				Object[] params = InListParam.of(sqItem.getParameters()).getValues();
+				int size = dbPro.inQuestionBucketSize(params.length);
+				for (int i = 0; i < size; i++) {
+					predSQL.addParam(params[Math.min(i, params.length - 1)]);
+					if (i > 0)
+						predSQL.addSql(",");
+					predSQL.addSql("?");
+				}
+				return true;
+			}
+			case IN_LIST_PARAM:
+				predSQL.addParam(InListParam.of(sqItem.getParameters()));
+				predSQL.addSql("?");
+				return true;
+			case NOT_NULL: {
+				Object[] args = sqItem.getParameters();
+				if (args.length < 2)
+					throw new DbProException("NOT_NULL type SqlItem need at least 2 args");
+				if (args[args.length - 1] != null) {
+					for (int i = 0; i < args.length - 1; i++)
+						dbPro.dealOneSqlItem(true, predSQL, args[i]);// in NOT_NULL type, force use i style
+					predSQL.addParam(args[args.length - 1]);
+				}
+				return true;
+			}
+			case VALUES_QUESTIONS:
+				predSQL.addSql(" values(");
+				for (int i = 0; i < predSQL.getParamSize(); i++) {
+					if (i > 0)
+						predSQL.addSql(",");
+					predSQL.addSql("?");
+				}
+				predSQL.addSql(")");
+				return true;
+			case ENABLE_HANDLERS:
+				predSQL.enableAllHandlers();
+				return true;
+			case DISABLE_HANDLERS:
+				predSQL.disableHandlers((Object[]) sqItem.getParameters());
+				return true;
+			case SWITCHTO:
+				predSQL.setSwitchTo((DbPro) sqItem.getParameters()[0]);
+				return true;
+			default:
+				return false;
+			}
+		}
+	};
+
+	static final SqlItemExplainer TEXT = new SqlItemExplainer() {
+		@Override
+		public boolean explain(DbPro dbPro, boolean inlineStyle, PreparedSQL predSQL, Object item) {
+			predSQL.addSql(item.toString());
+			return true;
+		}
+	};
+
+	static final SqlItemExplainer CONNECTION = new SqlItemExplainer() {
+		@Override
+		public boolean explain(DbPro dbPro, boolean inlineStyle, PreparedSQL predSQL, Object item) {
+			predSQL.setConnection((Connection) item);
+			return true;
+		}
+	};
+
+	static final SqlItemExplainer DB_PRO = new SqlItemExplainer() {
+		@Override
+		public boolean explain(DbPro dbPro, boolean inlineStyle, PreparedSQL predSQL, Object item) {
+			predSQL.setSwitchTo((DbPro) item);
+			return true;
+		}
+	};
+
+	static final SqlItemExplainer SQL_HANDLER = new SqlItemExplainer() {
+		@Override
+		public boolean explain(DbPro dbPro, boolean inlineStyle, PreparedSQL predSQL, Object item) {
+			predSQL.addHandler((SqlHandler) item);
+			return true;
+		}
+	};
+
+	static final SqlItemExplainer RESULTSET_HANDLER = new SqlItemExplainer() {
+		@Override
+		public boolean explain(DbPro dbPro, boolean inlineStyle, PreparedSQL predSQL, Object item) {
+			predSQL.setResultSetHandler((ResultSetHandler) item);
+			return true;
+		}
+	};
+
+	static final SqlItemExplainer CLASS = new SqlItemExplainer() {
+		@Override
+		public boolean explain(DbPro dbPro, boolean inlineStyle, PreparedSQL predSQL, Object item) {
+			if (!Text.class.isAssignableFrom((Class) item))
+				return false;
+			predSQL.addSqlOrParam(inlineStyle, Text.classToString((Class) item));
+			return true;
+		}
+	};
+
+	static final SqlItemExplainer CUSTOMIZED = new SqlItemExplainer() {
+		@Override
+		public boolean explain(DbPro dbPro, boolean inlineStyle, PreparedSQL predSQL, Object item) {
+			((CustomizedSqlItem) item).doPrepare(predSQL);
+			return true;
+		}
+	};
+
+}
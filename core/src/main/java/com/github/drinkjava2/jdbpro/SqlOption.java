@@ -33,6 +33,19 @@ public enum SqlOption {
 	/** Mark a QUESTION_PARAM SqlItem, i.e. a ? String and a parameter */
 	QUESTION_PARAM,
 
+	/**
+	 * Mark a IN_QUESTION_PARAM SqlItem, like QUESTION_PARAM but parameters are
+	 * padded to a bucket size by repeating the last one, to limit how many
+	 * different SQL be created for an IN list
+	 */
+	IN_QUESTION_PARAM,
+
+	/**
+	 * Mark a IN_LIST_PARAM SqlItem, i.e. a ? String and an InListParam parameter
+	 * stands for all values of an IN list
+	 */
+	IN_LIST_PARAM,
+
 	/**
 	 * Mark a Mark a BIND SqlItem, bind Key-Values pairs "key1,value1,
 	 * key2,value2..." for SqlTemplateEngine
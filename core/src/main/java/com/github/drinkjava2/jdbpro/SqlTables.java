@@ -0,0 +1,358 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SqlTables is a light SQL scanner used to find out which tables a SQL depends
+ * on or modifies, it's not a full SQL parser, it only need be "safe": if not
+ * sure, return null means "unknown, maybe any table". Table names are returned
+ * in lower case without quotes and schema prefix. Parse results are cached.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public abstract class SqlTables {// NOSONAR
+	private static final int MAX_CACHE_SIZE = 4096;
+	private static final String[] UNKNOWN = new String[0];
+	private static final String[] NONE = new String[0];
+
+	private static final Map<String, String[]> queryCache = new ConcurrentHashMap<String, String[]>();
+	private static final Map<String, String[]> modifyCache = new ConcurrentHashMap<String, String[]>();
+
+	/** Words after them should not be looked as table alias */
+	private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList("where", "join", "on", "group",
+			"order", "having", "limit", "union", "inner", "left", "right", "full", "cross", "natural", "outer",
+			"using", "window", "fetch", "offset", "for", "except", "intersect", "minus", "lateral", "start",
+			"connect", "into", "set", "values", "select", "from", "as", "with", "returning", "partition", "sample",
+			"tablesample", "straight_join", "force", "use", "ignore", "when", "then", "else", "end"));
+
+	/** Statements which never modify table data */
+	private static final Set<String> NO_MODIFY = new HashSet<String>(Arrays.asList("set", "commit", "rollback",
+			"begin", "start", "savepoint", "release", "show", "explain", "describe", "desc", "analyze", "values"));
+
+	/**
+	 * Find tables a query SQL depends on
+	 *
+	 * @return table names, or null if not sure or no table found
+	 */
+	public static String[] queryTables(String sql) {
+		if (sql == null)
+			return null;// NOSONAR
+		String[] result = queryCache.get(sql);
+		if (result == null) {
+			result = parseQueryTables(tokenize(sql));
+			if (queryCache.size() > MAX_CACHE_SIZE)
+				queryCache.clear();
+			queryCache.put(sql, result == null ? UNKNOWN : result);
+		}
+		return result == UNKNOWN ? null : result;// NOSONAR
+	}
+
+	/**
+	 * Find tables a INSERT/UPDATE/DELETE/DDL SQL modifies
+	 *
+	 * @return table names, or empty array if SQL do not modify data, or null if
+	 *         not sure
+	 */
+	public static String[] modifiedTables(String sql) {
+		if (sql == null)
+			return null;// NOSONAR
+		String[] result = modifyCache.get(sql);
+		if (result == null) {
+			result = parseModifiedTables(tokenize(sql));
+			if (modifyCache.size() > MAX_CACHE_SIZE)
+				modifyCache.clear();
+			modifyCache.put(sql, result == null ? UNKNOWN : result);
+		}
+		return result == UNKNOWN ? null : result;// NOSONAR
+	}
+
+	private static String[] parseQueryTables(List<String> tokens) {
+		if (tokens == null || tokens.isEmpty() || hasMultipleStatements(tokens))
+			return null;// NOSONAR
+		String first = firstWord(tokens);
+		if (!"select".equals(first) && !"with".equals(first))
+			return null;// NOSONAR
+		Set<String> tables = new TreeSet<String>();
+		Set<String> cteNames = new HashSet<String>();
+		for (int i = 0; i < tokens.size(); i++) {
+			String t = tokens.get(i);
+			if ("from".equals(t) || "join".equals(t) || "straight_join".equals(t)) {
+				if (!readTableList(tokens, i + 1, tables))
+					return null;// NOSONAR table function or something not understood
+			}
+			else if ("as".equals(t) && i > 0 && "(".equals(at(tokens, i + 1)) && isName(tokens.get(i - 1)))
+				cteNames.add(tokens.get(i - 1));
+			else if (")".equals(t) && "as".equals(at(tokens, i + 1)) && "(".equals(at(tokens, i + 2))) {
+				int j = skipBackParenthesis(tokens, i); // name (col1, col2) as (...)
+				if (j > 0 && isName(tokens.get(j - 1)))
+					cteNames.add(tokens.get(j - 1));
+			}
+		}
+		for (String cte : cteNames)
+			tables.remove(tableName(cte));
+		return tables.isEmpty() ? null : tables.toArray(new String[tables.size()]);
+	}
+
+	private static String[] parseModifiedTables(List<String> tokens) {// NOSONAR
+		if (tokens == null || tokens.isEmpty() || hasMultipleStatements(tokens))
+			return null;// NOSONAR
+		int i = 0;
+		while (i < tokens.size() && "(".equals(tokens.get(i)))
+			i++;
+		String first = at(tokens, i);
+		if (first == null)
+			return null;// NOSONAR
+		if ("with".equals(first)) { // with ... insert/update/delete
+			int depth = 0;
+			for (int j = i + 1; j < tokens.size(); j++) {
+				String t = tokens.get(j);
+				if ("(".equals(t))
+					depth++;
+				else if (")".equals(t))
+					depth--;
+				else if (depth == 0 && ("insert".equals(t) || "update".equals(t) || "delete".equals(t)
+						|| "merge".equals(t) || "select".equals(t)))
+					return parseModifiedTables(tokens.subList(j, tokens.size()));
+			}
+			return null;// NOSONAR
+		}
+		if ("select".equals(first))
+			return tokens.contains("into") ? null : NONE;
+		if (NO_MODIFY.contains(first))
+			return NONE;
+		String table = null;
+		if ("insert".equals(first) || "replace".equals(first) || "upsert".equals(first) || "merge".equals(first)) {
+			int into = tokens.indexOf("into");
+			if (into < 0 || into > i + 4)
+				return null;// NOSONAR
+			table = at(tokens, into + 1);
+		} else if ("update".equals(first)) {
+			int j = i + 1;
+			while ("low_priority".equals(at(tokens, j)) || "ignore".equals(at(tokens, j)) || "only".equals(at(tokens, j)))
+				j++;
+			table = at(tokens, j);
+			String next = at(tokens, j + 1);
+			if (next != null && !"set".equals(next) && !"set".equals(at(tokens, j + 2))
+					&& !("as".equals(next) && "set".equals(at(tokens, j + 3))))
+				return null;// NOSONAR multiple tables update
+		} else if ("delete".equals(first)) {
+			if (!"from".equals(at(tokens, i + 1)))
+				return null;// NOSONAR
+			int j = i + 2;
+			if ("only".equals(at(tokens, j)))
+				j++;
+			table = at(tokens, j);
+			if ("using".equals(at(tokens, j + 1)) || ",".equals(at(tokens, j + 1)))
+				return null;// NOSONAR
+		} else if ("truncate".equals(first)) {
+			Set<String> tables = new TreeSet<String>();
+			if (!readTableList(tokens, "table".equals(at(tokens, i + 1)) ? i + 2 : i + 1, tables))
+				return null;// NOSONAR
+			return tables.isEmpty() ? null : tables.toArray(new String[tables.size()]);
+		} else if ("drop".equals(first) || "alter".equals(first) || "create".equals(first)) {
+			int j = tokens.indexOf("table");
+			if (j < 0 || j > i + 3)
+				return null;// NOSONAR
+			j++;
+			while ("if".equals(at(tokens, j)) || "not".equals(at(tokens, j)) || "exists".equals(at(tokens, j)))
+				j++;
+			table = at(tokens, j);
+		}
+		if (table == null || !isName(table))
+			return null;// NOSONAR
+		return new String[] { tableName(table) };
+	}
+
+	/**
+	 * Read comma separated table names with optional alias, tables of a sub query
+	 * are found by the caller's scanning of its FROM and JOIN words, a
+	 * parenthesised join list is read recursively.
+	 *
+	 * @return false if found something not understood (for example a table
+	 *         function), i.e. the tables are unknown
+	 */
+	private static boolean readTableList(List<String> tokens, int start, Set<String> tables) {// NOSONAR
+		int i = start;
+		while (i < tokens.size()) {
+			String name = tokens.get(i);
+			if ("(".equals(name)) {
+				String next = at(tokens, i + 1);
+				if (!"select".equals(next) && !"with".equals(next) && !readTableList(tokens, i + 1, tables))
+					return false;
+				i = skipParenthesis(tokens, i);
+				if (i < 0)
+					return false;
+			} else if (isName(name) && !KEYWORDS.contains(name)) {
+				if ("(".equals(at(tokens, i + 1)))
+					return false; // table function
+				tables.add(tableName(name));
+			} else
+				return !isName(name); // a keyword like "lateral" is unknown, others are not tables
+			i++;
+			if ("as".equals(at(tokens, i)))
+				i += 2;
+			else if (isName(at(tokens, i)) && !KEYWORDS.contains(at(tokens, i)))
+				i++;
+			if (!",".equals(at(tokens, i)))
+				return true;
+			i++;
+		}
+		return true;
+	}
+
+	/** Return index of the ")" matching the "(" at given index, or -1 */
+	private static int skipParenthesis(List<String> tokens, int open) {
+		int depth = 0;
+		for (int i = open; i < tokens.size(); i++) {
+			if ("(".equals(tokens.get(i)))
+				depth++;
+			else if (")".equals(tokens.get(i)) && --depth == 0)
+				return i;
+		}
+		return -1;
+	}
+
+	private static int skipBackParenthesis(List<String> tokens, int close) {
+		int depth = 0;
+		for (int i = close; i >= 0; i--) {
+			if (")".equals(tokens.get(i)))
+				depth++;
+			else if ("(".equals(tokens.get(i)) && --depth == 0)
+				return i;
+		}
+		return -1;
+	}
+
+	private static boolean hasMultipleStatements(List<String> tokens) {
+		int semi = tokens.indexOf(";");
+		return semi >= 0 && semi < tokens.size() - 1;
+	}
+
+	private static String firstWord(List<String> tokens) {
+		for (String t : tokens)
+			if (!"(".equals(t))
+				return t;
+		return null;
+	}
+
+	private static String at(List<String> tokens, int i) {
+		return i >= 0 && i < tokens.size() ? tokens.get(i) : null;
+	}
+
+	private static boolean isName(String token) {
+		if (token == null || token.length() == 0)
+			return false;
+		char c = token.charAt(0);
+		return c == '"' || Character.isLetter(c) || c == '_' || c == '`' || c == '[' || c == '$';
+	}
+
+	/** Remove quotes and schema prefix, convert to lower case */
+	private static String tableName(String name) {
+		String s = name;
+		int dot = s.lastIndexOf('.');
+		if (dot >= 0)
+			s = s.substring(dot + 1);
+		if (s.length() > 1 && (s.charAt(0) == '"' || s.charAt(0) == '`' || s.charAt(0) == '['))
+			s = s.substring(1, s.length() - 1);
+		return s.toLowerCase();
+	}
+
+	/**
+	 * Split SQL into lower case words, names (quoted names keep quotes, dotted
+	 * names are joined), and "(", ")", ",", ";" symbols. String literals,
+	 * comments and other symbols are dropped. Return null if SQL can not be
+	 * tokenized.
+	 */
+	private static List<String> tokenize(String sql) {// NOSONAR
+		List<String> tokens = new ArrayList<String>();
+		int len = sql.length();
+		int i = 0;
+		StringBuilder name = null; // building a dotted name
+		while (i < len) {
+			char c = sql.charAt(i);
+			int start = i;
+			String part = null;
+			if (c == '\'') { // string literal
+				i++;
+				while (i < len && !(sql.charAt(i) == '\'' && (i + 1 >= len || sql.charAt(i + 1) != '\'')))
+					i += sql.charAt(i) == '\'' ? 2 : 1;
+				if (i >= len)
+					return null;// NOSONAR
+				i++;
+			} else if (c == '-' && i + 1 < len && sql.charAt(i + 1) == '-') {
+				while (i < len && sql.charAt(i) != '\n')
+					i++;
+			} else if (c == '/' && i + 1 < len && sql.charAt(i + 1) == '*') {
+				int end = sql.indexOf("*/", i + 2);
+				if (end < 0)
+					return null;// NOSONAR
+				i = end + 2;
+			} else if (c == '"' || c == '`' || c == '[') {
+				char close = c == '[' ? ']' : c;
+				int end = sql.indexOf(close, i + 1);
+				if (end < 0)
+					return null;// NOSONAR
+				i = end + 1;
+				part = sql.substring(start, i);
+			} else if (Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#' || c == '@') {
+				while (i < len && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_'
+						|| sql.charAt(i) == '$' || sql.charAt(i) == '#' || sql.charAt(i) == '@'))
+					i++;
+				part = sql.substring(start, i).toLowerCase();
+			} else if (c == '.' && name != null) {
+				name.append('.');
+				i++;
+				continue;
+			} else {
+				if (c == '(' || c == ')' || c == ',' || c == ';' || c == '{') {
+					if (name != null) {
+						tokens.add(name.toString());
+						name = null;
+					}
+					tokens.add(c == '{' ? "{" : String.valueOf(c));
+				} else if (name != null && !Character.isWhitespace(c)) {
+					tokens.add(name.toString());
+					name = null;
+				}
+				i++;
+				continue;
+			}
+			if (part != null) {
+				if (name != null && name.charAt(name.length() - 1) == '.')
+					name.append(part);
+				else {
+					if (name != null)
+						tokens.add(name.toString());
+					name = new StringBuilder(part);
+				}
+			}
+		}
+		if (name != null)
+			tokens.add(name.toString());
+		return tokens;
+	}
+
+}
@@ -15,6 +15,9 @@
  */
 package com.github.drinkjava2.jdbpro;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -24,6 +27,9 @@ import java.util.concurrent.ConcurrentHashMap;
  * need copy java file in resources folder, or move java file in resources
  * folder and set a plugin in pom.xml, detail see jSqlBox wiki
  * 
+ * If TextProcessor run at compile time, text is read from a "xxx.sqltext"
+ * resource beside the class file, Java source is not needed.
+ * 
  * @author Yong Zhu
  * @since 2.0.4
  */
@@ -38,6 +44,11 @@ public class Text {
 	public static String classToString(Class<?> clazz) {
 		if (textCache.containsKey(clazz))
 			return textCache.get(clazz);
+		String text = readTextResource(clazz);
+		if (text != null) {
+			textCache.put(clazz, text);
+			return text;
+		}
 		String thisPublicStaticClassName = clazz.getSimpleName();
 		String javaSourceCode = TextUtils.getJavaSourceCode(clazz, "UTF-8");
 		String classText = TextUtils.substringBetween(javaSourceCode, "public static class " + thisPublicStaticClassName,
@@ -50,4 +61,28 @@ public class Text {
 		return s;
 	}
 
+	/** Read text resource created by TextProcessor, return null if not found */
+	private static String readTextResource(Class<?> clazz) {
+		String name = clazz.getName();
+		InputStream in = clazz.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1)
+				+ TextProcessor.TEXT_RESOURCE_SUFFIX);
+		if (in == null)
+			return null;
+		try {
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			int length;
+			while ((length = in.read(buffer)) != -1)
+				result.write(buffer, 0, length);
+			return result.toString("UTF-8");
+		} catch (IOException e) {
+			throw new DbProException(e);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {// NOSONAR
+			}
+		}
+	}
+
 }
\ No newline at end of file
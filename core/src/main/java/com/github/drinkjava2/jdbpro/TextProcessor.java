@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * TextProcessor is an annotation processor run by javac, it extract text
+ * between / * - and * / of each Text child class at compile time, and write it
+ * to a resource file "ClassName$InnerName.sqltext" beside the class file, so
+ * Text.classToString() need not read Java source at runtime, and Java source
+ * files need not be copied into resources folder.
+ * 
+ * It's registered in META-INF/services, javac run it automatically if jdbpro
+ * jar is in classpath (JDK 22 and later need "-proc:full" compiler option).
+ * 
+ * @author Yong Zhu
+ * @since 4.0
+ */
+@SupportedAnnotationTypes("*")
+public class TextProcessor extends AbstractProcessor {
+	public static final String TEXT_RESOURCE_SUFFIX = ".sqltext";
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (Element element : roundEnv.getRootElements())
+			scan(element);
+		return false;
+	}
+
+	private void scan(Element element) {
+		if (!(element instanceof TypeElement))
+			return;
+		TypeElement type = (TypeElement) element;
+		if (isText(type))
+			writeText(type);
+		for (Element child : type.getEnclosedElements())
+			scan(child);
+	}
+
+	private static boolean isText(TypeElement type) {
+		TypeMirror superType = type.getSuperclass();
+		while (superType.getKind() == TypeKind.DECLARED) {
+			TypeElement superElement = (TypeElement) ((DeclaredType) superType).asElement();
+			if (superElement.getQualifiedName().contentEquals(Text.class.getName()))
+				return true;
+			superType = superElement.getSuperclass();
+		}
+		return false;
+	}
+
+	private void writeText(TypeElement type) {
+		String source = readSource(type);
+		if (source == null)
+			return;
+		String simpleName = type.getSimpleName().toString();
+		String classText = TextUtils.substringBetween(source, "public static class " + simpleName, "*/");
+		if (TextUtils.isEmpty(classText) || !classText.contains("/*-"))
+			return; // no text, Text.classToString() will report error at runtime
+		String text = TextUtils.substringAfter(classText, "/*-");
+		String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+		String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+		String relativeName = (packageName.length() == 0 ? binaryName : binaryName.substring(packageName.length() + 1))
+				+ TEXT_RESOURCE_SUFFIX;
+		try {
+			FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, packageName,
+					relativeName, type);
+			Writer writer = new OutputStreamWriter(file.openOutputStream(), "UTF-8");
+			try {
+				writer.write(text);
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Kind.WARNING,
+					"Fail to write text resource " + relativeName + ": " + e.getMessage(), type);
+		}
+	}
+
+	/**
+	 * Read source of the compilation unit contains given type, use javac Trees API
+	 * by reflection so jdbpro need not depend on tools.jar
+	 */
+	private String readSource(TypeElement type) {
+		try {
+			Class<?> treesClass = Class.forName("com.sun.source.util.Trees");
+			Object trees = treesClass.getMethod("instance", ProcessingEnvironment.class).invoke(null, processingEnv);
+			Object path = treesClass.getMethod("getPath", Element.class).invoke(trees, type);
+			Object unit = Class.forName("com.sun.source.util.TreePath").getMethod("getCompilationUnit").invoke(path);
+			JavaFileObject file = (JavaFileObject) Class.forName("com.sun.source.tree.CompilationUnitTree")
+					.getMethod("getSourceFile").invoke(unit);
+			return file.getCharContent(true).toString();
+		} catch (Exception e) {
+			processingEnv.getMessager().printMessage(Kind.WARNING,
+					"Can not read source of " + type.getQualifiedName() + ": " + e, type);
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * WarmUpRegistry is a list of named SQL used by DbPro.warmUp() method to
+ * preload and precompile them at program starting, for example:
+ *
+ * <pre>
+ * WarmUpReport report = db.warmUp(new WarmUpRegistry() //
+ * 		.addText(Sqls.GetUsers.class, Sqls.GetOrders.class) //
+ * 		.addTemplate("userByName", "select * from users where name=#{name}") //
+ * 		.addSql("countUsers", "select count(*) from users") //
+ * 		.prepareStatements(true));
+ * </pre>
+ *
+ * Text classes are loaded and their text is read, templates are compiled by
+ * template engine of DbPro, if prepareStatements is true, SQL of addSql() and
+ * Text classes are prepared on some connections, so driver and connection pool
+ * statement caches are filled.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class WarmUpRegistry {
+	private final List<Class<? extends Text>> texts = new ArrayList<Class<? extends Text>>();
+	private final Map<String, String> templates = new LinkedHashMap<String, String>();
+	private final Map<String, String> sqls = new LinkedHashMap<String, String>();
+	private boolean prepareStatements = false;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private int connections = 1;
+
+	/** Add Text classes, their text also be prepared if prepareStatements */
+	@SafeVarargs
+	public final WarmUpRegistry addText(Class<? extends Text>... textClasses) {// NOSONAR
+		for (Class<? extends Text> clazz : textClasses)
+			texts.add(clazz);
+		return this;
+	}
+
+	/** Add a named template */
+	public WarmUpRegistry addTemplate(String name, String template) {
+		templates.put(name, template);
+		return this;
+	}
+
+	/** Add a named normal SQL, it's only used if prepareStatements */
+	public WarmUpRegistry addSql(String name, String sql) {
+		sqls.put(name, sql);
+		return this;
+	}
+
+	/** If true, prepare SQL on connections, default is false */
+	public WarmUpRegistry prepareStatements(boolean prepareStatements) {
+		this.prepareStatements = prepareStatements;
+		return this;
+	}
+
+	/** How many threads do warm-up, default is available processors */
+	public WarmUpRegistry parallelism(int parallelism) {
+		if (parallelism <= 0)
+			throw new DbProException("Parallelism should be bigger than 0");
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * How many connections to prepare statements on, default is 1, set it to
+	 * pool's minimum idle size to warm all pooled connections
+	 */
+	public WarmUpRegistry connections(int connections) {
+		if (connections <= 0)
+			throw new DbProException("Connections should be bigger than 0");
+		this.connections = connections;
+		return this;
+	}
+
+	public List<Class<? extends Text>> getTexts() {
+		return Collections.unmodifiableList(texts);
+	}
+
+	public Map<String, String> getTemplates() {
+		return Collections.unmodifiableMap(templates);
+	}
+
+	public Map<String, String> getSqls() {
+		return Collections.unmodifiableMap(sqls);
+	}
+
+	public boolean isPrepareStatements() {
+		return prepareStatements;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public int getConnections() {
+		return connections;
+	}
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * WarmUpReport is the result of DbPro.warmUp() method, it has time cost and
+ * error of each warm-up item, a failed item does not stop others.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class WarmUpReport {
+	private final List<Item> items;
+	private final long totalNanos;
+
+	WarmUpReport(List<Item> items, long totalNanos) {
+		this.items = Collections.unmodifiableList(items);
+		this.totalNanos = totalNanos;
+	}
+
+	/** One warm-up item, type is "text", "template" or "prepare" */
+	public static class Item {
+		private final String type;
+		private final String name;
+		private final long nanos;
+		private final Throwable error;
+
+		Item(String type, String name, long nanos, Throwable error) {
+			this.type = type;
+			this.name = name;
+			this.nanos = nanos;
+			this.error = error;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+
+		/** @return The exception if failed, otherwise null */
+		public Throwable getError() {
+			return error;
+		}
+
+		public boolean isFailed() {
+			return error != null;
+		}
+
+		@Override
+		public String toString() {
+			return type + " " + name + ": " + (nanos / 1000) / 1000.0 + "ms" + (error == null ? "" : ", " + error);
+		}
+	}
+
+	public List<Item> getItems() {
+		return items;
+	}
+
+	public List<Item> getFailures() {
+		List<Item> failures = new ArrayList<Item>();
+		for (Item item : items)
+			if (item.isFailed())
+				failures.add(item);
+		return failures;
+	}
+
+	public boolean isSuccess() {
+		for (Item item : items)
+			if (item.isFailed())
+				return false;
+		return true;
+	}
+
+	/** @return Wall clock time of whole warm-up */
+	public long getTotalMillis() {
+		return totalNanos / 1000000;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("WarmUp ").append(items.size()).append(" items, ")
+				.append(getFailures().size()).append(" failed, ").append(getTotalMillis()).append("ms");
+		for (Item item : items)
+			sb.append("\n  ").append(item);
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro;
+
+/**
+ * WriteListener be notified after an INSERT / UPDATE / EXECUTE type SQL be
+ * executed by a DbPro, or after a batch be flushed, usually used by cache to
+ * invalidate entries of modified tables. Use SqlTables.modifiedTables() to find
+ * out which tables are modified.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public interface WriteListener {// NOSONAR
+
+	/**
+	 * Called after a write SQL successfully executed
+	 *
+	 * @param runner
+	 *            The runner executed the SQL
+	 * @param ps
+	 *            The PreparedSQL, for a batch it's the first PreparedSQL
+	 */
+	public void afterWrite(ImprovedQueryRunner runner, PreparedSQL ps);
+
+}
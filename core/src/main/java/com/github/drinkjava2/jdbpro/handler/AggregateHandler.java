@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import org.apache.commons.dbutils.ResultSetHandler;
+
+import com.github.drinkjava2.jdbpro.DbProException;
+
+/**
+ * AggregateHandler run multiple {@link RowAggregator}s over the same ResultSet
+ * in one pass, return an Object[] stored results of each aggregator in given
+ * order. Usage:
+ *
+ * <pre>
+ * TopNAggregator top10 = new TopNAggregator(10, "score", true);
+ * QuantileAggregator quantiles = new QuantileAggregator("score", 0.5, 0.99);
+ * db.iQuery(new AggregateHandler(top10, quantiles), "select * from scores");
+ * List&lt;Object[]&gt; topRows = top10.getResult();
+ * double[] p50AndP99 = quantiles.getResult();
+ * </pre>
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class AggregateHandler implements ResultSetHandler<Object[]> {
+	private final RowAggregator<?>[] aggregators;
+
+	public AggregateHandler(RowAggregator<?>... aggregators) {
+		if (aggregators == null || aggregators.length == 0)
+			throw new DbProException("AggregateHandler need at least 1 aggregator");
+		this.aggregators = aggregators;
+	}
+
+	@Override
+	public Object[] handle(ResultSet rs) throws SQLException {
+		ResultSetMetaData meta = rs.getMetaData();
+		for (RowAggregator<?> aggregator : aggregators)
+			aggregator.start(meta);
+		while (rs.next())
+			for (RowAggregator<?> aggregator : aggregators)
+				aggregator.accept(rs);
+		Object[] results = new Object[aggregators.length];
+		for (int i = 0; i < aggregators.length; i++)
+			results[i] = aggregators[i].finish();
+		return results;
+	}
+
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Reader;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.github.drinkjava2.jdbpro.DbProException;
+
+/**
+ * BinaryRowCodec encode column values into a compact binary format, one tag
+ * byte followed by the value's bytes. Common JDBC value types have their own
+ * tags, ArrayList, HashMap, LinkedHashMap and Object[] are written element by
+ * element, Blob and Clob are read into byte[] and String, other Serializable
+ * values use Java serialization, others are stored as their toString() value.
+ *
+ * Values are written to a DataOutput and read back from a ByteBuffer, so the
+ * encoded data can be stored in a file, a memory-mapped file or direct memory.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public final class BinaryRowCodec {// NOSONAR
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte NULL = 0;
+	private static final byte STRING = 1;
+	private static final byte INTEGER = 2;
+	private static final byte LONG = 3;
+	private static final byte SHORT = 4;
+	private static final byte BYTE = 5;
+	private static final byte DOUBLE = 6;
+	private static final byte FLOAT = 7;
+	private static final byte BOOLEAN = 8;
+	private static final byte BIG_DECIMAL = 9;
+	private static final byte BIG_INTEGER = 10;
+	private static final byte BYTES = 11;
+	private static final byte TIMESTAMP = 12;
+	private static final byte SQL_DATE = 13;
+	private static final byte SQL_TIME = 14;
+	private static final byte UTIL_DATE = 15;
+	private static final byte CHARACTER = 16;
+	private static final byte SERIALIZED = 17;
+	private static final byte LIST = 18;
+	private static final byte MAP = 19;
+	private static final byte OBJECT_ARRAY = 20;
+
+	private BinaryRowCodec() {// Utility class
+	}
+
+	/** Write a row (an Object array) */
+	public static void writeRow(DataOutput out, Object[] row) throws IOException {
+		for (Object value : row)
+			writeValue(out, value);
+	}
+
+	/** Read a row which has given column count */
+	public static Object[] readRow(ByteBuffer buf, int columnCount) {
+		Object[] row = new Object[columnCount];
+		for (int i = 0; i < columnCount; i++)
+			row[i] = readValue(buf);
+		return row;
+	}
+
+	/** Write one value, Blob and Clob values will be read fully */
+	public static void writeValue(DataOutput out, Object value) throws IOException {// NOSONAR
+		if (value == null) {
+			out.writeByte(NULL);
+		} else if (value instanceof String) {
+			out.writeByte(STRING);
+			writeBytes(out, ((String) value).getBytes(UTF8));
+		} else if (value instanceof Integer) {
+			out.writeByte(INTEGER);
+			out.writeInt((Integer) value);
+		} else if (value instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Short) {
+			out.writeByte(SHORT);
+			out.writeShort((Short) value);
+		} else if (value instanceof Byte) {
+			out.writeByte(BYTE);
+			out.writeByte((Byte) value);
+		} else if (value instanceof Double) {
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double) value);
+		} else if (value instanceof Float) {
+			out.writeByte(FLOAT);
+			out.writeFloat((Float) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte(BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof BigDecimal) {
+			BigDecimal d = (BigDecimal) value;
+			out.writeByte(BIG_DECIMAL);
+			out.writeInt(d.scale());
+			writeBytes(out, d.unscaledValue().toByteArray());
+		} else if (value instanceof BigInteger) {
+			out.writeByte(BIG_INTEGER);
+			writeBytes(out, ((BigInteger) value).toByteArray());
+		} else if (value instanceof byte[]) {
+			out.writeByte(BYTES);
+			writeBytes(out, (byte[]) value);
+		} else if (value instanceof Timestamp) {
+			Timestamp t = (Timestamp) value;
+			out.writeByte(TIMESTAMP);
+			out.writeLong(t.getTime());
+			out.writeInt(t.getNanos());
+		} else if (value instanceof java.sql.Date) {
+			out.writeByte(SQL_DATE);
+			out.writeLong(((java.sql.Date) value).getTime());
+		} else if (value instanceof Time) {
+			out.writeByte(SQL_TIME);
+			out.writeLong(((Time) value).getTime());
+		} else if (value.getClass() == java.util.Date.class) {
+			out.writeByte(UTIL_DATE);
+			out.writeLong(((java.util.Date) value).getTime());
+		} else if (value instanceof Character) {
+			out.writeByte(CHARACTER);
+			out.writeChar((Character) value);
+		} else if (value.getClass() == ArrayList.class) {
+			List<?> list = (List<?>) value;
+			out.writeByte(LIST);
+			out.writeInt(list.size());
+			for (Object item : list)
+				writeValue(out, item);
+		} else if (value.getClass() == HashMap.class || value.getClass() == LinkedHashMap.class) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			out.writeByte(MAP);
+			out.writeInt(map.size());
+			for (Entry<?, ?> entry : map.entrySet()) {
+				writeValue(out, entry.getKey());
+				writeValue(out, entry.getValue());
+			}
+		} else if (value.getClass() == Object[].class) {
+			Object[] array = (Object[]) value;
+			out.writeByte(OBJECT_ARRAY);
+			out.writeInt(array.length);
+			writeRow(out, array);
+		} else if (value instanceof Blob) {
+			writeValue(out, readBlob((Blob) value));
+		} else if (value instanceof Clob) {
+			writeValue(out, readClob((Clob) value));
+		} else if (value instanceof Serializable) {
+			out.writeByte(SERIALIZED);
+			writeBytes(out, serialize(value));
+		} else
+			writeValue(out, value.toString());
+	}
+
+	/**
+	 * Convert a value read from ResultSet to the type it has after written and
+	 * read back: Blob and Clob are read fully into byte[] and String (their
+	 * locators die when ResultSet closed), values neither scalar nor Serializable
+	 * become their toString() value, others are kept as is
+	 */
+	public static Object normalize(Object value) throws IOException {
+		if (value == null || isScalar(value))
+			return value;
+		if (value instanceof Blob)
+			return readBlob((Blob) value);
+		if (value instanceof Clob)
+			return readClob((Clob) value);
+		if (value instanceof Serializable)
+			return value;
+		return value.toString();
+	}
+
+	/** Read one value from current position of given ByteBuffer */
+	public static Object readValue(ByteBuffer buf) {// NOSONAR
+		byte tag = buf.get();
+		switch (tag) {
+		case NULL:
+			return null;
+		case STRING:
+			return new String(readBytes(buf), UTF8);
+		case INTEGER:
+			return buf.getInt();
+		case LONG:
+			return buf.getLong();
+		case SHORT:
+			return buf.getShort();
+		case BYTE:
+			return buf.get();
+		case DOUBLE:
+			return buf.getDouble();
+		case FLOAT:
+			return buf.getFloat();
+		case BOOLEAN:
+			return buf.get() != 0;
+		case BIG_DECIMAL: {
+			int scale = buf.getInt();
+			return new BigDecimal(new BigInteger(readBytes(buf)), scale);
+		}
+		case BIG_INTEGER:
+			return new BigInteger(readBytes(buf));
+		case BYTES:
+			return readBytes(buf);
+		case TIMESTAMP: {
+			Timestamp t = new Timestamp(buf.getLong());
+			t.setNanos(buf.getInt());
+			return t;
+		}
+		case SQL_DATE:
+			return new java.sql.Date(buf.getLong());
+		case SQL_TIME:
+			return new Time(buf.getLong());
+		case UTIL_DATE:
+			return new java.util.Date(buf.getLong());
+		case CHARACTER:
+			return buf.getChar();
+		case SERIALIZED:
+			return deserialize(readBytes(buf));
+		case LIST: {
+			int size = buf.getInt();
+			List<Object> list = new ArrayList<Object>(size);
+			for (int i = 0; i < size; i++)
+				list.add(readValue(buf));
+			return list;
+		}
+		case MAP: {
+			int size = buf.getInt();
+			Map<Object, Object> map = new LinkedHashMap<Object, Object>(Math.max(16, size * 4 / 3 + 1));
+			for (int i = 0; i < size; i++)
+				map.put(readValue(buf), readValue(buf));
+			return map;
+		}
+		case OBJECT_ARRAY:
+			return readRow(buf, buf.getInt());
+		default:
+			throw new DbProException("Unknown value tag " + tag + " found in binary row data");
+		}
+	}
+
+	/**
+	 * Read one value which must be a scalar value (see isScalar), used to decode
+	 * data from an untrusted source, SERIALIZED, LIST, MAP and OBJECT_ARRAY tags
+	 * are rejected before any of their bytes be decoded
+	 */
+	public static Object readScalarValue(ByteBuffer buf) {
+		byte tag = buf.get(buf.position());
+		if (tag == SERIALIZED || tag == LIST || tag == MAP || tag == OBJECT_ARRAY)
+			throw new DbProException("Value tag " + tag + " is not allowed, only scalar values accepted");
+		return readValue(buf);
+	}
+
+	/**
+	 * Check if a value is written with a scalar tag (null, String, number,
+	 * Boolean, Character, byte[] or date/time), i.e. can be read back by
+	 * readScalarValue
+	 */
+	public static boolean isScalar(Object value) {
+		return value == null || value instanceof String || value instanceof Number
+				&& (value instanceof Integer || value instanceof Long || value instanceof Short
+						|| value instanceof Byte || value instanceof Double || value instanceof Float
+						|| value instanceof BigDecimal || value instanceof BigInteger)
+				|| value instanceof Boolean || value instanceof Character || value instanceof byte[]
+				|| value instanceof Timestamp || value instanceof java.sql.Date || value instanceof Time
+				|| value.getClass() == java.util.Date.class;
+	}
+
+	/**
+	 * Check if a value can be written and read back as an equal value, i.e.
+	 * not stored as its toString() value. Blob and Clob are not counted because
+	 * they are only valid in their Connection. Used by caches to decide if a
+	 * query result can be stored out of heap.
+	 */
+	public static boolean isLossless(Object value) {
+		if (value == null)
+			return true;
+		Class<?> type = value.getClass();
+		if (type == ArrayList.class) {
+			for (Object item : (List<?>) value)
+				if (!isLossless(item))
+					return false;
+			return true;
+		}
+		if (type == HashMap.class || type == LinkedHashMap.class) {
+			for (Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+				if (!isLossless(entry.getKey()) || !isLossless(entry.getValue()))
+					return false;
+			return true;
+		}
+		if (type == Object[].class) {
+			for (Object item : (Object[]) value)
+				if (!isLossless(item))
+					return false;
+			return true;
+		}
+		return value instanceof Serializable && !(value instanceof Blob) && !(value instanceof Clob);
+	}
+
+	/**
+	 * Roughly estimate how many heap bytes a value use, used to decide when to
+	 * move data out of heap
+	 */
+	public static long estimateHeapSize(Object value) {
+		if (value == null)
+			return 4;
+		if (value instanceof String)
+			return 48 + 2L * ((String) value).length();
+		if (value instanceof byte[])
+			return 20 + ((byte[]) value).length;
+		if (value instanceof BigDecimal || value instanceof BigInteger)
+			return 72;
+		if (value instanceof java.util.Date)
+			return 32;
+		return 24;
+	}
+
+	/** Estimate heap bytes of a row */
+	public static long estimateHeapSize(Object[] row) {
+		long size = 16 + 4L * row.length;
+		for (Object value : row)
+			size += estimateHeapSize(value);
+		return size;
+	}
+
+	private static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(ByteBuffer buf) {
+		int length = buf.getInt();
+		if (length < 0 || length > buf.remaining())
+			throw new DbProException("Wrong length " + length + " found in binary row data");
+		byte[] bytes = new byte[length];
+		buf.get(bytes);
+		return bytes;
+	}
+
+	private static byte[] readBlob(Blob blob) throws IOException {
+		try {
+			InputStream in = blob.getBinaryStream();
+			try {
+				ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				byte[] buffer = new byte[4096];
+				int n;
+				while ((n = in.read(buffer)) != -1)
+					bos.write(buffer, 0, n);
+				return bos.toByteArray();
+			} finally {
+				in.close();
+			}
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static String readClob(Clob clob) throws IOException {
+		try {
+			Reader reader = clob.getCharacterStream();
+			try {
+				StringBuilder sb = new StringBuilder();
+				char[] buffer = new char[4096];
+				int n;
+				while ((n = reader.read(buffer)) != -1)
+					sb.append(buffer, 0, n);
+				return sb.toString();
+			} finally {
+				reader.close();
+			}
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static byte[] serialize(Object value) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(value);
+		oos.close();
+		return bos.toByteArray();
+	}
+
+	private static Object deserialize(byte[] bytes) {
+		try {
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+			try {
+				return ois.readObject();
+			} finally {
+				ois.close();
+			}
+		} catch (Exception e) {
+			throw new DbProException("Fail to deserialize value from binary row data", e);
+		}
+	}
+
+}
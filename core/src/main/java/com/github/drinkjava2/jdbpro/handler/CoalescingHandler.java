@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.drinkjava2.jdbpro.DbProException;
+import com.github.drinkjava2.jdbpro.DefaultOrderSqlHandler;
+import com.github.drinkjava2.jdbpro.ImprovedQueryRunner;
+import com.github.drinkjava2.jdbpro.PreparedSQL;
+import com.github.drinkjava2.jdbpro.SqlOption;
+
+/**
+ * CoalescingHandler let concurrent executions of a same query (same SQL,
+ * parameters, ResultSetHandler class and its configuration, see QueryKey)
+ * share one database call: the first
+ * thread run the query, other threads wait and get the same result object (or
+ * the same exception). It's used to avoid "cache stampede" when a hot cache
+ * entry expired, or to protect database from many identical slow queries.
+ *
+ * Its default order is 110, so if used together with a cache handler (order
+ * 100), it only coalesce queries missed the cache. Usage:
+ *
+ * <pre>
+ * db.setSqlHandlers(new SqlHandler[] { new ConcurrentCacheHandler(), new CoalescingHandler(5000) });
+ * </pre>
+ *
+ * Note: <br/>
+ * 1) The result object is shared, waiting threads get the same List, Map or
+ * bean instance as the running thread, a change made by one caller is seen by
+ * all others, so callers must not modify it (or copy it first). <br/>
+ * 2) Only QUERY type SQL be coalesced, SQL run in a transaction or on a given
+ * Connection are not coalesced because they may see uncommitted data. <br/>
+ * 3) If a waiter waited more than waitTimeoutMillis, a DbProException will be
+ * thrown, the running query is not affected.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class CoalescingHandler extends DefaultOrderSqlHandler {
+	public static final int DEFAULT_COALESCING_ORDER = 110;
+
+	private final ConcurrentHashMap<Object, Call> inFlight = new ConcurrentHashMap<Object, Call>();
+	private final long waitTimeoutMillis;
+	private final AtomicLong coalescedCount = new AtomicLong();
+
+	/** Create a CoalescingHandler, waiters wait at most 30 seconds */
+	public CoalescingHandler() {
+		this(30000);
+	}
+
+	public CoalescingHandler(long waitTimeoutMillis) {
+		this.waitTimeoutMillis = waitTimeoutMillis;
+		this.order = DEFAULT_COALESCING_ORDER;
+	}
+
+	@Override
+	public Object handle(ImprovedQueryRunner runner, PreparedSQL ps) {
+		if (!SqlOption.QUERY.equals(ps.getOperationType()) || ps.getConnection() != null
+				|| (runner.getConnectionManager() != null && runner.getConnectionManager().isInTransaction()))
+			return runner.runPreparedSQL(ps);
+		Object key = createKey(ps);
+		Call call = new Call();
+		Call running = inFlight.get(key);
+		if (running == null) {// store a key which does not share parameters array with PreparedSQL
+			if (key instanceof QueryKey)
+				key = ((QueryKey) key).forStore();
+			running = inFlight.putIfAbsent(key, call);
+		}
+		if (running != null) {
+			coalescedCount.incrementAndGet();
+			return running.await(waitTimeoutMillis);
+		}
+		try {
+			call.result = runner.runPreparedSQL(ps);
+			return call.result;
+		} catch (RuntimeException e) {
+			call.error = e;
+			throw e;
+		} catch (Error e) {// NOSONAR
+			call.error = e;
+			throw e;
+		} finally {
+			inFlight.remove(key, call);
+			call.latch.countDown();
+		}
+	}
+
+	/**
+	 * Create key of a PreparedSQL, subclass can override it. Default is a
+	 * QueryKey composed by SQL, ResultSetHandler class and its configuration and
+	 * parameters, so handlers configured differently never share a result
+	 */
+	protected Object createKey(PreparedSQL ps) {
+		return QueryKey.of(ps);
+	}
+
+	public long getWaitTimeoutMillis() {
+		return waitTimeoutMillis;
+	}
+
+	/** @return How many executions shared result of another execution */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	/** @return How many different queries are running now */
+	public int getInFlightCount() {
+		return inFlight.size();
+	}
+
+	/** An in-flight database call */
+	private static class Call {
+		final CountDownLatch latch = new CountDownLatch(1);
+		volatile Object result;
+		volatile Throwable error;
+
+		Object await(long timeoutMillis) {
+			try {
+				if (!latch.await(timeoutMillis, TimeUnit.MILLISECONDS))
+					throw new DbProException("Timeout after waiting " + timeoutMillis + "ms for a same running query");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new DbProException("Interrupted when waiting for a same running query", e);
+			}
+			if (error instanceof RuntimeException)
+				throw (RuntimeException) error;
+			if (error instanceof Error)
+				throw (Error) error;
+			return result;
+		}
+	}
+
+}
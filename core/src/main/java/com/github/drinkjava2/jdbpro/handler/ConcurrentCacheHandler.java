@@ -0,0 +1,828 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.sql.Connection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.github.drinkjava2.jdbpro.DbProException;
+import com.github.drinkjava2.jdbpro.DefaultOrderSqlHandler;
+import com.github.drinkjava2.jdbpro.ImprovedQueryRunner;
+import com.github.drinkjava2.jdbpro.PreparedSQL;
+import com.github.drinkjava2.jdbpro.SqlOption;
+import com.github.drinkjava2.jdbpro.SqlTables;
+import com.github.drinkjava2.jdbpro.WriteListener;
+import com.github.drinkjava2.jlogs.Log;
+import com.github.drinkjava2.jlogs.LogFactory;
+import com.github.drinkjava2.jtransactions.ConnectionManager;
+import com.github.drinkjava2.jtransactions.TxInfo;
+import com.github.drinkjava2.jtransactions.TxInfoHolder;
+import com.github.drinkjava2.jtransactions.TxListener;
+
+/**
+ * ConcurrentCacheHandler is a high concurrency memory cache used to cache SQL
+ * query result, it's a replacement of SimpleCacheHandler:
+ *
+ * 1) Lookup is lock free (a ConcurrentHashMap), LRU order is kept by striped
+ * segments, each segment use a ReentrantLock (never use synchronized, so will
+ * not pin virtual threads), and a cache hit only try to get the lock, if the
+ * segment is busy the access record is simply dropped. <br/>
+ * 2) Each segment is a segmented LRU: new entries go to probation queue, only
+ * entries hit again can be promoted to protected queue, eviction take victims
+ * from probation queue first, so a big scan query will not flush hot entries.
+ * <br/>
+ * 3) Each entry has its own exact expire time, subclass can override
+ * ttlMillis() method to customize TTL for each query. <br/>
+ * 4) Capacity can be bound by entry count or by estimated bytes, or by a
+ * customized Weigher. <br/>
+ * 5) Cached entries are indexed by the tables their SQL depend on, this
+ * handler register itself as a WriteListener of the DbPro it serves, after an
+ * INSERT / UPDATE / DELETE executed by that DbPro only entries depend on the
+ * modified tables are evicted. If tables of a SQL can not be recognized, the
+ * entry is evicted by any write, and a write SQL which modified tables can not
+ * be recognized clears whole cache. Writes not executed by the DbPro (other
+ * applications, stored procedures, triggers) should call invalidateTables()
+ * method manually. <br/>
+ * 6) Optionally a MappedResultStore can be set as second level, results are
+ * also written to it, a first level miss will look it up before run the query,
+ * so a big amount of results can be cached out of heap, or survive restarts.
+ * <br/>
+ * 7) Refresh-ahead: if refreshAheadMillis is set, a hit on an entry which will
+ * expire in refreshAheadMillis starts a background refresh, and if
+ * maxStaleMillis is set, an expired entry is still served (as a stale value)
+ * at most maxStaleMillis while it's being refreshed, so a hot query never
+ * block on database. Refreshes of a same entry never run concurrently, and
+ * total concurrency is bound by maxRefreshThreads. Entries evicted by writes
+ * are never served as stale values. <br/>
+ * 8) Transaction aware: if the ConnectionManager is a TxInfoHolder (TinyTx,
+ * GroupTx, ManualTx), writes in a transaction are buffered and invalidate the
+ * cache only after commit, a rollback discards them. In the transaction,
+ * queries depend on tables it modified bypass the cache, so it can see its
+ * own uncommitted data and never put it into cache. Transactions with an
+ * isolation level higher than READ_COMMITTED always bypass the cache. For
+ * other ConnectionManagers, queries in transaction bypass the cache and writes
+ * invalidate the cache immediately. <br/>
+ * 9) If an InvalidationBus is set, invalidations are broadcast to caches of
+ * other nodes, so each node can keep a long TTL. clearCache() only clears
+ * local cache, call invalidateTables((String[]) null) to clear all nodes. <br/>
+ *
+ * Only QUERY type SQL will be cached, other SQL will be executed directly.
+ * Usage:
+ *
+ * <pre>
+ * ConcurrentCacheHandler cache = new ConcurrentCacheHandler(10000, 60000);
+ * db.iQuery(cache, new MapListHandler(), "select * from users where id=?", param(1));
+ * </pre>
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class ConcurrentCacheHandler extends DefaultOrderSqlHandler implements WriteListener {
+	private static final int REMOVED = 0;
+	private static final int PROBATION = 1;
+	private static final int PROTECTED = 2;
+	private static final String ANY_TABLE = "*";
+	private static final Log logger = LogFactory.getLog(ConcurrentCacheHandler.class);
+	private static final AtomicInteger refreshThreadCount = new AtomicInteger();
+
+	/** Calculate weight of a cache entry */
+	public static interface Weigher {// NOSONAR
+		public long weigh(Object key, Object result);
+	}
+
+	/** Each entry weight 1, capacity means max entry count */
+	public static final Weigher ENTRY_COUNT_WEIGHER = new Weigher() {
+		@Override
+		public long weigh(Object key, Object result) {
+			return 1;
+		}
+	};
+
+	/** Entry weight is estimated heap bytes, capacity means max bytes */
+	public static final Weigher BYTE_SIZE_WEIGHER = new Weigher() {
+		@Override
+		public long weigh(Object key, Object result) {
+			return estimateSize(key) + estimateSize(result) + 64;
+		}
+	};
+
+	private final ConcurrentHashMap<Object, Node> map = new ConcurrentHashMap<Object, Node>();
+	private final Segment[] segments;
+	private final long capacity;
+	private final long ttlMillis;
+	private final Weigher weigher;
+	private MappedResultStore secondLevel;
+	private InvalidationBus invalidationBus;
+	private final InvalidationBus.Listener busListener = new InvalidationBus.Listener() {
+		@Override
+		public void onTablesInvalidated(String[] tables) {
+			invalidateTablesLocally(tables);
+		}
+
+		@Override
+		public void onKeyInvalidated(QueryKey key) {
+			invalidateLocally(key);
+		}
+	};
+	private volatile long refreshAheadNanos = 0;
+	private volatile long maxStaleNanos = 0;
+	private final ThreadPoolExecutor refreshExecutor;
+
+	/** Table name to keys of entries depend on it */
+	private final ConcurrentHashMap<String, Set<Object>> tableIndex = new ConcurrentHashMap<String, Set<Object>>();
+	private final ConcurrentHashMap<String, AtomicLong> tableVersions = new ConcurrentHashMap<String, AtomicLong>();
+	private final AtomicLong globalVersion = new AtomicLong(); // increased when all tables invalidated
+	private final AtomicLong writeVersion = new AtomicLong(); // increased by any write
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong secondLevelHitCount = new AtomicLong();
+	private final AtomicLong staleHitCount = new AtomicLong();
+	private final AtomicLong refreshCount = new AtomicLong();
+
+	/** Create a cache with 500 entries capacity, TTL is 1000 seconds */
+	public ConcurrentCacheHandler() {
+		this(500, 1000L * 1000);
+	}
+
+	/** Create a cache bound by entry count */
+	public ConcurrentCacheHandler(long maxEntries, long ttlMillis) {
+		this(maxEntries, ttlMillis, ENTRY_COUNT_WEIGHER);
+	}
+
+	/**
+	 * @param capacity
+	 *            Max total weight of all entries
+	 * @param ttlMillis
+	 *            Default time to live in milliseconds of an entry
+	 * @param weigher
+	 *            Calculate weight of each entry
+	 */
+	public ConcurrentCacheHandler(long capacity, long ttlMillis, Weigher weigher) {
+		if (capacity <= 0)
+			throw new DbProException("Cache capacity should be bigger than 0");
+		DbProException.assertNotNull(weigher, "Weigher can not be null");
+		this.capacity = capacity;
+		this.ttlMillis = ttlMillis;
+		this.weigher = weigher;
+		int count = 1;
+		int expected = Runtime.getRuntime().availableProcessors() * 2;
+		while (count < expected && count < 64 && capacity / (count * 2) >= 8)
+			count <<= 1;
+		segments = new Segment[count];
+		for (int i = 0; i < count; i++)
+			segments[i] = new Segment(capacity / count + (i < capacity % count ? 1 : 0));
+		refreshExecutor = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(256),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "jDbPro-cache-refresh-" + refreshThreadCount.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		refreshExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	@Override
+	public Object handle(ImprovedQueryRunner runner, PreparedSQL ps) {
+		if (!SqlOption.QUERY.equals(ps.getOperationType()))
+			return runner.runPreparedSQL(ps);
+		listenTo(runner);
+		ConnectionManager cm = runner.getConnectionManager();
+		if (cm != null && cm.isInTransaction() && !usableInTransaction(cm, ps))
+			return runner.runPreparedSQL(ps);
+		Object key = createKey(ps);
+		Node node = map.get(key);
+		if (node != null) {
+			long left = node.expireAt - System.nanoTime();
+			if (left > 0 || (left + maxStaleNanos > 0 && canRefresh(runner, ps))) {
+				hitCount.incrementAndGet();
+				if (left <= 0)
+					staleHitCount.incrementAndGet();
+				node.segment.recordAccess(node);
+				if (left <= refreshAheadNanos)
+					refresh(runner, ps, node);
+				return node.value;
+			}
+			node.segment.remove(node);
+		}
+		missCount.incrementAndGet();
+		String[] tables = queryTables(ps);
+		long version = versionOf(tables);
+		MappedResultStore store = secondLevel;
+		if (store != null && key instanceof QueryKey) {
+			Object[] found = store.get((QueryKey) key);
+			if (found != null) {
+				secondLevelHitCount.incrementAndGet();
+				putFirstLevel(key, found[0], (Long) found[1], tables, version);
+				return found[0];
+			}
+		}
+		Object result = runner.runPreparedSQL(ps);
+		put(key, result, ttlMillis(ps, result), tables, version);
+		return result;
+	}
+
+	/**
+	 * Register this cache as WriteListener of runner if not registered, the
+	 * runner's own listener array is checked, so this cache does not reference
+	 * runners it served
+	 */
+	private void listenTo(ImprovedQueryRunner runner) {
+		WriteListener[] listeners = runner.getWriteListeners();
+		if (listeners != null)
+			for (WriteListener listener : listeners)
+				if (listener == this)
+					return;
+		runner.addWriteListener(this);
+	}
+
+	/** SQL run on a given Connection or in a transaction can not be refreshed */
+	private static boolean canRefresh(ImprovedQueryRunner runner, PreparedSQL ps) {
+		return ps.getConnection() == null
+				&& (runner.getConnectionManager() == null || !runner.getConnectionManager().isInTransaction());
+	}
+
+	/** Re-run the query in background and replace the entry */
+	private void refresh(final ImprovedQueryRunner runner, PreparedSQL ps, final Node node) {
+		if (!canRefresh(runner, ps) || !node.refreshing.compareAndSet(false, true))
+			return;
+		final PreparedSQL copy = ps.copy();
+		try {
+			refreshExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						String[] tables = queryTables(copy);
+						long version = versionOf(tables);
+						Object result = runner.runPreparedSQL(copy);
+						refreshCount.incrementAndGet();
+						put(node.key, result, ttlMillis(copy, result), tables, version);
+					} catch (RuntimeException e) {// stale value is kept until maxStaleMillis
+						logger.warn("Fail to refresh cached query: " + copy.getSql(), e);
+					} finally {
+						node.refreshing.set(false);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {// too many refreshes, try again at next hit
+			node.refreshing.set(false);
+		}
+	}
+
+	@Override
+	public void afterWrite(ImprovedQueryRunner runner, PreparedSQL ps) {
+		String[] tables = modifiedTables(ps);
+		if (tables != null && tables.length == 0)
+			return;
+		ConnectionManager cm = runner.getConnectionManager();
+		if (ps.getConnection() == null && cm instanceof TxInfoHolder && cm.isInTransaction()) {
+			TxInfo tx = ((TxInfoHolder) cm).getCurrentTxInfo();
+			if (tx != null) {
+				TxWrites writes = (TxWrites) tx.getTxListener(this);
+				if (writes == null) {
+					writes = new TxWrites();
+					tx.addTxListener(this, writes);
+				}
+				writes.add(tables);
+				return;
+			}
+		}
+		invalidateTables(tables);
+	}
+
+	/**
+	 * In a transaction, a query can use cache only if isolation level is not
+	 * higher than READ_COMMITTED, and it not depends on tables modified by the
+	 * transaction
+	 */
+	private boolean usableInTransaction(ConnectionManager cm, PreparedSQL ps) {
+		TxInfo tx = cm instanceof TxInfoHolder ? ((TxInfoHolder) cm).getCurrentTxInfo() : null;
+		if (tx == null || ps.getConnection() != null)
+			return false;
+		Integer level = tx.getTxIsolationLevel();
+		if (level != null && level > Connection.TRANSACTION_READ_COMMITTED)
+			return false;
+		TxWrites writes = (TxWrites) tx.getTxListener(this);
+		return writes == null || !writes.touches(queryTables(ps));
+	}
+
+	/** Return tables a query depends on, null means unknown */
+	protected String[] queryTables(PreparedSQL ps) {
+		return SqlTables.queryTables(ps.getSql());
+	}
+
+	/** Return tables a write SQL modifies, null means unknown */
+	protected String[] modifiedTables(PreparedSQL ps) {
+		return SqlTables.modifiedTables(ps.getSql());
+	}
+
+	/**
+	 * Create cache key of a PreparedSQL, subclass can override it. Default is a
+	 * QueryKey composed by SQL, ResultSetHandler class and its configuration and
+	 * parameters
+	 */
+	protected Object createKey(PreparedSQL ps) {
+		return QueryKey.of(ps);
+	}
+
+	/**
+	 * Return TTL in milliseconds of a query result, 0 means do not cache it,
+	 * default is the ttlMillis given in constructor, subclass can override it
+	 */
+	protected long ttlMillis(PreparedSQL ps, Object result) {
+		return ttlMillis;
+	}
+
+	/**
+	 * Put a result into cache, version is the tables version before query
+	 * executed, if tables be modified during query, the result is discarded
+	 */
+	protected void put(Object key, Object result, long ttl, String[] tables, long version) {
+		if (ttl <= 0)
+			return;
+		if (key instanceof QueryKey)
+			key = ((QueryKey) key).forStore(); // NOSONAR
+		putFirstLevel(key, result, ttl, tables, version);
+		MappedResultStore store = secondLevel;
+		if (store != null && key instanceof QueryKey && store.put((QueryKey) key, result, ttl, tables)
+				&& versionOf(tables) != version)
+			store.remove((QueryKey) key);
+	}
+
+	private void putFirstLevel(Object key, Object result, long ttl, String[] tables, long version) {
+		if (key instanceof QueryKey)
+			key = ((QueryKey) key).forStore(); // NOSONAR
+		Segment segment = segmentFor(key);
+		long weight = weigher.weigh(key, result);
+		if (weight > segment.capacity)
+			return; // too big to cache
+		Node node = new Node(key, result, weight, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttl),
+				tables == null ? new String[] { ANY_TABLE } : tables, segment);
+		segment.put(node);
+		if (versionOf(tables) != version)
+			segment.remove(node); // a write happened during query, result may be stale
+	}
+
+	/**
+	 * Evict entries depend on given tables, null means all tables, usually used
+	 * after tables modified by other applications
+	 */
+	public void invalidateTables(String... tables) {
+		if (tables != null && tables.length == 0)
+			return;
+		invalidateTablesLocally(tables);
+		InvalidationBus bus = invalidationBus;
+		if (bus != null)
+			bus.publishTables(tables);
+	}
+
+	private void invalidateTablesLocally(String[] tables) {
+		writeVersion.incrementAndGet();
+		if (tables == null) {
+			globalVersion.incrementAndGet();
+			clearCache();
+			return;
+		}
+		for (String table : tables)
+			tableVersion(table.toLowerCase()).incrementAndGet();
+		MappedResultStore store = secondLevel;
+		if (store != null)
+			store.invalidateTables(tables);
+		for (String table : tables)
+			invalidateIndexed(table.toLowerCase());
+		invalidateIndexed(ANY_TABLE);
+	}
+
+	private void invalidateIndexed(String table) {
+		Set<Object> keys = tableIndex.get(table);
+		if (keys != null)
+			for (Object key : keys)
+				evict(key);
+	}
+
+	private AtomicLong tableVersion(String table) {
+		AtomicLong version = tableVersions.get(table);
+		if (version == null) {
+			version = new AtomicLong();
+			AtomicLong old = tableVersions.putIfAbsent(table, version);
+			if (old != null)
+				version = old;
+		}
+		return version;
+	}
+
+	/** Tables version, it changes if any of the tables be modified */
+	private long versionOf(String[] tables) {
+		if (tables == null)
+			return writeVersion.get();
+		long version = globalVersion.get();
+		for (String table : tables)
+			version += tableVersion(table).get();
+		return version;
+	}
+
+	/** Remove the entry of given key, include second level and other nodes */
+	public void invalidate(Object key) {
+		invalidateLocally(key);
+		InvalidationBus bus = invalidationBus;
+		if (bus != null && key instanceof QueryKey)
+			bus.publishKey((QueryKey) key);
+	}
+
+	private void invalidateLocally(Object key) {
+		evict(key);
+		MappedResultStore store = secondLevel;
+		if (store != null && key instanceof QueryKey)
+			store.remove((QueryKey) key);
+	}
+
+	private void evict(Object key) {
+		Node node = map.get(key);
+		if (node != null)
+			node.segment.remove(node);
+	}
+
+	/** Call this method to manually clear cache, include second level */
+	public void clearCache() {
+		for (Segment segment : segments)
+			segment.clear();
+		MappedResultStore store = secondLevel;
+		if (store != null)
+			store.clear();
+	}
+
+	private Segment segmentFor(Object key) {
+		int h = key == null ? 0 : key.hashCode();
+		h ^= (h >>> 16);
+		return segments[(h * 0x9E3779B9 >>> 16) & (segments.length - 1)];
+	}
+
+	/** Roughly estimate heap bytes of a query result */
+	public static long estimateSize(Object value) {
+		if (value instanceof QueryKey)
+			return ((QueryKey) value).estimateSize();
+		if (value instanceof Collection<?>) {
+			long size = 40;
+			for (Object item : (Collection<?>) value)
+				size += 8 + estimateSize(item);
+			return size;
+		}
+		if (value instanceof Map<?, ?>) {
+			long size = 48;
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet())
+				size += 40 + estimateSize(e.getKey()) + estimateSize(e.getValue());
+			return size;
+		}
+		if (value instanceof Object[]) {
+			long size = 16;
+			for (Object item : (Object[]) value)
+				size += 8 + estimateSize(item);
+			return size;
+		}
+		return BinaryRowCodec.estimateHeapSize(value);
+	}
+
+	protected void ________Getters________() {// NOSONAR
+	}
+
+	/** @return Current entry count */
+	public int size() {
+		return map.size();
+	}
+
+	/** @return Current total weight of all entries */
+	public long getWeightedSize() {
+		long size = 0;
+		for (Segment segment : segments)
+			size += segment.weight;
+		return size;
+	}
+
+	public long getCapacity() {
+		return capacity;
+	}
+
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	public InvalidationBus getInvalidationBus() {
+		return invalidationBus;
+	}
+
+	/**
+	 * Set an InvalidationBus, then invalidations of this cache (include writes
+	 * executed by the DbPro) are published to caches of other nodes, and
+	 * invalidations received from other nodes are applied to this cache. This
+	 * method is not thread safe, suggest only use at program starting
+	 */
+	public void setInvalidationBus(InvalidationBus invalidationBus) {
+		if (this.invalidationBus != null)
+			this.invalidationBus.removeListener(busListener);
+		this.invalidationBus = invalidationBus;
+		if (invalidationBus != null)
+			invalidationBus.addListener(busListener);
+	}
+
+	/** @return How many hits served an expired (stale) value */
+	public long getStaleHitCount() {
+		return staleHitCount.get();
+	}
+
+	/** @return How many background refreshes finished */
+	public long getRefreshCount() {
+		return refreshCount.get();
+	}
+
+	public long getRefreshAheadMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(refreshAheadNanos);
+	}
+
+	/**
+	 * Set how many milliseconds before an entry expires, a hit on it start a
+	 * background refresh, 0 means no refresh-ahead. This method is not thread
+	 * safe, suggest only use at program starting
+	 */
+	public void setRefreshAheadMillis(long refreshAheadMillis) {
+		this.refreshAheadNanos = TimeUnit.MILLISECONDS.toNanos(refreshAheadMillis);
+	}
+
+	public long getMaxStaleMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxStaleNanos);
+	}
+
+	/**
+	 * Set how many milliseconds an expired entry can still be served while it's
+	 * being refreshed in background, 0 means never serve expired entries. This
+	 * method is not thread safe, suggest only use at program starting
+	 */
+	public void setMaxStaleMillis(long maxStaleMillis) {
+		this.maxStaleNanos = TimeUnit.MILLISECONDS.toNanos(maxStaleMillis);
+	}
+
+	public int getMaxRefreshThreads() {
+		return refreshExecutor.getMaximumPoolSize();
+	}
+
+	/**
+	 * Set max number of concurrent background refreshes, default is 2. This
+	 * method is not thread safe, suggest only use at program starting
+	 */
+	public void setMaxRefreshThreads(int maxRefreshThreads) {
+		if (maxRefreshThreads < 1)
+			throw new DbProException("maxRefreshThreads should be bigger than 0");
+		if (maxRefreshThreads > refreshExecutor.getMaximumPoolSize()) {
+			refreshExecutor.setMaximumPoolSize(maxRefreshThreads);
+			refreshExecutor.setCorePoolSize(maxRefreshThreads);
+		} else {
+			refreshExecutor.setCorePoolSize(maxRefreshThreads);
+			refreshExecutor.setMaximumPoolSize(maxRefreshThreads);
+		}
+	}
+
+	/** @return How many first level misses are found in second level */
+	public long getSecondLevelHitCount() {
+		return secondLevelHitCount.get();
+	}
+
+	public MappedResultStore getSecondLevel() {
+		return secondLevel;
+	}
+
+	/**
+	 * Set a second level store, null means no second level. This method is not
+	 * thread safe, suggest only use at program starting
+	 */
+	public void setSecondLevel(MappedResultStore secondLevel) {
+		this.secondLevel = secondLevel;
+	}
+
+	/** Tables modified by a transaction, invalidated after commit */
+	private final class TxWrites implements TxListener {
+		final Set<String> tables = new HashSet<String>();
+		boolean allTables = false;
+
+		void add(String[] modified) {
+			if (modified == null)
+				allTables = true;
+			else
+				for (String table : modified)
+					tables.add(table.toLowerCase());
+		}
+
+		boolean touches(String[] queried) {
+			if (allTables)
+				return true;
+			if (tables.isEmpty())
+				return false;
+			if (queried == null)
+				return true;
+			for (String table : queried)
+				if (tables.contains(table))
+					return true;
+			return false;
+		}
+
+		@Override
+		public void afterCommit() {
+			invalidateTables(allTables ? null : tables.toArray(new String[tables.size()]));
+		}
+
+		@Override
+		public void afterRollback() {// discard buffered invalidations
+		}
+	}
+
+	/** A cache entry, also a node of the LRU double linked list */
+	private static final class Node {
+		final Object key;
+		final Object value;
+		final long weight;
+		final long expireAt;
+		final String[] tables;
+		final Segment segment;
+		final AtomicBoolean refreshing = new AtomicBoolean();
+		int queue = REMOVED; // guarded by segment lock
+		Node prev;
+		Node next;
+
+		Node(Object key, Object value, long weight, long expireAt, String[] tables, Segment segment) {
+			this.key = key;
+			this.value = value;
+			this.weight = weight;
+			this.expireAt = expireAt;
+			this.tables = tables;
+			this.segment = segment;
+		}
+	}
+
+	/** A segmented LRU guarded by a ReentrantLock */
+	private final class Segment {
+		final ReentrantLock lock = new ReentrantLock();
+		final long capacity;
+		final long protectedCapacity;
+		final Node probation = sentinel();
+		final Node protectedQueue = sentinel();
+		volatile long weight;
+		long protectedWeight;
+
+		Segment(long capacity) {
+			this.capacity = Math.max(1, capacity);
+			this.protectedCapacity = this.capacity * 4 / 5;
+		}
+
+		void put(Node node) {
+			lock.lock();
+			try {
+				for (String table : node.tables)
+					indexOf(table).add(node.key);
+				Node old = map.put(node.key, node);
+				if (old != null)
+					unlink(old);
+				linkFirst(probation, node, PROBATION);
+				while (weight > capacity) {
+					Node victim = probation.prev != probation ? probation.prev : protectedQueue.prev;
+					if (victim == protectedQueue)
+						break;
+					drop(victim);
+					evictionCount.incrementAndGet();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/** Move node to protected queue, skip if segment is busy */
+		void recordAccess(Node node) {
+			if (!lock.tryLock())
+				return;
+			try {
+				if (node.queue == REMOVED)
+					return;
+				unlink(node);
+				linkFirst(protectedQueue, node, PROTECTED);
+				while (protectedWeight > protectedCapacity && protectedQueue.prev != node) {
+					Node demoted = protectedQueue.prev;
+					unlink(demoted);
+					linkFirst(probation, demoted, PROBATION);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void remove(Node node) {
+			lock.lock();
+			try {
+				if (node.queue != REMOVED)
+					drop(node);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void clear() {
+			lock.lock();
+			try {
+				for (Node head : new Node[] { probation, protectedQueue })
+					while (head.next != head) {
+						drop(head.next);
+					}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/** Unlink a node and remove it from map and table index */
+		private void drop(Node node) {
+			unlink(node);
+			if (map.remove(node.key, node) && !map.containsKey(node.key))
+				for (String table : node.tables) {
+					Set<Object> keys = tableIndex.get(table);
+					if (keys != null)
+						keys.remove(node.key);
+				}
+		}
+
+		private Set<Object> indexOf(String table) {
+			Set<Object> keys = tableIndex.get(table);
+			if (keys == null) {
+				keys = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+				Set<Object> old = tableIndex.putIfAbsent(table, keys);
+				if (old != null)
+					keys = old;
+			}
+			return keys;
+		}
+
+		private Node sentinel() {
+			Node head = new Node(null, null, 0, 0, null, this);
+			head.prev = head;
+			head.next = head;
+			return head;
+		}
+
+		private void linkFirst(Node head, Node node, int queue) {
+			node.queue = queue;
+			node.prev = head;
+			node.next = head.next;
+			head.next.prev = node;
+			head.next = node;
+			weight += node.weight;
+			if (queue == PROTECTED)
+				protectedWeight += node.weight;
+		}
+
+		private void unlink(Node node) {
+			if (node.queue == REMOVED)
+				return;
+			node.prev.next = node.next;
+			node.next.prev = node.prev;
+			node.prev = null;
+			node.next = null;
+			weight -= node.weight;
+			if (node.queue == PROTECTED)
+				protectedWeight -= node.weight;
+			node.queue = REMOVED;
+		}
+	}
+
+}
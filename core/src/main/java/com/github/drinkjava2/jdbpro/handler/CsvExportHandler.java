@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * CsvExportHandler write ResultSet to target as RFC 4180 CSV format, a field
+ * will be quoted only when it contains delimiter, quote or line break
+ * characters. Usage:
+ *
+ * <pre>
+ * long rows = db.iQuery(new CsvExportHandler(outputStream), "select * from users");
+ * </pre>
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class CsvExportHandler extends TextExportHandler {
+	protected char delimiter = ',';
+	protected String lineSeparator = "\r\n";
+	protected String nullText = "";
+
+	public CsvExportHandler(Writer writer) {
+		super(writer, DEFAULT_BUFFER_SIZE);
+	}
+
+	public CsvExportHandler(OutputStream out) {
+		super(out, UTF8, DEFAULT_BUFFER_SIZE);
+	}
+
+	public CsvExportHandler(OutputStream out, Charset charset, int bufferSize) {
+		super(out, charset, bufferSize);
+	}
+
+	public CsvExportHandler(WritableByteChannel channel) {
+		super(channel, UTF8, DEFAULT_BUFFER_SIZE);
+	}
+
+	public CsvExportHandler(WritableByteChannel channel, Charset charset, int bufferSize) {
+		super(channel, charset, bufferSize);
+	}
+
+	@Override
+	protected void beforeRows(String[] titles) throws IOException {
+		if (!includeHeader)
+			return;
+		for (int i = 0; i < titles.length; i++) {
+			if (i > 0)
+				write(delimiter);
+			writeField(titles[i]);
+		}
+		write(lineSeparator);
+	}
+
+	@Override
+	protected void writeRow(ResultSet rs, int[] kinds) throws SQLException, IOException {
+		for (int i = 0; i < kinds.length; i++) {
+			if (i > 0)
+				write(delimiter);
+			String text = getText(rs, i + 1, kinds[i]);
+			if (text == null)
+				write(nullText);
+			else
+				writeField(text); // numbers also, delimiter may be '.' or '-'
+		}
+		write(lineSeparator);
+	}
+
+	/** Write a text field, subClass can override it to use other escape rule */
+	protected void writeField(String text) throws IOException {
+		if (!needQuote(text)) {
+			write(text);
+			return;
+		}
+		write('"');
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"')
+				write('"');
+			write(c);
+		}
+		write('"');
+	}
+
+	private boolean needQuote(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == delimiter || c == '"' || c == '\r' || c == '\n')
+				return true;
+		}
+		return false;
+	}
+
+	public char getDelimiter() {
+		return delimiter;
+	}
+
+	public CsvExportHandler setDelimiter(char delimiter) {
+		this.delimiter = delimiter;
+		return this;
+	}
+
+	public String getLineSeparator() {
+		return lineSeparator;
+	}
+
+	public CsvExportHandler setLineSeparator(String lineSeparator) {
+		this.lineSeparator = lineSeparator;
+		return this;
+	}
+
+	public String getNullText() {
+		return nullText;
+	}
+
+	/** The text used to output null value, default is empty String */
+	public CsvExportHandler setNullText(String nullText) {
+		this.nullText = nullText;
+		return this;
+	}
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import com.github.drinkjava2.jdbpro.DbProException;
+
+/**
+ * DistinctCountAggregator estimate distinct count of a column by HyperLogLog
+ * algorithm, use 2^precision bytes memory no matter how many rows, standard
+ * error is about 1.04/sqrt(2^precision), default precision 14 use 16K memory
+ * and has about 0.8% error. Null values are ignored, numbers with same value
+ * are treated as same value even their types are different.
+ *
+ * Registers are kept after finish, so sketches of different queries (even
+ * different databases) can be merged by merge() method, then call estimate().
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class DistinctCountAggregator extends RowAggregator<Long> {
+	private final String column;
+	private final int precision;
+	private final byte[] registers;
+	private int columnIndex;
+
+	public DistinctCountAggregator(String column) {
+		this(column, 14);
+	}
+
+	/**
+	 * @param column
+	 *            The column label
+	 * @param precision
+	 *            From 4 to 18, more precision more accurate and more memory
+	 */
+	public DistinctCountAggregator(String column, int precision) {
+		if (precision < 4 || precision > 18)
+			throw new DbProException("HyperLogLog precision should between 4 and 18");
+		this.column = column;
+		this.precision = precision;
+		this.registers = new byte[1 << precision];
+	}
+
+	@Override
+	public void start(ResultSetMetaData meta) throws SQLException {
+		columnIndex = findColumn(meta, column);
+		Arrays.fill(registers, (byte) 0);
+	}
+
+	@Override
+	public void accept(ResultSet rs) throws SQLException {
+		Object value = rs.getObject(columnIndex);
+		if (value != null)
+			offer(value);
+	}
+
+	/** Add a value into sketch directly */
+	public void offer(Object value) {
+		long hash = hash64(value);
+		int index = (int) (hash >>> (64 - precision));
+		long w = (hash << precision) | (1L << (precision - 1));
+		byte rank = (byte) (Long.numberOfLeadingZeros(w) + 1);
+		if (rank > registers[index])
+			registers[index] = rank;
+	}
+
+	/** Merge another sketch which has same precision into this sketch */
+	public void merge(DistinctCountAggregator other) {
+		if (other.precision != precision)
+			throw new DbProException("Can not merge HyperLogLog sketches with different precisions");
+		for (int i = 0; i < registers.length; i++)
+			if (other.registers[i] > registers[i])
+				registers[i] = other.registers[i];
+	}
+
+	/** @return Estimated distinct count of current sketch */
+	public long estimate() {
+		int m = registers.length;
+		double sum = 0;
+		int zeros = 0;
+		for (byte r : registers) {
+			sum += 1.0 / (1L << r);
+			if (r == 0)
+				zeros++;
+		}
+		double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+		double estimate = alpha * m * m / sum;
+		if (estimate <= 2.5 * m && zeros > 0)
+			estimate = m * Math.log((double) m / zeros); // linear counting for small cardinality
+		return Math.round(estimate);
+	}
+
+	@Override
+	protected Long computeResult() {
+		return estimate();
+	}
+
+	/** 64 bits hash, same numeric values get same hash */
+	private static long hash64(Object value) {
+		if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+			return mix(((Number) value).longValue());
+		if (value instanceof BigDecimal || value instanceof BigInteger) {
+			BigDecimal d = value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal((BigInteger) value);
+			try {
+				return mix(d.longValueExact());
+			} catch (ArithmeticException e) {// NOSONAR
+				return hashChars(d.stripTrailingZeros().toPlainString());
+			}
+		}
+		if (value instanceof Double || value instanceof Float) {
+			double d = ((Number) value).doubleValue();
+			if (d == Math.rint(d) && Math.abs(d) < 9.0E18)
+				return mix((long) d);
+			return mix(Double.doubleToLongBits(d));
+		}
+		if (value instanceof CharSequence)
+			return hashChars((CharSequence) value);
+		if (value instanceof byte[]) {
+			long h = 0xcbf29ce484222325L;
+			for (byte b : (byte[]) value)
+				h = (h ^ b) * 0x100000001b3L;
+			return mix(h);
+		}
+		return mix(value.hashCode());
+	}
+
+	private static long hashChars(CharSequence s) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < s.length(); i++)
+			h = (h ^ s.charAt(i)) * 0x100000001b3L;
+		return mix(h);
+	}
+
+	/** MurmurHash3 fmix64 */
+	private static long mix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * FirstLevelCache is a short-lived query result scope used by
+ * FirstLevelCacheHandler, it's opened and closed around a unit of work (a web
+ * request, a transaction...), in its life identical queries are executed only
+ * once, any write executed by the DbPro clears it. Because it's short-lived and
+ * cleared by writes, it will not return stale data like a global cache does.
+ *
+ * A scope can be bound to current thread by open() method (nested open() calls
+ * share the same scope, the outermost close() ends it), or be created as an
+ * explicit object and given to FirstLevelCacheHandler's constructor. Usage:
+ *
+ * <pre>
+ * db.setSqlHandlers(new SqlHandler[] { new FirstLevelCacheHandler() });
+ * FirstLevelCache scope = FirstLevelCache.open();
+ * try {
+ * 	... // queries with same SQL and parameters only execute once
+ * } finally {
+ * 	scope.close();
+ * }
+ * </pre>
+ *
+ * Note: cached result instances are shared, do not modify them.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class FirstLevelCache implements Closeable {
+	private static final ThreadLocal<FirstLevelCache> threadScope = new ThreadLocal<FirstLevelCache>();
+	private static final Object NULL_RESULT = new Object();
+
+	/** Returned by get() method if a key not found */
+	static final Object NOT_FOUND = new Object();
+
+	private final ConcurrentHashMap<QueryKey, Object> results = new ConcurrentHashMap<QueryKey, Object>();
+	private final int maxEntries;
+	private final boolean threadBound;
+	private int depth = 0; // nested open() count of a thread bound scope
+	private volatile boolean closed = false;
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong version = new AtomicLong(); // increased by clear()
+
+	/** Create an explicit scope can cache 1000 query results at most */
+	public FirstLevelCache() {
+		this(1000);
+	}
+
+	/** Create an explicit scope can cache maxEntries query results at most */
+	public FirstLevelCache(int maxEntries) {
+		this(maxEntries, false);
+	}
+
+	private FirstLevelCache(int maxEntries, boolean threadBound) {
+		this.maxEntries = maxEntries;
+		this.threadBound = threadBound;
+	}
+
+	/**
+	 * Open a scope bound to current thread, if current thread already has an
+	 * opened scope, return it. Each open() should be paired with a close()
+	 */
+	public static FirstLevelCache open() {
+		FirstLevelCache scope = threadScope.get();
+		if (scope == null) {
+			scope = new FirstLevelCache(1000, true);
+			threadScope.set(scope);
+		}
+		scope.depth++;
+		return scope;
+	}
+
+	/** @return The scope bound to current thread, null if not opened */
+	public static FirstLevelCache current() {
+		return threadScope.get();
+	}
+
+	/** Close the scope, a thread bound scope is ended by its outermost close() */
+	@Override
+	public void close() {
+		if (threadBound) {
+			if (--depth > 0)
+				return;
+			if (threadScope.get() == this)
+				threadScope.remove();
+		}
+		closed = true;
+		results.clear();
+	}
+
+	/** Return cached result, or NOT_FOUND */
+	Object get(QueryKey key) {
+		Object result = results.get(key);
+		if (result == null)
+			return NOT_FOUND;
+		hitCount.incrementAndGet();
+		return result == NULL_RESULT ? null : result;
+	}
+
+	/** Put a result, version is got before query, if changed result is dropped */
+	void put(QueryKey key, Object result, long queryVersion) {
+		if (closed || results.size() >= maxEntries)
+			return;
+		QueryKey stored = key.forStore();
+		results.put(stored, result == null ? NULL_RESULT : result);
+		if (version.get() != queryVersion)
+			results.remove(stored); // a write happened during query
+	}
+
+	long getVersion() {
+		return version.get();
+	}
+
+	/** Remove all cached results, called after a write */
+	public void clear() {
+		version.incrementAndGet();
+		results.clear();
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/** @return Cached result count */
+	public int size() {
+		return results.size();
+	}
+
+	/** @return How many queries are served by this scope */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+}
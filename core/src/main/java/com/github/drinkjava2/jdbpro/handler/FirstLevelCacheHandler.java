@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import com.github.drinkjava2.jdbpro.DefaultOrderSqlHandler;
+import com.github.drinkjava2.jdbpro.ImprovedQueryRunner;
+import com.github.drinkjava2.jdbpro.PreparedSQL;
+import com.github.drinkjava2.jdbpro.SqlOption;
+import com.github.drinkjava2.jdbpro.WriteListener;
+
+/**
+ * FirstLevelCacheHandler memoize query results in a FirstLevelCache scope, if
+ * no scope is opened it does nothing. By default it uses the scope bound to
+ * current thread (see FirstLevelCache.open()), or an explicit scope given in
+ * constructor.
+ *
+ * It registers itself as a WriteListener of the DbPro it serves, any write
+ * executed by that DbPro clears the scope. Its default order is 90, so it runs
+ * before ConcurrentCacheHandler (100) and CoalescingHandler (110). SQL run on a
+ * given Connection is not memoized.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class FirstLevelCacheHandler extends DefaultOrderSqlHandler implements WriteListener {
+	public static final int DEFAULT_FIRST_LEVEL_CACHE_ORDER = 90;
+
+	private final FirstLevelCache scope;
+
+	/** Use the scope bound to current thread */
+	public FirstLevelCacheHandler() {
+		this(null);
+	}
+
+	/** Use given scope, null means use the scope bound to current thread */
+	public FirstLevelCacheHandler(FirstLevelCache scope) {
+		this.scope = scope;
+		this.order = DEFAULT_FIRST_LEVEL_CACHE_ORDER;
+	}
+
+	@Override
+	public Object handle(ImprovedQueryRunner runner, PreparedSQL ps) {
+		listenTo(runner);
+		FirstLevelCache cache = currentScope();
+		if (cache == null || cache.isClosed() || !SqlOption.QUERY.equals(ps.getOperationType())
+				|| ps.getConnection() != null)
+			return runner.runPreparedSQL(ps);
+		QueryKey key = QueryKey.of(ps);
+		Object result = cache.get(key);
+		if (result != FirstLevelCache.NOT_FOUND)
+			return result;
+		long version = cache.getVersion();
+		result = runner.runPreparedSQL(ps);
+		cache.put(key, result, version);
+		return result;
+	}
+
+	/** Register as WriteListener of runner if not registered, see ConcurrentCacheHandler */
+	private void listenTo(ImprovedQueryRunner runner) {
+		WriteListener[] listeners = runner.getWriteListeners();
+		if (listeners != null)
+			for (WriteListener listener : listeners)
+				if (listener == this)
+					return;
+		runner.addWriteListener(this);
+	}
+
+	@Override
+	public void afterWrite(ImprovedQueryRunner runner, PreparedSQL ps) {
+		FirstLevelCache cache = currentScope();
+		if (cache != null)
+			cache.clear();
+	}
+
+	private FirstLevelCache currentScope() {
+		return scope != null ? scope : FirstLevelCache.current();
+	}
+
+	/** @return The explicit scope, null if use the scope bound to current thread */
+	public FirstLevelCache getScope() {
+		return scope;
+	}
+
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.drinkjava2.jdbpro.DbProException;
+
+/**
+ * GroupByAggregator group rows by one or more columns and compute count / sum /
+ * min / max / avg metrics for each group in one pass. Result is a Map, key is
+ * the group column value (or a List of values if group by multiple columns),
+ * value is a Map of metric name and metric value, for example:
+ *
+ * <pre>
+ * GroupByAggregator agg = new GroupByAggregator("dept").count().sum("salary").max("age");
+ * Map&lt;Object, Map&lt;String, Object&gt;&gt; result = db.iQuery(agg, "select * from users");
+ * result.get("IT").get("sum(salary)");
+ * </pre>
+ *
+ * Metric names are "count", "count(col)", "sum(col)", "min(col)", "max(col)"
+ * and "avg(col)". Like SQL, null values are ignored except by count(), sum /
+ * min / max / avg of a group without non-null value is null.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class GroupByAggregator extends RowAggregator<Map<Object, Map<String, Object>>> {
+	private static final int COUNT_ROWS = 0;
+	private static final int COUNT = 1;
+	private static final int SUM = 2;
+	private static final int MIN = 3;
+	private static final int MAX = 4;
+	private static final int AVG = 5;
+
+	private final String[] groupColumns;
+	private final List<int[]> metrics = new ArrayList<int[]>(); // {type, column index}
+	private final List<String> metricColumns = new ArrayList<String>();
+	private final List<String> metricNames = new ArrayList<String>();
+
+	private int[] groupIndexes;
+	private Map<Object, Object[]> groups;
+
+	public GroupByAggregator(String... groupColumns) {
+		if (groupColumns == null || groupColumns.length == 0)
+			throw new DbProException("GroupByAggregator need at least 1 group column");
+		this.groupColumns = groupColumns;
+	}
+
+	/** Count rows of each group */
+	public GroupByAggregator count() {
+		return addMetric(COUNT_ROWS, null, "count");
+	}
+
+	/** Count non-null values of given column */
+	public GroupByAggregator count(String column) {
+		return addMetric(COUNT, column, "count(" + column + ")");
+	}
+
+	public GroupByAggregator sum(String column) {
+		return addMetric(SUM, column, "sum(" + column + ")");
+	}
+
+	public GroupByAggregator min(String column) {
+		return addMetric(MIN, column, "min(" + column + ")");
+	}
+
+	public GroupByAggregator max(String column) {
+		return addMetric(MAX, column, "max(" + column + ")");
+	}
+
+	public GroupByAggregator avg(String column) {
+		return addMetric(AVG, column, "avg(" + column + ")");
+	}
+
+	private GroupByAggregator addMetric(int type, String column, String name) {
+		metrics.add(new int[] { type, 0 });
+		metricColumns.add(column);
+		metricNames.add(name);
+		return this;
+	}
+
+	@Override
+	public void start(ResultSetMetaData meta) throws SQLException {
+		groupIndexes = new int[groupColumns.length];
+		for (int i = 0; i < groupColumns.length; i++)
+			groupIndexes[i] = findColumn(meta, groupColumns[i]);
+		for (int i = 0; i < metrics.size(); i++)
+			if (metricColumns.get(i) != null)
+				metrics.get(i)[1] = findColumn(meta, metricColumns.get(i));
+		groups = new LinkedHashMap<Object, Object[]>();
+	}
+
+	@Override
+	public void accept(ResultSet rs) throws SQLException {
+		Object key;
+		if (groupIndexes.length == 1)
+			key = rs.getObject(groupIndexes[0]);
+		else {
+			Object[] keys = new Object[groupIndexes.length];
+			for (int i = 0; i < groupIndexes.length; i++)
+				keys[i] = rs.getObject(groupIndexes[i]);
+			key = Arrays.asList(keys);
+		}
+		Object[] states = groups.get(key);
+		if (states == null) {
+			states = new Object[metrics.size()];
+			for (int i = 0; i < states.length; i++)
+				states[i] = metrics.get(i)[0] == MIN || metrics.get(i)[0] == MAX ? null : new Accumulator();
+			groups.put(key, states);
+		}
+		for (int i = 0; i < states.length; i++) {
+			int[] metric = metrics.get(i);
+			if (metric[0] == COUNT_ROWS) {
+				((Accumulator) states[i]).count++;
+				continue;
+			}
+			Object value = rs.getObject(metric[1]);
+			if (value == null)
+				continue;
+			switch (metric[0]) {
+			case COUNT:
+				((Accumulator) states[i]).count++;
+				break;
+			case SUM:
+			case AVG:
+				((Accumulator) states[i]).add(value);
+				break;
+			case MIN:
+				if (states[i] == null || compareValues(value, states[i]) < 0)
+					states[i] = value;
+				break;
+			default: // MAX
+				if (states[i] == null || compareValues(value, states[i]) > 0)
+					states[i] = value;
+			}
+		}
+	}
+
+	@Override
+	protected Map<Object, Map<String, Object>> computeResult() {
+		Map<Object, Map<String, Object>> result = new LinkedHashMap<Object, Map<String, Object>>();
+		for (Map.Entry<Object, Object[]> group : groups.entrySet()) {
+			Map<String, Object> values = new LinkedHashMap<String, Object>();
+			Object[] states = group.getValue();
+			for (int i = 0; i < states.length; i++) {
+				int type = metrics.get(i)[0];
+				Object value;
+				if (type == COUNT_ROWS || type == COUNT)
+					value = ((Accumulator) states[i]).count;
+				else if (type == SUM)
+					value = ((Accumulator) states[i]).sum();
+				else if (type == AVG)
+					value = ((Accumulator) states[i]).avg();
+				else
+					value = states[i];
+				values.put(metricNames.get(i), value);
+			}
+			result.put(group.getKey(), values);
+		}
+		groups = null;
+		return result;
+	}
+
+	/**
+	 * Sum numbers as long if all are integers, as double if any floating number
+	 * found, as BigDecimal if any BigDecimal found or long overflow
+	 */
+	private static class Accumulator {
+		long count;
+		long longSum;
+		double doubleSum;
+		BigDecimal decimalSum;
+		boolean floating;
+
+		void add(Object value) {
+			Number n = (Number) value;
+			if (decimalSum == null && (value instanceof BigDecimal || value instanceof BigInteger))
+				decimalSum = floating ? BigDecimal.valueOf(doubleSum) : BigDecimal.valueOf(longSum);
+			if (decimalSum != null)
+				decimalSum = decimalSum.add(toDecimal(n));
+			else if (floating || value instanceof Double || value instanceof Float) {
+				if (!floating) {
+					floating = true;
+					doubleSum = longSum;
+				}
+				doubleSum += n.doubleValue();
+			} else {
+				long l = n.longValue();
+				long r = longSum + l;
+				if (((longSum ^ r) & (l ^ r)) < 0) // overflow
+					decimalSum = BigDecimal.valueOf(longSum).add(BigDecimal.valueOf(l));
+				else
+					longSum = r;
+			}
+			count++;
+		}
+
+		private static BigDecimal toDecimal(Number n) {
+			if (n instanceof BigDecimal)
+				return (BigDecimal) n;
+			if (n instanceof BigInteger)
+				return new BigDecimal((BigInteger) n);
+			if (n instanceof Double || n instanceof Float)
+				return BigDecimal.valueOf(n.doubleValue());
+			return BigDecimal.valueOf(n.longValue());
+		}
+
+		Object sum() {
+			if (count == 0)
+				return null;
+			if (decimalSum != null)
+				return decimalSum;
+			return floating ? (Object) doubleSum : (Object) longSum;
+		}
+
+		Object avg() {
+			if (count == 0)
+				return null;
+			return ((Number) sum()).doubleValue() / count;
+		}
+	}
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import com.github.drinkjava2.jdbpro.DbProException;
+
+/**
+ * HistogramAggregator count values of a numeric column into equal width
+ * buckets between min (inclusive) and max (exclusive). Result is a long[] with
+ * buckets+2 items, item 0 is the count of values less than min, the last item
+ * is the count of values not less than max, others are bucket counts. Null
+ * values are ignored.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class HistogramAggregator extends RowAggregator<long[]> {
+	private final String column;
+	private final double min;
+	private final double max;
+	private final int buckets;
+	private final double width;
+
+	private int columnIndex;
+	private long[] counts;
+
+	public HistogramAggregator(String column, double min, double max, int buckets) {
+		if (buckets <= 0 || !(max > min))
+			throw new DbProException("HistogramAggregator need max > min and buckets > 0");
+		this.column = column;
+		this.min = min;
+		this.max = max;
+		this.buckets = buckets;
+		this.width = (max - min) / buckets;
+	}
+
+	@Override
+	public void start(ResultSetMetaData meta) throws SQLException {
+		columnIndex = findColumn(meta, column);
+		counts = new long[buckets + 2];
+	}
+
+	@Override
+	public void accept(ResultSet rs) throws SQLException {
+		double value = rs.getDouble(columnIndex);
+		if (rs.wasNull())
+			return;
+		if (value < min)
+			counts[0]++;
+		else if (value >= max)
+			counts[buckets + 1]++;
+		else
+			counts[1 + Math.min(buckets - 1, (int) ((value - min) / width))]++;
+	}
+
+	/** @return The lower bound of given bucket, bucket start from 1 */
+	public double getBucketLowerBound(int bucket) {
+		return min + (bucket - 1) * width;
+	}
+
+	@Override
+	protected long[] computeResult() {
+		return counts;
+	}
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.io.Closeable;
+
+/**
+ * InvalidationBus broadcast cache invalidation messages to other nodes (other
+ * JVMs run same application on same database), so each node's cache can keep a
+ * long TTL. A message is either tables modified (null means all tables), or a
+ * QueryKey. Listeners only receive messages published by other nodes.
+ *
+ * Implementations: LoopbackInvalidationBus (in-process, for tests) and
+ * MulticastInvalidationBus (UDP multicast, batched and de-duplicated).
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public interface InvalidationBus extends Closeable {// NOSONAR
+
+	/** Listen invalidation messages come from other nodes */
+	public static interface Listener {// NOSONAR
+		/** Tables modified on another node, null means all tables */
+		public void onTablesInvalidated(String[] tables);
+
+		/** A query result is invalidated on another node */
+		public void onKeyInvalidated(QueryKey key);
+	}
+
+	/** Publish tables modified, null means all tables */
+	public void publishTables(String... tables);
+
+	/**
+	 * Publish a QueryKey invalidated, only a key whose parameters and handler
+	 * configuration are all scalar values (null, String, number, boolean,
+	 * character, byte[] or date, see BinaryRowCodec.isScalar) can be published,
+	 * others are ignored
+	 */
+	public void publishKey(QueryKey key);
+
+	public void addListener(Listener listener);
+
+	public void removeListener(Listener listener);
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * JsonLinesExportHandler write each row of ResultSet as one JSON object per
+ * line (JSON Lines format), for example:
+ *
+ * <pre>
+ * {"name":"Tom","age":5}
+ * {"name":"Sam","age":null}
+ * </pre>
+ *
+ * Numeric columns are written as JSON numbers, boolean columns as JSON
+ * booleans, binary columns as Base64 Strings, others as JSON Strings. Column
+ * names are encoded only once before iterating rows.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class JsonLinesExportHandler extends TextExportHandler {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final char[] NULL = "null".toCharArray();
+
+	/** Encoded column names like {"name": and ,"age": */
+	private char[][] namePrefixes;
+
+	public JsonLinesExportHandler(Writer writer) {
+		super(writer, DEFAULT_BUFFER_SIZE);
+	}
+
+	public JsonLinesExportHandler(OutputStream out) {
+		super(out, UTF8, DEFAULT_BUFFER_SIZE);
+	}
+
+	public JsonLinesExportHandler(OutputStream out, Charset charset, int bufferSize) {
+		super(out, charset, bufferSize);
+	}
+
+	public JsonLinesExportHandler(WritableByteChannel channel) {
+		super(channel, UTF8, DEFAULT_BUFFER_SIZE);
+	}
+
+	public JsonLinesExportHandler(WritableByteChannel channel, Charset charset, int bufferSize) {
+		super(channel, charset, bufferSize);
+	}
+
+	@Override
+	protected void beforeRows(String[] titles) {
+		namePrefixes = new char[titles.length][];
+		for (int i = 0; i < titles.length; i++) {
+			StringBuilder sb = new StringBuilder(titles[i].length() + 4);
+			sb.append(i == 0 ? '{' : ',');
+			appendJsonString(sb, titles[i]);
+			sb.append(':');
+			namePrefixes[i] = sb.toString().toCharArray();
+		}
+	}
+
+	@Override
+	protected void writeRow(ResultSet rs, int[] kinds) throws SQLException, IOException {
+		if (kinds.length == 0)
+			write('{');
+		for (int i = 0; i < kinds.length; i++) {
+			write(namePrefixes[i]);
+			String text = getText(rs, i + 1, kinds[i]);
+			if (text == null)
+				write(NULL);
+			else if (kinds[i] == KIND_BOOLEAN || (kinds[i] == KIND_NUMBER && isJsonNumber(text)))
+				write(text);
+			else
+				writeJsonString(text);
+		}
+		write('}');
+		write('\n');
+	}
+
+	/** NaN and Infinity are not legal JSON numbers, they are written as String */
+	private static boolean isJsonNumber(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == 'N' || c == 'I' || c == 'n' || c == 'i')
+				return false;
+		}
+		return text.length() > 0;
+	}
+
+	private void writeJsonString(String s) throws IOException {
+		write('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				write('\\');
+				write(c);
+			} else if (c < 0x20) {
+				writeControlChar(c);
+			} else
+				write(c);
+		}
+		write('"');
+	}
+
+	private void writeControlChar(char c) throws IOException {
+		write('\\');
+		switch (c) {
+		case '\n':
+			write('n');
+			break;
+		case '\r':
+			write('r');
+			break;
+		case '\t':
+			write('t');
+			break;
+		case '\b':
+			write('b');
+			break;
+		case '\f':
+			write('f');
+			break;
+		default:
+			write('u');
+			write('0');
+			write('0');
+			write(HEX[(c >> 4) & 0xF]);
+			write(HEX[c & 0xF]);
+		}
+	}
+
+	private static void appendJsonString(StringBuilder sb, String s) {
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if (c < 0x20)
+				sb.append("\\u00").append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+			else
+				sb.append(c);
+		}
+		sb.append('"');
+	}
+
+}
@@ -0,0 +1,457 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.lang.reflect.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import com.github.drinkjava2.jdbpro.DbProException;
+import com.github.drinkjava2.jdbpro.DefaultOrderSqlHandler;
+import com.github.drinkjava2.jdbpro.ImprovedQueryRunner;
+import com.github.drinkjava2.jdbpro.InListParam;
+import com.github.drinkjava2.jdbpro.PreparedSQL;
+import com.github.drinkjava2.jdbpro.SqlOption;
+import com.github.drinkjava2.jlogs.Log;
+import com.github.drinkjava2.jlogs.LogFactory;
+
+/**
+ * LargeInListHandler deal IN lists created by JDBPRO.inList() method which has
+ * more values than threshold (default 1000), smaller lists are expanded to
+ * "?,?...?" as usual. Strategies:
+ *
+ * <pre>
+ * ARRAY:      Bind all values as one SQL ARRAY parameter, "?" is replaced by arrayExpression,
+ *             default is "unnest(?)" for H2 and "select unnest(?)" for others like PostgreSQL
+ * CHUNK:      Split values into chunks, run one query for each chunk and merge results, chunks
+ *             can run in parallel if not in a transaction, only List results and update counts
+ *             can be merged, and only one large IN list allowed in a SQL, note "order by" and
+ *             aggregate functions only work inside each chunk
+ * TEMP_TABLE: Batch insert values into a session temporary table, "?" is replaced by a sub
+ *             query on it, the temporary table DDL can be customized for different databases
+ * AUTO:       Use ARRAY for PostgreSQL and H2, otherwise use CHUNK (default)
+ * </pre>
+ *
+ * Usage:
+ *
+ * <pre>
+ * db.setSqlHandlers(new SqlHandler[] { new LargeInListHandler() });
+ * db.iQuery(new MapListHandler(), "select * from users where id in (", inList(ids), ")");
+ * </pre>
+ *
+ * Its default order is 120, so a cache handler (order 100) see the original
+ * query.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class LargeInListHandler extends DefaultOrderSqlHandler {
+	private static final Log logger = LogFactory.getLog(LargeInListHandler.class);
+	public static final int DEFAULT_LARGE_IN_LIST_ORDER = 120;
+
+	public enum Strategy {
+		AUTO, ARRAY, CHUNK, TEMP_TABLE
+	}
+
+	private static final AtomicInteger threadCount = new AtomicInteger();
+
+	private Strategy strategy = Strategy.AUTO;
+	private int threshold = 1000;
+	private int chunkSize = 1000;
+	private String arrayExpression = null; // null means decided by database
+	private String tempTableName = "jdbpro_in_list";
+	private String tempTableDdl = "create local temporary table if not exists %s (v %s)";
+	private String numberColumnType = "bigint";
+	private String textColumnType = "varchar(4000)";
+	private final ThreadPoolExecutor chunkExecutor;
+
+	/** Database product name of each DataSource, used by AUTO strategy */
+	private final ConcurrentHashMap<DataSource, String> productNames = new ConcurrentHashMap<DataSource, String>();
+
+	/** Create a LargeInListHandler use AUTO strategy */
+	public LargeInListHandler() {
+		this(Strategy.AUTO);
+	}
+
+	public LargeInListHandler(Strategy strategy) {
+		DbProException.assertNotNull(strategy, "Strategy can not be null");
+		this.strategy = strategy;
+		this.order = DEFAULT_LARGE_IN_LIST_ORDER;
+		chunkExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "jDbPro-in-list-" + threadCount.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		chunkExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	@Override
+	public Object handle(ImprovedQueryRunner runner, PreparedSQL ps) {
+		List<Integer> largeLists = new ArrayList<Integer>();
+		Object[] params = ps.getParams();
+		if (params != null)
+			for (int i = 0; i < params.length; i++)
+				if (params[i] instanceof InListParam && ((InListParam) params[i]).size() > threshold)
+					largeLists.add(i);
+		if (largeLists.isEmpty())
+			return runner.runPreparedSQL(ps);
+		Strategy realStrategy = strategy;
+		if (strategy == Strategy.AUTO) {
+			String product = productName(runner, ps);
+			realStrategy = "PostgreSQL".equalsIgnoreCase(product) || "H2".equalsIgnoreCase(product) ? Strategy.ARRAY
+					: Strategy.CHUNK;
+		}
+		if (realStrategy == Strategy.ARRAY)
+			return runArray(runner, ps);
+		if (realStrategy == Strategy.TEMP_TABLE)
+			return runTempTable(runner, ps);
+		if (largeLists.size() > 1)
+			throw new DbProException("CHUNK strategy only support one large IN list in a SQL");
+		return runChunks(runner, ps, largeLists.get(0));
+	}
+
+	private String productName(ImprovedQueryRunner runner, PreparedSQL ps) {
+		String product = null;
+		DataSource ds = runner.getDataSource();
+		if (ds != null)
+			product = productNames.get(ds);
+		if (product == null) {
+			Connection conn = null;
+			try {
+				conn = ps.getConnection() != null ? ps.getConnection() : runner.prepareConnection();
+				product = conn.getMetaData().getDatabaseProductName();
+			} catch (SQLException e) {
+				throw new DbProException(e);
+			} finally {
+				if (conn != null && ps.getConnection() == null)
+					closeQuietly(runner, conn);
+			}
+			if (ds != null)
+				productNames.put(ds, product);
+		}
+		return product;
+	}
+
+	private Object runArray(ImprovedQueryRunner runner, PreparedSQL ps) {
+		String expression = arrayExpression;
+		if (expression == null)
+			expression = "H2".equalsIgnoreCase(productName(runner, ps)) ? "unnest(?)" : "select unnest(?)";
+		final String sqlPiece = expression;
+		InListParam.expand(ps, new InListParam.Expander() {
+			@Override
+			public String expand(InListParam inList, List<Object> params) {
+				if (inList.size() <= threshold)
+					return null;
+				params.add(toTypedArray(inList.getValues()));
+				return sqlPiece;
+			}
+		});
+		return runner.runPreparedSQL(ps);
+	}
+
+	/** Convert to an array of values' common class, so JDBC driver can know SQL type */
+	private static Object toTypedArray(Object[] values) {
+		Class<?> type = null;
+		for (Object value : values) {
+			if (value == null)
+				continue;
+			if (type == null)
+				type = value.getClass();
+			else if (type != value.getClass())
+				return values;
+		}
+		if (type == null || type == Object.class)
+			return values;
+		Object array = Array.newInstance(type, values.length);
+		System.arraycopy(values, 0, array, 0, values.length);
+		return array;
+	}
+
+	private Object runChunks(final ImprovedQueryRunner runner, PreparedSQL ps, int paramIndex) {
+		InListParam inList = (InListParam) ps.getParams()[paramIndex];
+		List<PreparedSQL> chunks = new ArrayList<PreparedSQL>();
+		for (int from = 0; from < inList.size(); from += chunkSize) {
+			PreparedSQL chunk = ps.copy();
+			chunk.getParams()[paramIndex] = inList.subList(from, Math.min(inList.size(), from + chunkSize));
+			chunks.add(chunk);
+		}
+		List<Object> results = new ArrayList<Object>(chunks.size());
+		boolean parallel = chunkExecutor.getMaximumPoolSize() > 1 && ps.getConnection() == null
+				&& (runner.getConnectionManager() == null || !runner.getConnectionManager().isInTransaction());
+		if (!parallel) {
+			for (PreparedSQL chunk : chunks)
+				results.add(runner.runPreparedSQL(chunk));
+			return merge(results);
+		}
+		List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		for (int i = 1; i < chunks.size(); i++) {
+			final PreparedSQL chunk = chunks.get(i);
+			futures.add(chunkExecutor.submit(new Callable<Object>() {
+				@Override
+				public Object call() {
+					return runner.runPreparedSQL(chunk);
+				}
+			}));
+		}
+		try {
+			results.add(runner.runPreparedSQL(chunks.get(0)));
+			for (Future<Object> future : futures)
+				results.add(future.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DbProException("Interrupted when waiting for IN list chunk queries", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new DbProException(e.getCause());
+		} finally {
+			for (Future<Object> future : futures)
+				future.cancel(false);
+		}
+		return merge(results);
+	}
+
+	/** Merge results of chunks, List results are joined and numbers are added */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected Object merge(List<Object> results) {
+		Object first = results.get(0);
+		if (first instanceof Collection) {
+			List<Object> merged = new ArrayList<Object>();
+			for (Object result : results)
+				merged.addAll((Collection) result);
+			return merged;
+		}
+		if (first instanceof Integer || first instanceof Long) {
+			long sum = 0;
+			for (Object result : results)
+				sum += ((Number) result).longValue();
+			return first instanceof Integer ? (Object) (int) sum : (Object) sum;
+		}
+		throw new DbProException("Can not merge results of IN list chunks, result type is "
+				+ (first == null ? null : first.getClass()) + ", use ARRAY or TEMP_TABLE strategy instead");
+	}
+
+	private Object runTempTable(ImprovedQueryRunner runner, PreparedSQL ps) {
+		Connection conn = ps.getConnection();
+		boolean ownConnection = conn == null;
+		final List<String> tables = new ArrayList<String>();
+		try {
+			if (ownConnection)
+				conn = runner.prepareConnection();
+			final Connection connection = conn;
+			final int batchSize = runner.getBatchSize() == null || runner.getBatchSize() <= 0 ? 300
+					: runner.getBatchSize();
+			InListParam.expand(ps, new InListParam.Expander() {
+				@Override
+				public String expand(InListParam inList, List<Object> params) {
+					if (inList.size() <= threshold)
+						return null;
+					String table = loadTempTable(connection, inList, tables.size(), batchSize);
+					tables.add(table);
+					return "select v from " + table;
+				}
+			});
+			ps.setConnection(conn);
+			return runner.runPreparedSQL(ps);
+		} catch (SQLException e) {
+			throw new DbProException(e);
+		} finally {
+			if (conn != null) {
+				for (String table : tables)
+					try {
+						executeSql(conn, "delete from " + table);
+					} catch (SQLException e) {
+						logger.warn("Fail to clean temporary table " + table, e);
+					}
+				if (ownConnection)
+					closeQuietly(runner, conn);
+			}
+		}
+	}
+
+	private String loadTempTable(Connection conn, InListParam inList, int index, int batchSize) {
+		boolean numeric = true;
+		for (Object value : inList.getValues())
+			if (!(value instanceof Long || value instanceof Integer || value instanceof Short
+					|| value instanceof Byte)) {
+				numeric = false;
+				break;
+			}
+		String table = tempTableName + (numeric ? "_n" : "_s") + index;
+		try {
+			executeSql(conn, String.format(tempTableDdl, table, numeric ? numberColumnType : textColumnType));
+			executeSql(conn, "delete from " + table);
+			PreparedStatement pst = conn.prepareStatement("insert into " + table + " (v) values (?)");
+			try {
+				int count = 0;
+				for (Object value : inList.getValues()) {
+					pst.setObject(1, value);
+					pst.addBatch();
+					if (++count % batchSize == 0)
+						pst.executeBatch();
+				}
+				if (count % batchSize != 0)
+					pst.executeBatch();
+			} finally {
+				pst.close();
+			}
+		} catch (SQLException e) {
+			throw new DbProException("Fail to load IN list into temporary table " + table, e);
+		}
+		return table;
+	}
+
+	private static void executeSql(Connection conn, String sql) throws SQLException {
+		Statement st = conn.createStatement();
+		try {
+			st.execute(sql);
+		} finally {
+			st.close();
+		}
+	}
+
+	private static void closeQuietly(ImprovedQueryRunner runner, Connection conn) {
+		try {
+			runner.close(conn);
+		} catch (SQLException e) {
+			logger.warn("Fail to close connection", e);
+		}
+	}
+
+	protected void ________Getters_Setters________() {// NOSONAR
+	}
+
+	public Strategy getStrategy() {
+		return strategy;
+	}
+
+	/** This method is not thread safe, suggest only use at program starting */
+	public LargeInListHandler setStrategy(Strategy strategy) {
+		DbProException.assertNotNull(strategy, "Strategy can not be null");
+		this.strategy = strategy;
+		return this;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/** IN lists has more values than threshold are dealt by this handler */
+	public LargeInListHandler setThreshold(int threshold) {
+		this.threshold = threshold;
+		return this;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public LargeInListHandler setChunkSize(int chunkSize) {
+		if (chunkSize <= 0)
+			throw new DbProException("Chunk size should be bigger than 0");
+		this.chunkSize = chunkSize;
+		return this;
+	}
+
+	public int getParallelism() {
+		return chunkExecutor.getMaximumPoolSize();
+	}
+
+	/** Set how many threads can run chunk queries, default is 1 (no parallel) */
+	public LargeInListHandler setParallelism(int parallelism) {
+		if (parallelism <= 0)
+			throw new DbProException("Parallelism should be bigger than 0");
+		if (parallelism > chunkExecutor.getMaximumPoolSize()) {
+			chunkExecutor.setMaximumPoolSize(parallelism);
+			chunkExecutor.setCorePoolSize(parallelism);
+		} else {
+			chunkExecutor.setCorePoolSize(parallelism);
+			chunkExecutor.setMaximumPoolSize(parallelism);
+		}
+		return this;
+	}
+
+	public String getArrayExpression() {
+		return arrayExpression;
+	}
+
+	/**
+	 * The SQL replace "?" of IN list in ARRAY strategy, e.g. "select unnest(?)",
+	 * set null to decide it by database
+	 */
+	public LargeInListHandler setArrayExpression(String arrayExpression) {
+		this.arrayExpression = arrayExpression;
+		return this;
+	}
+
+	public String getTempTableName() {
+		return tempTableName;
+	}
+
+	public LargeInListHandler setTempTableName(String tempTableName) {
+		this.tempTableName = tempTableName;
+		return this;
+	}
+
+	public String getTempTableDdl() {
+		return tempTableDdl;
+	}
+
+	/**
+	 * Set DDL format of temporary table, first %s is table name and second %s is
+	 * column type, for example "create temporary table if not exists %s (v %s)" for
+	 * MySQL
+	 */
+	public LargeInListHandler setTempTableDdl(String tempTableDdl) {
+		this.tempTableDdl = tempTableDdl;
+		return this;
+	}
+
+	public String getNumberColumnType() {
+		return numberColumnType;
+	}
+
+	public LargeInListHandler setNumberColumnType(String numberColumnType) {
+		this.numberColumnType = numberColumnType;
+		return this;
+	}
+
+	public String getTextColumnType() {
+		return textColumnType;
+	}
+
+	public LargeInListHandler setTextColumnType(String textColumnType) {
+		this.textColumnType = textColumnType;
+		return this;
+	}
+
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.commons.dbutils.ResultSetHandler;
+
+import com.github.drinkjava2.jdbpro.DbProException;
+
+/**
+ * LobStreamHandler read a BLOB or CLOB column by getBinaryStream or
+ * getCharacterStream method, so large objects are never be loaded into memory
+ * as byte[] or String. For each row a callback get the ResultSet (positioned
+ * at current row, can read other columns) and an InputStream or Reader (null
+ * if the LOB is SQL NULL), the stream is closed after callback returned.
+ * Result is the row count. Usage:
+ *
+ * <pre>
+ * db.iQuery(new LobStreamHandler("content", new BinaryCallback() {
+ * 	public void handle(ResultSet rs, InputStream in) throws SQLException, IOException {
+ * 		...
+ * 	}
+ * }), "select id, content from docs");
+ *
+ * db.iQuery(LobStreamHandler.toFile("content", new File("doc1.pdf")), "select content from docs where id=1");
+ * db.iQuery(LobStreamHandler.toDirectory("content", "file_name", dir), "select file_name, content from docs");
+ * db.iQuery(LobStreamHandler.toChannel("content", socketChannel), "select content from docs where id=?", param(1));
+ * </pre>
+ *
+ * Transfer handlers created by static methods allocate their buffer (and
+ * truncate the target file) at the start of each query, so they can be reused
+ * and shared by threads, but concurrent queries writing into a same file or
+ * channel will mix their data.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class LobStreamHandler implements ResultSetHandler<Long> {
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/** Callback to deal a binary LOB column */
+	public static interface BinaryCallback {// NOSONAR
+		public void handle(ResultSet rs, InputStream in) throws SQLException, IOException;
+	}
+
+	/** Callback to deal a character LOB column */
+	public static interface TextCallback {// NOSONAR
+		public void handle(ResultSet rs, Reader reader) throws SQLException, IOException;
+	}
+
+	private final String lobColumn;
+	private final BinaryCallback binaryCallback;
+	private final TextCallback textCallback;
+
+	public LobStreamHandler(String lobColumn, BinaryCallback binaryCallback) {
+		DbProException.assertNotNull(binaryCallback, "BinaryCallback can not be null");
+		this.lobColumn = lobColumn;
+		this.binaryCallback = binaryCallback;
+		this.textCallback = null;
+	}
+
+	public LobStreamHandler(String lobColumn, TextCallback textCallback) {
+		DbProException.assertNotNull(textCallback, "TextCallback can not be null");
+		this.lobColumn = lobColumn;
+		this.binaryCallback = null;
+		this.textCallback = textCallback;
+	}
+
+	/**
+	 * For subclass which creates callbacks for each query by override
+	 * newBinaryCallback() or newTextCallback() method
+	 */
+	protected LobStreamHandler(String lobColumn) {
+		this.lobColumn = lobColumn;
+		this.binaryCallback = null;
+		this.textCallback = null;
+	}
+
+	/**
+	 * Return the BinaryCallback used by a query, called at start of each query,
+	 * default return the callback given in constructor
+	 */
+	protected BinaryCallback newBinaryCallback() throws IOException {// NOSONAR
+		return binaryCallback;
+	}
+
+	/**
+	 * Return the TextCallback used by a query if no BinaryCallback, called at
+	 * start of each query, default return the callback given in constructor
+	 */
+	protected TextCallback newTextCallback() throws IOException {// NOSONAR
+		return textCallback;
+	}
+
+	@Override
+	public Long handle(ResultSet rs) throws SQLException {
+		int col = rs.findColumn(lobColumn);
+		long rows = 0;
+		try {
+			BinaryCallback binaryCallback = newBinaryCallback();// NOSONAR
+			TextCallback textCallback = binaryCallback == null ? newTextCallback() : null;// NOSONAR
+			if (binaryCallback == null && textCallback == null)
+				throw new DbProException("LobStreamHandler has no callback");
+			while (rs.next()) {
+				rows++;
+				if (binaryCallback != null) {
+					InputStream in = rs.getBinaryStream(col);
+					try {
+						binaryCallback.handle(rs, in);
+					} finally {
+						if (in != null)
+							in.close();
+					}
+				} else {
+					Reader reader = rs.getCharacterStream(col);
+					try {
+						textCallback.handle(rs, reader);
+					} finally {
+						if (reader != null)
+							reader.close();
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new DbProException("LOB stream failed at row " + rows, e);
+		}
+		return rows;
+	}
+
+	protected void ________Transfer_Methods________() {// NOSONAR
+	}
+
+	/**
+	 * Transfer binary LOBs of all rows into given channel one by one, channel
+	 * will not be closed
+	 */
+	public static LobStreamHandler toChannel(String lobColumn, WritableByteChannel channel) {
+		return toChannel(lobColumn, channel, DEFAULT_BUFFER_SIZE);
+	}
+
+	public static LobStreamHandler toChannel(String lobColumn, final WritableByteChannel channel,
+			final int bufferSize) {
+		return new LobStreamHandler(lobColumn) {
+			@Override
+			protected BinaryCallback newBinaryCallback() {
+				final byte[] buf = new byte[bufferSize];
+				return new BinaryCallback() {
+					@Override
+					public void handle(ResultSet rs, InputStream in) throws IOException {
+						transfer(in, channel, buf);
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Transfer character LOBs of all rows into given channel by given charset,
+	 * channel will not be closed
+	 */
+	public static LobStreamHandler textToChannel(String lobColumn, final WritableByteChannel channel,
+			final Charset charset) {
+		return new LobStreamHandler(lobColumn) {
+			@Override
+			protected TextCallback newTextCallback() {
+				final CharBuffer chars = CharBuffer.allocate(DEFAULT_BUFFER_SIZE / 4);
+				final ByteBuffer bytes = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+				final CharsetEncoder encoder = charset.newEncoder();
+				return new TextCallback() {
+					@Override
+					public void handle(ResultSet rs, Reader reader) throws IOException {
+						transfer(reader, channel, encoder, chars, bytes);
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Transfer binary LOBs of all rows into one file, if file exist it will be
+	 * overwritten at start of each query, even no row found
+	 */
+	public static LobStreamHandler toFile(String lobColumn, final File file) {
+		return new LobStreamHandler(lobColumn) {
+			@Override
+			protected BinaryCallback newBinaryCallback() throws IOException {
+				new FileOutputStream(file).close(); // truncate
+				final byte[] buf = new byte[DEFAULT_BUFFER_SIZE];
+				return new BinaryCallback() {
+					@Override
+					public void handle(ResultSet rs, InputStream in) throws IOException {
+						FileOutputStream out = new FileOutputStream(file, true);
+						try {
+							transfer(in, out.getChannel(), buf);
+						} finally {
+							out.close();
+						}
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Transfer binary LOB of each row into a separated file in given directory,
+	 * file name is the value of fileNameColumn
+	 */
+	public static LobStreamHandler toDirectory(String lobColumn, final String fileNameColumn, final File dir) {
+		return new LobStreamHandler(lobColumn) {
+			@Override
+			protected BinaryCallback newBinaryCallback() {
+				final byte[] buf = new byte[DEFAULT_BUFFER_SIZE];
+				return new BinaryCallback() {
+					@Override
+					public void handle(ResultSet rs, InputStream in) throws SQLException, IOException {
+						String fileName = rs.getString(fileNameColumn);
+						if (fileName == null || fileName.length() == 0)
+							throw new DbProException("File name column '" + fileNameColumn + "' is empty");
+						File file = new File(dir, fileName);
+						if (!file.getCanonicalPath().startsWith(dir.getCanonicalPath() + File.separator))
+							throw new DbProException("File name '" + fileName + "' is out of directory " + dir);
+						FileOutputStream out = new FileOutputStream(file);
+						try {
+							transfer(in, out.getChannel(), buf);
+						} finally {
+							out.close();
+						}
+					}
+				};
+			}
+		};
+	}
+
+	/** Copy InputStream into channel by given buffer, return bytes copied */
+	public static long transfer(InputStream in, WritableByteChannel channel, byte[] buf) throws IOException {
+		if (in == null)
+			return 0;
+		ByteBuffer bb = ByteBuffer.wrap(buf);
+		long total = 0;
+		int n;
+		while ((n = in.read(buf)) >= 0) {
+			bb.clear();
+			bb.limit(n);
+			while (bb.hasRemaining())
+				channel.write(bb);
+			total += n;
+		}
+		return total;
+	}
+
+	/** Encode Reader into channel by given buffers, return bytes written */
+	public static long transfer(Reader reader, WritableByteChannel channel, CharsetEncoder encoder, CharBuffer chars,
+			ByteBuffer bytes) throws IOException {
+		if (reader == null)
+			return 0;
+		encoder.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE).reset();
+		chars.clear();
+		long total = 0;
+		boolean eof = false;
+		while (!eof) {
+			eof = reader.read(chars) < 0;
+			chars.flip();
+			CoderResult result;
+			do {
+				bytes.clear();
+				result = encoder.encode(chars, bytes, eof);
+				total += writeFully(channel, bytes);
+			} while (result.isOverflow());
+			chars.compact();
+		}
+		CoderResult result;
+		do {
+			bytes.clear();
+			result = encoder.flush(bytes);
+			total += writeFully(channel, bytes);
+		} while (result.isOverflow());
+		return total;
+	}
+
+	private static int writeFully(WritableByteChannel channel, ByteBuffer bytes) throws IOException {
+		bytes.flip();
+		int n = bytes.remaining();
+		while (bytes.hasRemaining())
+			channel.write(bytes);
+		return n;
+	}
+
+}
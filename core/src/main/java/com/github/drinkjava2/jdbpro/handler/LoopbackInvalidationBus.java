@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * LoopbackInvalidationBus simulate a group of nodes in one JVM, messages are
+ * delivered to listeners of other nodes of same group synchronously. It's
+ * designed for unit tests. Usage:
+ *
+ * <pre>
+ * LoopbackInvalidationBus node1 = new LoopbackInvalidationBus();
+ * LoopbackInvalidationBus node2 = node1.newNode();
+ * cache1.setInvalidationBus(node1);
+ * cache2.setInvalidationBus(node2);
+ * </pre>
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class LoopbackInvalidationBus implements InvalidationBus {
+	private final List<LoopbackInvalidationBus> group;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	/** Create first node of a new group */
+	public LoopbackInvalidationBus() {
+		this(new CopyOnWriteArrayList<LoopbackInvalidationBus>());
+	}
+
+	private LoopbackInvalidationBus(List<LoopbackInvalidationBus> group) {
+		this.group = group;
+		group.add(this);
+	}
+
+	/** Create another node in same group */
+	public LoopbackInvalidationBus newNode() {
+		return new LoopbackInvalidationBus(group);
+	}
+
+	@Override
+	public void publishTables(String... tables) {
+		for (LoopbackInvalidationBus node : group)
+			if (node != this)
+				for (Listener listener : node.listeners)
+					listener.onTablesInvalidated(tables == null ? null : tables.clone());
+	}
+
+	@Override
+	public void publishKey(QueryKey key) {
+		if (!key.isEncodable())
+			return;
+		for (LoopbackInvalidationBus node : group)
+			if (node != this)
+				for (Listener listener : node.listeners)
+					listener.onKeyInvalidated(key);
+	}
+
+	@Override
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/** Leave the group */
+	@Override
+	public void close() {
+		group.remove(this);
+	}
+
+}
@@ -0,0 +1,503 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.github.drinkjava2.jdbpro.DbProException;
+
+/**
+ * MappedResultStore is a size-bounded query result store out of Java heap,
+ * used as the second level of ConcurrentCacheHandler. Results are encoded by
+ * BinaryRowCodec and appended to a ring buffer, when buffer is full oldest
+ * records are overwritten, so no compaction or GC pause is needed. The buffer
+ * is either direct memory, or a memory-mapped file which survive restarts.
+ *
+ * A persistent store has a version String, if version of an existing file is
+ * different (for example, database schema or application changed) all stored
+ * results are discarded when open it. Only key index (a small on-heap HashMap)
+ * is kept in heap, stored records are decoded only when hit.
+ *
+ * Only results can be encoded losslessly (see BinaryRowCodec.isLossless) are
+ * stored, for example List&lt;Map&gt; of MapListHandler, Object[], List of
+ * Serializable beans. Usage:
+ *
+ * <pre>
+ * ConcurrentCacheHandler cache = new ConcurrentCacheHandler(1000, 60000);
+ * cache.setSecondLevel(new MappedResultStore(new File("cache.dat"), 256 * 1024 * 1024, "v1"));
+ * </pre>
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class MappedResultStore implements Closeable {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int MAGIC = 0x4A445052;
+	private static final int FORMAT_VERSION = 2; // 2: QueryKey has handler configuration
+
+	// Header: magic, format version, user version hash, capacity, writePos, tailPos
+	private static final int HEADER_SIZE = 32;
+	private static final int WRITE_POS = 20;
+	private static final int TAIL_POS = 24;
+
+	// Record: length, state, expireAt, key, tables, value
+	private static final int RECORD_HEAD = 13;
+	private static final byte LIVE = 1;
+	private static final byte DEAD = 2;
+	private static final byte SKIP = 3;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final ByteBuffer buf;
+	private final int capacity;
+	private final File file;
+	private final RandomAccessFile raf;
+
+	/** Record offset to its key, key is null if record is dead */
+	private final TreeMap<Integer, QueryKey> records = new TreeMap<Integer, QueryKey>();
+	private final HashMap<QueryKey, Record> index = new HashMap<QueryKey, Record>();
+	private final HashMap<String, Set<QueryKey>> tableIndex = new HashMap<String, Set<QueryKey>>();
+
+	private int writePos = HEADER_SIZE;
+	private int tailPos = 0; // start of oldest record of last lap, 0 means not wrapped
+	private boolean closed = false;
+
+	/** Create a non-persistent store use given bytes of direct memory */
+	public MappedResultStore(int capacity) {
+		checkCapacity(capacity);
+		this.capacity = capacity;
+		this.file = null;
+		this.raf = null;
+		this.buf = ByteBuffer.allocateDirect(capacity);
+		reset();
+	}
+
+	/**
+	 * Open or create a persistent store
+	 *
+	 * @param file
+	 *            The file to map
+	 * @param capacity
+	 *            File size in bytes
+	 * @param version
+	 *            Data version, if it's different to the version stored in file,
+	 *            all results in file are discarded
+	 */
+	public MappedResultStore(File file, int capacity, String version) {
+		checkCapacity(capacity);
+		DbProException.assertNotNull(file, "File of MappedResultStore can not be null");
+		this.capacity = capacity;
+		this.file = file;
+		try {
+			this.raf = new RandomAccessFile(file, "rw");
+			boolean existed = raf.length() == capacity;
+			if (!existed)
+				raf.setLength(capacity);
+			this.buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			if (existed && buf.getInt(0) == MAGIC && buf.getInt(4) == FORMAT_VERSION
+					&& buf.getLong(8) == versionHash(version) && buf.getInt(16) == capacity)
+				load();
+			else {
+				buf.putInt(0, MAGIC);
+				buf.putInt(4, FORMAT_VERSION);
+				buf.putLong(8, versionHash(version));
+				buf.putInt(16, capacity);
+				reset();
+			}
+		} catch (IOException e) {
+			throw new DbProException("Fail to open result store file " + file, e);
+		}
+	}
+
+	private static void checkCapacity(int capacity) {
+		if (capacity < 4096)
+			throw new DbProException("Capacity of MappedResultStore should not less than 4096 bytes");
+	}
+
+	private static long versionHash(String version) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b : (version == null ? "" : version).getBytes(UTF8)) {
+			h ^= b & 0xff;
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/**
+	 * Get a stored result
+	 *
+	 * @return null if not found or expired, otherwise an array of {result,
+	 *         remaining TTL in milliseconds (Long)}
+	 */
+	public Object[] get(QueryKey key) {
+		byte[] bytes;
+		long remaining;
+		lock.lock();
+		try {
+			if (closed)
+				return null;
+			Record record = index.get(key);
+			if (record == null)
+				return null;
+			remaining = record.expireAt - System.currentTimeMillis();
+			if (remaining <= 0) {
+				kill(key, record);
+				return null;
+			}
+			bytes = new byte[record.length - record.valueStart];
+			buf.position(record.offset + record.valueStart);
+			buf.get(bytes);
+		} finally {
+			lock.unlock();
+		}
+		try {
+			return new Object[] { BinaryRowCodec.readValue(ByteBuffer.wrap(bytes)), remaining };
+		} catch (RuntimeException e) {// e.g. class of a serialized value changed
+			remove(key);
+			return null;
+		}
+	}
+
+	/**
+	 * Store a result, if result or parameters can not be encoded losslessly, or
+	 * result is too big, it's not stored
+	 *
+	 * @return true if stored
+	 */
+	public boolean put(QueryKey key, Object result, long ttlMillis, String[] tables) {
+		if (ttlMillis <= 0 || !BinaryRowCodec.isLossless(result) || !key.isEncodable())
+			return false;
+		byte[] bytes;
+		int valueStart;
+		long expireAt = System.currentTimeMillis() + ttlMillis;
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+			DataOutputStream out = new DataOutputStream(bos);
+			out.writeInt(0);
+			out.writeByte(LIVE);
+			out.writeLong(expireAt);
+			key.writeTo(out);
+			out.writeInt(tables == null ? -1 : tables.length);
+			if (tables != null)
+				for (String table : tables)
+					BinaryRowCodec.writeValue(out, table);
+			out.flush();
+			valueStart = bos.size();
+			BinaryRowCodec.writeValue(out, result);
+			out.flush();
+			bytes = bos.toByteArray();
+		} catch (IOException e) {// e.g. a field of a Serializable result is not Serializable
+			return false;
+		}
+		if (bytes.length > (capacity - HEADER_SIZE) / 2)
+			return false;
+		ByteBuffer.wrap(bytes).putInt(0, bytes.length);
+		lock.lock();
+		try {
+			if (closed)
+				return false;
+			Record old = index.get(key);
+			if (old != null)
+				kill(key, old);
+			if (writePos + bytes.length > capacity) {
+				if (capacity - writePos >= 5) {
+					buf.putInt(writePos, capacity - writePos);
+					buf.put(writePos + 4, SKIP);
+				}
+				drop(writePos, capacity);
+				writePos = HEADER_SIZE;
+			}
+			drop(writePos, writePos + bytes.length);
+			buf.position(writePos);
+			buf.put(bytes);
+			Record record = new Record(writePos, bytes.length, valueStart, expireAt, tables);
+			add(key, record);
+			writePos += bytes.length;
+			Integer oldest = records.ceilingKey(writePos);
+			tailPos = oldest == null ? 0 : oldest;
+			writeHeader();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Remove the result of given key */
+	public void remove(QueryKey key) {
+		lock.lock();
+		try {
+			Record record = index.get(key);
+			if (record != null && !closed)
+				kill(key, record);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Remove results depend on given tables, null means remove all */
+	public void invalidateTables(String... tables) {
+		if (tables == null) {
+			clear();
+			return;
+		}
+		lock.lock();
+		try {
+			if (closed)
+				return;
+			Set<QueryKey> keys = new HashSet<QueryKey>();
+			for (String table : tables) {
+				Set<QueryKey> indexed = tableIndex.get(table.toLowerCase());
+				if (indexed != null)
+					keys.addAll(indexed);
+			}
+			Set<QueryKey> unknown = tableIndex.get(null);
+			if (unknown != null)
+				keys.addAll(unknown);
+			for (QueryKey key : keys)
+				kill(key, index.get(key));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Remove all stored results */
+	public void clear() {
+		lock.lock();
+		try {
+			if (!closed)
+				reset();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Write changes of a persistent store to disk */
+	public void flush() {
+		lock.lock();
+		try {
+			if (!closed && buf instanceof MappedByteBuffer)
+				((MappedByteBuffer) buf).force();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Flush and close the store, a closed store ignores all operations */
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			if (closed)
+				return;
+			if (buf instanceof MappedByteBuffer)
+				((MappedByteBuffer) buf).force();
+			closed = true;
+			records.clear();
+			index.clear();
+			tableIndex.clear();
+			if (raf != null)
+				raf.close();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void reset() {
+		records.clear();
+		index.clear();
+		tableIndex.clear();
+		writePos = HEADER_SIZE;
+		tailPos = 0;
+		writeHeader();
+	}
+
+	private void writeHeader() {
+		buf.putInt(WRITE_POS, writePos);
+		buf.putInt(TAIL_POS, tailPos);
+	}
+
+	/** Rebuild index from records of a persistent store */
+	private void load() {
+		int write = buf.getInt(WRITE_POS);
+		int tail = buf.getInt(TAIL_POS);
+		if (write < HEADER_SIZE || write > capacity || (tail != 0 && (tail < write || tail > capacity))) {
+			reset();
+			return;
+		}
+		writePos = write;
+		tailPos = tail;
+		if (tail != 0)
+			scan(tail, capacity);
+		scan(HEADER_SIZE, write);
+		if (tailPos != 0) {// records before the first corrupted one are kept
+			Integer oldest = records.ceilingKey(writePos);
+			tailPos = oldest == null ? 0 : oldest;
+		}
+		writeHeader();
+	}
+
+	private void scan(int from, int to) {
+		int pos = from;
+		long now = System.currentTimeMillis();
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		if (loader == null)
+			loader = MappedResultStore.class.getClassLoader();
+		while (to - pos >= RECORD_HEAD) {
+			int length = buf.getInt(pos);
+			byte state = buf.get(pos + 4);
+			if (state == SKIP || length < RECORD_HEAD || length > to - pos || (state != LIVE && state != DEAD))
+				break;
+			QueryKey key = null;
+			Record record = null;
+			if (state == LIVE && buf.getLong(pos + 5) > now)
+				try {
+					ByteBuffer view = buf.duplicate();
+					view.limit(pos + length);
+					view.position(pos + RECORD_HEAD);
+					key = QueryKey.readFrom(view, loader);
+					int tableCount = view.getInt();
+					String[] tables = null;
+					if (tableCount >= 0) {
+						tables = new String[tableCount];
+						for (int i = 0; i < tableCount; i++)
+							tables[i] = (String) BinaryRowCodec.readValue(view);
+					}
+					record = new Record(pos, length, view.position() - pos, buf.getLong(pos + 5), tables);
+				} catch (Exception e) {// NOSONAR class removed or record damaged, treat as dead
+					key = null;
+				}
+			if (key != null) {
+				Record old = index.get(key);
+				if (old != null)
+					kill(key, old);
+				add(key, record);
+			} else
+				records.put(pos, null);
+			pos += length;
+		}
+	}
+
+	private void add(QueryKey key, Record record) {
+		records.put(record.offset, key);
+		index.put(key, record);
+		if (record.tables == null)
+			indexOf(null).add(key);
+		else
+			for (String table : record.tables)
+				indexOf(table).add(key);
+	}
+
+	private Set<QueryKey> indexOf(String table) {
+		Set<QueryKey> keys = tableIndex.get(table);
+		if (keys == null) {
+			keys = new HashSet<QueryKey>();
+			tableIndex.put(table, keys);
+		}
+		return keys;
+	}
+
+	/** Mark a record dead and remove it from index, its space is reused later */
+	private void kill(QueryKey key, Record record) {
+		buf.put(record.offset + 4, DEAD);
+		records.put(record.offset, null);
+		unindex(key, record);
+	}
+
+	private void unindex(QueryKey key, Record record) {
+		index.remove(key);
+		if (record.tables == null)
+			removeIndexed(null, key);
+		else
+			for (String table : record.tables)
+				removeIndexed(table, key);
+	}
+
+	private void removeIndexed(String table, QueryKey key) {
+		Set<QueryKey> keys = tableIndex.get(table);
+		if (keys != null) {
+			keys.remove(key);
+			if (keys.isEmpty())
+				tableIndex.remove(table);
+		}
+	}
+
+	/** Forget records start in given range, their space will be overwritten */
+	private void drop(int from, int to) {
+		Map<Integer, QueryKey> range = records.subMap(from, to);
+		for (Iterator<Entry<Integer, QueryKey>> it = range.entrySet().iterator(); it.hasNext();) {
+			Entry<Integer, QueryKey> entry = it.next();
+			QueryKey key = entry.getValue();
+			if (key != null) {
+				Record record = index.get(key);
+				if (record != null && record.offset == entry.getKey())
+					unindex(key, record);
+			}
+			it.remove();
+		}
+	}
+
+	protected void ________Getters________() {// NOSONAR
+	}
+
+	/** @return How many results stored */
+	public int size() {
+		lock.lock();
+		try {
+			return index.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/** @return The mapped file, null if it's a direct memory store */
+	public File getFile() {
+		return file;
+	}
+
+	/** Position of a stored record */
+	private static final class Record {
+		final int offset;
+		final int length;
+		final int valueStart;
+		final long expireAt;
+		final String[] tables;
+
+		Record(int offset, int length, int valueStart, long expireAt, String[] tables) {
+			this.offset = offset;
+			this.length = length;
+			this.valueStart = valueStart;
+			this.expireAt = expireAt;
+			this.tables = tables;
+		}
+	}
+
+}
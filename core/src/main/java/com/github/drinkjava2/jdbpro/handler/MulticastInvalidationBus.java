@@ -0,0 +1,361 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.github.drinkjava2.jdbpro.DbProException;
+import com.github.drinkjava2.jlogs.Log;
+import com.github.drinkjava2.jlogs.LogFactory;
+
+/**
+ * MulticastInvalidationBus broadcast invalidation messages by UDP multicast,
+ * all nodes use same group address and port. Messages published in
+ * batchMillis are de-duplicated and sent together in as few packets as
+ * possible, if "all tables" is published, other messages in the batch are
+ * dropped. Each node has a random id, packets sent by itself are ignored.
+ *
+ * UDP may lose packets, so a cache should still has a reasonable TTL.
+ *
+ * The channel is NOT authenticated: any host can send packets to the group
+ * port, so only use it in a trusted network. Received data is never Java
+ * deserialized, tables are plain UTF-8 strings and keys only accept scalar
+ * parameters (see BinaryRowCodec.readScalarValue), a key with other parameter
+ * types is not broadcast. Usage:
+ *
+ * <pre>
+ * InvalidationBus bus = new MulticastInvalidationBus("239.255.27.1", 4466);
+ * cache.setInvalidationBus(bus);
+ * </pre>
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class MulticastInvalidationBus implements InvalidationBus {
+	private static final Log logger = LogFactory.getLog(MulticastInvalidationBus.class);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int MAGIC = 0x4A444932; // changed when message format changed
+	private static final int HEADER_SIZE = 16; // magic, node id, message count
+	private static final int MAX_PACKET_SIZE = 8192;
+	private static final byte ALL_TABLES = 0;
+	private static final byte TABLE = 1;
+	private static final byte KEY = 2;
+
+	private final InetAddress group;
+	private final int port;
+	private final long batchMillis;
+	private final MulticastSocket socket;
+	private final long nodeId = new SecureRandom().nextLong();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private final ScheduledExecutorService flusher;
+	private final Thread receiver;
+	private volatile boolean closed = false;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private Set<String> pendingTables = new LinkedHashSet<String>();
+	private Set<QueryKey> pendingKeys = new LinkedHashSet<QueryKey>();
+	private boolean pendingAll = false;
+	private boolean flushScheduled = false;
+
+	private final AtomicLong sentPacketCount = new AtomicLong();
+	private final AtomicLong receivedPacketCount = new AtomicLong();
+
+	/** Create a bus with time-to-live 1 (local network) and 20ms batch */
+	public MulticastInvalidationBus(String groupAddress, int port) {
+		this(groupAddress, port, 1, 20);
+	}
+
+	/**
+	 * @param groupAddress
+	 *            Multicast group address, for example "239.255.27.1"
+	 * @param port
+	 *            UDP port
+	 * @param timeToLive
+	 *            Multicast packets time-to-live
+	 * @param batchMillis
+	 *            Messages published in this time are sent in a batch
+	 */
+	public MulticastInvalidationBus(String groupAddress, int port, int timeToLive, long batchMillis) {
+		this.port = port;
+		this.batchMillis = batchMillis;
+		try {
+			this.group = InetAddress.getByName(groupAddress);
+			if (!group.isMulticastAddress())
+				throw new DbProException(groupAddress + " is not a multicast address");
+			this.socket = new MulticastSocket(port);
+			socket.setTimeToLive(timeToLive);
+			socket.joinGroup(new InetSocketAddress(group, port), (NetworkInterface) null); // null: default interface
+		} catch (IOException e) {
+			throw new DbProException("Fail to join multicast group " + groupAddress + ":" + port, e);
+		}
+		flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "jDbPro-invalidation-sender-" + port);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		receiver = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				receive();
+			}
+		}, "jDbPro-invalidation-receiver-" + port);
+		receiver.setDaemon(true);
+		receiver.start();
+	}
+
+	@Override
+	public void publishTables(String... tables) {
+		if (tables != null && tables.length == 0)
+			return;
+		lock.lock();
+		try {
+			if (tables == null) {
+				pendingAll = true;
+				pendingTables.clear();
+				pendingKeys.clear();
+			} else if (!pendingAll)
+				for (String table : tables)
+					pendingTables.add(table.toLowerCase());
+			scheduleFlush();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void publishKey(QueryKey key) {
+		if (!key.isEncodable())
+			return;
+		lock.lock();
+		try {
+			if (!pendingAll)
+				pendingKeys.add(key.forStore());
+			scheduleFlush();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void scheduleFlush() {
+		if (flushScheduled || closed)
+			return;
+		flushScheduled = true;
+		flusher.schedule(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, batchMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/** Send all pending messages now */
+	public void flush() {
+		Set<String> tables;
+		Set<QueryKey> keys;
+		boolean all;
+		lock.lock();
+		try {
+			tables = pendingTables;
+			keys = pendingKeys;
+			all = pendingAll;
+			pendingTables = new LinkedHashSet<String>();
+			pendingKeys = new LinkedHashSet<QueryKey>();
+			pendingAll = false;
+			flushScheduled = false;
+		} finally {
+			lock.unlock();
+		}
+		try {
+			List<byte[]> messages = new ArrayList<byte[]>();
+			if (!all) {
+				for (String table : tables)
+					messages.add(encode(TABLE, table));
+				for (QueryKey key : keys)
+					messages.add(encode(KEY, key));
+				for (byte[] message : messages)
+					if (message.length > MAX_PACKET_SIZE - HEADER_SIZE)
+						all = true; // too big, invalidate all tables instead
+			}
+			if (all) {
+				messages.clear();
+				messages.add(new byte[] { ALL_TABLES });
+			}
+			send(messages);
+		} catch (IOException e) {
+			logger.warn("Fail to send cache invalidation messages", e);
+		}
+	}
+
+	private static byte[] encode(byte type, Object message) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(bos);
+		out.writeByte(type);
+		if (type == TABLE) {
+			byte[] bytes = ((String) message).getBytes(UTF8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		} else
+			((QueryKey) message).writeTo(out);
+		out.flush();
+		return bos.toByteArray();
+	}
+
+	private void send(List<byte[]> messages) throws IOException {
+		ByteBuffer packet = ByteBuffer.allocate(MAX_PACKET_SIZE);
+		int count = 0;
+		for (byte[] message : messages) {
+			if (count > 0 && packet.remaining() < message.length) {
+				sendPacket(packet, count);
+				count = 0;
+			}
+			if (count == 0) {
+				packet.clear();
+				packet.putInt(MAGIC).putLong(nodeId).putInt(0);
+			}
+			packet.put(message);
+			count++;
+		}
+		if (count > 0)
+			sendPacket(packet, count);
+	}
+
+	private void sendPacket(ByteBuffer packet, int count) throws IOException {
+		packet.putInt(12, count);
+		socket.send(new DatagramPacket(packet.array(), packet.position(), group, port));
+		sentPacketCount.incrementAndGet();
+	}
+
+	private void receive() {
+		byte[] buffer = new byte[65536];
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		if (loader == null)
+			loader = MulticastInvalidationBus.class.getClassLoader();
+		while (!closed) {
+			DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+			try {
+				socket.receive(packet);
+				ByteBuffer buf = ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength());
+				if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC || buf.getLong() == nodeId)
+					continue;
+				receivedPacketCount.incrementAndGet();
+				dispatch(buf, buf.getInt(), loader);
+			} catch (IOException e) {
+				if (!closed)
+					logger.warn("Fail to receive cache invalidation messages", e);
+			} catch (RuntimeException e) {// NOSONAR a damaged packet or a listener error
+				logger.warn("Fail to handle cache invalidation messages", e);
+			}
+		}
+	}
+
+	private void dispatch(ByteBuffer buf, int count, ClassLoader loader) {
+		List<String> tables = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			byte type = buf.get();
+			if (type == ALL_TABLES) {
+				for (Listener listener : listeners)
+					listener.onTablesInvalidated(null);
+				return;
+			} else if (type == TABLE)
+				tables.add(readTable(buf));
+			else if (type == KEY) {
+				try {
+					QueryKey key = QueryKey.readFrom(buf, loader);
+					for (Listener listener : listeners)
+						listener.onKeyInvalidated(key);
+				} catch (ClassNotFoundException e) {// NOSONAR no such query in this node
+				}
+			} else
+				throw new DbProException("Unknown invalidation message type " + type);
+		}
+		if (!tables.isEmpty()) {
+			String[] array = tables.toArray(new String[tables.size()]);
+			for (Listener listener : listeners)
+				listener.onTablesInvalidated(array);
+		}
+	}
+
+	private static String readTable(ByteBuffer buf) {
+		int length = buf.getInt();
+		if (length < 0 || length > buf.remaining())
+			throw new DbProException("Wrong table name length " + length);
+		byte[] bytes = new byte[length];
+		buf.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	@Override
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/** Send pending messages, then leave the group and stop threads */
+	@Override
+	public void close() {
+		if (closed)
+			return;
+		flush();
+		closed = true;
+		flusher.shutdownNow();
+		try {
+			socket.leaveGroup(new InetSocketAddress(group, port), (NetworkInterface) null);
+		} catch (IOException e) {// NOSONAR
+		}
+		socket.close();
+	}
+
+	protected void ________Getters________() {// NOSONAR
+	}
+
+	public long getNodeId() {
+		return nodeId;
+	}
+
+	public long getSentPacketCount() {
+		return sentPacketCount.get();
+	}
+
+	/** @return How many packets received from other nodes */
+	public long getReceivedPacketCount() {
+		return receivedPacketCount.get();
+	}
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import com.github.drinkjava2.jdbpro.DbProException;
+
+/**
+ * QuantileAggregator compute approximate quantiles of a numeric column by a
+ * multi-level compactor sketch (the idea of KLL sketch), memory use is about k
+ * * log2(rows / k) doubles, rank error is about 1/k * log2(rows / k). Null
+ * values are ignored. Result is a double[] stored the quantile values in same
+ * order as given quantiles, if no value found result items are NaN. Usage:
+ *
+ * <pre>
+ * double[] p = db.iQuery(new QuantileAggregator("cost", 0.5, 0.9, 0.99), "select cost from orders");
+ * </pre>
+ *
+ * Sketches can be merged by merge() method, then call quantile().
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class QuantileAggregator extends RowAggregator<double[]> {
+	private final String column;
+	private final double[] quantiles;
+	private final int k;
+	private final Random random = new Random(0x5DEECE66DL);
+
+	private int columnIndex;
+	private List<double[]> levels; // each level is a compactor buffer, item weight is 2^level
+	private int[] sizes;
+
+	public QuantileAggregator(String column, double... quantiles) {
+		this(200, column, quantiles);
+	}
+
+	/**
+	 * @param k
+	 *            Buffer size of each level, bigger k more accurate
+	 * @param column
+	 *            The numeric column label
+	 * @param quantiles
+	 *            Quantiles between 0 and 1
+	 */
+	public QuantileAggregator(int k, String column, double... quantiles) {
+		if (k < 8)
+			throw new DbProException("QuantileAggregator's k should not less than 8");
+		if (quantiles == null || quantiles.length == 0)
+			throw new DbProException("QuantileAggregator need at least 1 quantile");
+		for (double q : quantiles)
+			if (q < 0 || q > 1)
+				throw new DbProException("Quantile should between 0 and 1, but found " + q);
+		this.k = k + (k & 1); // even size
+		this.column = column;
+		this.quantiles = quantiles.clone();
+		reset();
+	}
+
+	private void reset() {
+		levels = new ArrayList<double[]>();
+		sizes = new int[0];
+	}
+
+	@Override
+	public void start(ResultSetMetaData meta) throws SQLException {
+		columnIndex = findColumn(meta, column);
+		reset();
+	}
+
+	@Override
+	public void accept(ResultSet rs) throws SQLException {
+		double value = rs.getDouble(columnIndex);
+		if (!rs.wasNull())
+			offer(value);
+	}
+
+	/** Add a value into sketch directly */
+	public void offer(double value) {
+		add(0, value);
+	}
+
+	private void add(int level, double value) {
+		if (level == levels.size()) {
+			levels.add(new double[k]);
+			sizes = Arrays.copyOf(sizes, level + 1);
+		}
+		levels.get(level)[sizes[level]++] = value;
+		if (sizes[level] == k)
+			compact(level);
+	}
+
+	/** Sort a full level, move every other item to upper level */
+	private void compact(int level) {
+		double[] buf = levels.get(level);
+		Arrays.sort(buf, 0, k);
+		sizes[level] = 0;
+		for (int i = random.nextBoolean() ? 1 : 0; i < k; i += 2)
+			add(level + 1, buf[i]);
+	}
+
+	/** Merge another sketch into this sketch */
+	public void merge(QuantileAggregator other) {
+		for (int level = 0; level < other.levels.size(); level++) {
+			double[] buf = other.levels.get(level);
+			for (int i = 0; i < other.sizes[level]; i++)
+				add(level, buf[i]);
+		}
+	}
+
+	/** @return Approximate value of given quantile, NaN if sketch is empty */
+	public double quantile(double q) {
+		return quantiles(new double[] { q })[0];
+	}
+
+	private double[] quantiles(double[] qs) {
+		int count = 0;
+		for (int size : sizes)
+			count += size;
+		double[] result = new double[qs.length];
+		if (count == 0) {
+			Arrays.fill(result, Double.NaN);
+			return result;
+		}
+		final double[] values = new double[count];
+		long[] weights = new long[count];
+		Integer[] order = new Integer[count];
+		long total = 0;
+		int n = 0;
+		for (int level = 0; level < sizes.length; level++)
+			for (int i = 0; i < sizes[level]; i++) {
+				values[n] = levels.get(level)[i];
+				weights[n] = 1L << level;
+				total += weights[n];
+				order[n] = n;
+				n++;
+			}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(values[a], values[b]);
+			}
+		});
+		for (int j = 0; j < qs.length; j++) {
+			double target = qs[j] * total;
+			long cumulative = 0;
+			result[j] = values[order[count - 1]];
+			for (int i = 0; i < count; i++) {
+				cumulative += weights[order[i]];
+				if (cumulative >= target) {
+					result[j] = values[order[i]];
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	@Override
+	protected double[] computeResult() {
+		return quantiles(quantiles);
+	}
+
+}
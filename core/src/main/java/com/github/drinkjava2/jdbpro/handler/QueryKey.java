@@ -0,0 +1,324 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.dbutils.BasicRowProcessor;
+import org.apache.commons.dbutils.ResultSetHandler;
+import org.apache.commons.dbutils.handlers.MapListHandler;
+
+import com.github.drinkjava2.jdbpro.DbProException;
+import com.github.drinkjava2.jdbpro.PreparedSQL;
+
+/**
+ * QueryKey is a structural cache key of a query, composed by SQL,
+ * ResultSetHandler class, ResultSetHandler configuration and parameters. Hash
+ * code is computed once without building any String (String caches its own
+ * hash code, so a same SQL String instance is hashed only once in its life).
+ *
+ * ResultSetHandler configuration is the values of its instance fields, so
+ * new BeanListHandler(A.class) and new BeanListHandler(B.class) have different
+ * keys. Scalar values, Class names, enum names and DbUtils' default
+ * RowProcessor are compared by value, other values (a custom RowProcessor,
+ * objects captured by an anonymous class...) are compared by identity.
+ *
+ * Parameters are compared by type and value: Integer 1 and Long 1 are
+ * different, ("1","23") and ("12","3") are different, arrays are compared by
+ * content.
+ *
+ * A key created by of() method only references the parameters array of the
+ * PreparedSQL, it's used for lookup, call forStore() to get a key which has
+ * its own copy of parameters array before store it in a cache.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public final class QueryKey {
+	private static final Object[] EMPTY = new Object[0];
+
+	private static final String DEFAULT_ROW_PROCESSOR = "DefaultRowProcessor";
+	private static final Field[] NOT_READABLE = new Field[0];
+
+	/** Instance fields of ResultSetHandler classes, NOT_READABLE if failed */
+	private static final ConcurrentHashMap<Class<?>, Field[]> handlerFields = new ConcurrentHashMap<Class<?>, Field[]>();
+
+	/** RowProcessor instances DbUtils handlers use by default */
+	private static final Object[] defaultRowProcessors = { BasicRowProcessor.instance(),
+			readField(new MapListHandler(), "convert") };
+
+	private final String sql;
+	private final Class<?> handlerClass;
+	private final Object[] handlerConfig;
+	private final Object[] params;
+	private final int hash;
+	private final boolean copied;
+
+	private QueryKey(String sql, Class<?> handlerClass, Object[] handlerConfig, Object[] params, int hash,
+			boolean copied) {
+		this.sql = sql;
+		this.handlerClass = handlerClass;
+		this.handlerConfig = handlerConfig;
+		this.params = params;
+		this.hash = hash;
+		this.copied = copied;
+	}
+
+	/** Create a key which has its own copy of parameters */
+	public QueryKey(String sql, ResultSetHandler<?> handler, Object... params) {
+		this(sql, handler == null ? null : handler.getClass(), configOf(handler),
+				params == null || params.length == 0 ? EMPTY : params.clone(), true);
+	}
+
+	private QueryKey(String sql, Class<?> handlerClass, Object[] handlerConfig, Object[] params, boolean copied) {
+		this(sql, handlerClass, handlerConfig, params, hashOf(sql, handlerClass, handlerConfig, params), copied);
+	}
+
+	/** Create a lookup key of a PreparedSQL, parameters array is not copied */
+	public static QueryKey of(PreparedSQL ps) {
+		Object[] params = ps.getParams() == null ? EMPTY : ps.getParams();
+		ResultSetHandler<?> handler = ps.getResultSetHandler();
+		return new QueryKey(ps.getSql(), handler == null ? null : handler.getClass(), configOf(handler), params,
+				false);
+	}
+
+	/** Return a key safe to be stored, i.e. has its own parameters array */
+	public QueryKey forStore() {
+		if (copied)
+			return this;
+		return new QueryKey(sql, handlerClass, handlerConfig, params.length == 0 ? EMPTY : params.clone(), hash,
+				true);
+	}
+
+	/** Return values of instance fields of a ResultSetHandler, see class doc */
+	private static Object[] configOf(ResultSetHandler<?> handler) {
+		if (handler == null)
+			return EMPTY;
+		Field[] fields = fieldsOf(handler.getClass());
+		if (fields == NOT_READABLE)
+			return new Object[] { new Identity(handler) };
+		if (fields.length == 0)
+			return EMPTY;
+		Object[] config = new Object[fields.length];
+		try {
+			for (int i = 0; i < fields.length; i++)
+				config[i] = configValue(fields[i].get(handler));
+		} catch (IllegalAccessException e) {// NOSONAR never happen, fields are accessible
+			return new Object[] { new Identity(handler) };
+		}
+		return config;
+	}
+
+	private static Object configValue(Object value) {
+		if (BinaryRowCodec.isScalar(value))
+			return value;
+		if (value instanceof Class)
+			return ((Class<?>) value).getName();
+		if (value instanceof Enum)
+			return ((Enum<?>) value).name();
+		for (Object processor : defaultRowProcessors)
+			if (value == processor)
+				return DEFAULT_ROW_PROCESSOR;
+		return new Identity(value);
+	}
+
+	private static Field[] fieldsOf(Class<?> handlerClass) {
+		Field[] fields = handlerFields.get(handlerClass);
+		if (fields == null) {
+			List<Field> list = new ArrayList<Field>();
+			try {
+				for (Class<?> c = handlerClass; c != null && c != Object.class; c = c.getSuperclass())
+					for (Field field : c.getDeclaredFields())
+						if (!Modifier.isStatic(field.getModifiers())) {// include fields captured by inner class
+							field.setAccessible(true);
+							list.add(field);
+						}
+				fields = list.toArray(new Field[list.size()]);
+			} catch (RuntimeException e) {// NOSONAR e.g. not accessible in a module
+				fields = NOT_READABLE;
+			}
+			handlerFields.put(handlerClass, fields);
+		}
+		return fields;
+	}
+
+	private static Object readField(Object obj, String name) {
+		try {
+			Field field = obj.getClass().getDeclaredField(name);
+			field.setAccessible(true);
+			return field.get(obj);
+		} catch (Exception e) {// NOSONAR then this processor is compared by identity
+			return null;
+		}
+	}
+
+	/** Wrap a value compared by identity, it can not be encoded */
+	private static final class Identity {
+		private final Object value;
+
+		Identity(Object value) {
+			this.value = value;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(value);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Identity && ((Identity) obj).value == value;
+		}
+	}
+
+	private static int hashOf(String sql, Class<?> handlerClass, Object[] handlerConfig, Object[] params) {
+		int h = sql == null ? 0 : sql.hashCode();
+		h = 31 * h + (handlerClass == null ? 0 : handlerClass.hashCode());
+		for (Object value : handlerConfig)
+			h = 31 * h + paramHash(value);
+		if (params != null)
+			for (Object param : params)
+				h = 31 * h + paramHash(param);
+		return h;
+	}
+
+	private static int paramHash(Object param) {
+		if (param == null)
+			return 0;
+		Class<?> type = param.getClass();
+		if (!type.isArray())
+			return type.hashCode() * 17 + param.hashCode();
+		if (param instanceof Object[])
+			return Arrays.deepHashCode((Object[]) param);
+		return Arrays.deepHashCode(new Object[] { param });
+	}
+
+	private static boolean paramEquals(Object a, Object b) {
+		if (a == b)
+			return true;
+		if (a == null || b == null || a.getClass() != b.getClass())
+			return false;
+		if (!a.getClass().isArray())
+			return a.equals(b);
+		return Arrays.deepEquals(new Object[] { a }, new Object[] { b });
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof QueryKey))
+			return false;
+		QueryKey other = (QueryKey) obj;
+		if (hash != other.hash || handlerClass != other.handlerClass || params.length != other.params.length
+				|| handlerConfig.length != other.handlerConfig.length)
+			return false;
+		if (sql != other.sql && (sql == null || !sql.equals(other.sql))) // NOSONAR
+			return false;
+		for (int i = 0; i < handlerConfig.length; i++)
+			if (!paramEquals(handlerConfig[i], other.handlerConfig[i]))
+				return false;
+		for (int i = 0; i < params.length; i++)
+			if (!paramEquals(params[i], other.params[i]))
+				return false;
+		return true;
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+	public Class<?> getHandlerClass() {
+		return handlerClass;
+	}
+
+	/**
+	 * Check if this key can be written by writeTo() and read back by readFrom(),
+	 * i.e. all parameters and handler configuration are scalar values of
+	 * BinaryRowCodec
+	 */
+	boolean isEncodable() {
+		for (Object value : handlerConfig)
+			if (!BinaryRowCodec.isScalar(value))
+				return false;
+		for (Object param : params)
+			if (!BinaryRowCodec.isScalar(param))
+				return false;
+		return true;
+	}
+
+	/** Write this key in BinaryRowCodec format */
+	void writeTo(DataOutput out) throws IOException {
+		BinaryRowCodec.writeValue(out, sql);
+		BinaryRowCodec.writeValue(out, handlerClass == null ? null : handlerClass.getName());
+		out.writeInt(handlerConfig.length);
+		BinaryRowCodec.writeRow(out, handlerConfig);
+		out.writeInt(params.length);
+		BinaryRowCodec.writeRow(out, params);
+	}
+
+	/**
+	 * Read a key written by writeTo(), only scalar values are accepted because
+	 * data may come from network, handler class is loaded (not initialized) by
+	 * given loader
+	 */
+	static QueryKey readFrom(ByteBuffer buf, ClassLoader loader) throws ClassNotFoundException {
+		Object sql = BinaryRowCodec.readScalarValue(buf);
+		Object className = BinaryRowCodec.readScalarValue(buf);
+		if ((sql != null && !(sql instanceof String)) || (className != null && !(className instanceof String)))
+			throw new DbProException("Wrong QueryKey data, SQL and handler class name should be String");
+		Object[] handlerConfig = readScalars(buf);
+		Object[] params = readScalars(buf);
+		Class<?> handlerClass = className == null ? null : Class.forName((String) className, false, loader);
+		return new QueryKey((String) sql, handlerClass, handlerConfig.length == 0 ? EMPTY : handlerConfig,
+				params.length == 0 ? EMPTY : params, true);
+	}
+
+	private static Object[] readScalars(ByteBuffer buf) {
+		int count = buf.getInt();
+		if (count < 0 || count > buf.remaining())
+			throw new DbProException("Wrong QueryKey data, value count is " + count);
+		Object[] values = new Object[count];
+		for (int i = 0; i < count; i++)
+			values[i] = BinaryRowCodec.readScalarValue(buf);
+		return values;
+	}
+
+	/** Roughly estimate heap bytes of this key */
+	long estimateSize() {
+		long size = 48 + 16 + 8L * params.length + BinaryRowCodec.estimateHeapSize(sql);
+		for (Object value : handlerConfig)
+			size += 8 + BinaryRowCodec.estimateHeapSize(value);
+		for (Object param : params)
+			size += BinaryRowCodec.estimateHeapSize(param);
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return "QueryKey[" + sql + ", " + Arrays.deepToString(params) + "]";
+	}
+
+}
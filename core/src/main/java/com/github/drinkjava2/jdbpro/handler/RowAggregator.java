@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import org.apache.commons.dbutils.ResultSetHandler;
+
+import com.github.drinkjava2.jdbpro.DbProException;
+
+/**
+ * RowAggregator is a ResultSetHandler which compute an aggregation result in a
+ * single pass over the ResultSet without materializing rows. It can be used
+ * alone as a ResultSetHandler, or be combined with other aggregators by
+ * {@link AggregateHandler} to compute multiple aggregations in one pass.
+ *
+ * A RowAggregator keeps aggregation state, it's not thread safe, use one
+ * instance for one query.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public abstract class RowAggregator<T> implements ResultSetHandler<T> {
+	private T result;
+
+	/** Reset state and prepare to aggregate a new ResultSet */
+	public abstract void start(ResultSetMetaData meta) throws SQLException;
+
+	/** Accumulate the current row of ResultSet */
+	public abstract void accept(ResultSet rs) throws SQLException;
+
+	/** Compute the aggregation result of accepted rows */
+	protected abstract T computeResult();
+
+	/** Finish aggregation, the result can also be get by getResult() method later */
+	public T finish() {
+		result = computeResult();
+		return result;
+	}
+
+	/** @return The result of last finished aggregation */
+	public T getResult() {
+		return result;
+	}
+
+	@Override
+	public T handle(ResultSet rs) throws SQLException {
+		start(rs.getMetaData());
+		while (rs.next())
+			accept(rs);
+		return finish();
+	}
+
+	/** Find the column index (start from 1) by column label, case insensitive */
+	protected static int findColumn(ResultSetMetaData meta, String columnLabel) throws SQLException {
+		int cols = meta.getColumnCount();
+		for (int i = 1; i <= cols; i++) {
+			String columnName = meta.getColumnLabel(i);
+			if (null == columnName || 0 == columnName.length())
+				columnName = meta.getColumnName(i);
+			if (columnLabel.equalsIgnoreCase(columnName))
+				return i;
+		}
+		throw new DbProException("Column '" + columnLabel + "' not found in ResultSet");
+	}
+
+	/** Compare 2 values, numbers are compared by their values */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected static int compareValues(Object a, Object b) {
+		if (a instanceof Number && b instanceof Number && a.getClass() != b.getClass())
+			return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+		return ((Comparable) a).compareTo(b);
+	}
+
+}
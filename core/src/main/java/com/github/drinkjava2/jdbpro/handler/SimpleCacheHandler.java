@@ -28,7 +28,7 @@ import com.github.drinkjava2.jdbpro.PreparedSQL;
 public class SimpleCacheHandler extends DefaultOrderSqlHandler {
 
 	/** A simple thread-safe LRU Cache with 500 items capacity */
-	private Map<String, Object> cache;
+	private Map<Object, Object> cache;
 
 	private int aliveSeconds = 1000;
 	private int capacity = 500;
@@ -67,29 +67,20 @@ public class SimpleCacheHandler extends DefaultOrderSqlHandler {
 		cache.clear();
 	}
 
-	private String createKey(PreparedSQL ps) {
-		StringBuilder sb = new StringBuilder(Long.toString(System.currentTimeMillis() / 1000 / aliveSeconds))
-				.append("SQL:").append(ps.getSql()).append("  Params:");
-		Object[] params = ps.getParams();
-		if (params != null)
-			for (Object para : params)
-				sb.append(para);
-		return sb.toString();
-	}
-
 	@Override
 	public Object handle(ImprovedQueryRunner runner, PreparedSQL ps) {
-		String key = createKey(ps);
-		Object result = cache.get(key);
-		if (result != null)
-			return ((Object[]) result)[1];
-		result = runner.runPreparedSQL(ps);
-		cache.put(key, new Object[] { null, result });
+		QueryKey key = QueryKey.of(ps);
+		long timeBucket = System.currentTimeMillis() / 1000 / aliveSeconds;
+		Object[] entry = (Object[]) cache.get(key);
+		if (entry != null && ((Long) entry[0]) == timeBucket)
+			return entry[1];
+		Object result = runner.runPreparedSQL(ps);
+		cache.put(key.forStore(), new Object[] { timeBucket, result }); // entry is {timeBucket, result}
 		return result;
 	}
 
 	@SuppressWarnings("serial")
-	public static class LRULinkedHashMap extends LinkedHashMap<String, Object> {// NOSONAR
+	public static class LRULinkedHashMap extends LinkedHashMap<Object, Object> {// NOSONAR
 		private int capacity;
 
 		LRULinkedHashMap(int capacity) {
@@ -98,7 +89,7 @@ public class SimpleCacheHandler extends DefaultOrderSqlHandler {
 		}
 
 		@Override
-		public boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+		public boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
 			return size() > capacity;
 		}
 	}
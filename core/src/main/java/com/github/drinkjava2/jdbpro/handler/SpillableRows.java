@@ -0,0 +1,275 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.github.drinkjava2.jdbpro.DbProException;
+
+/**
+ * SpillableRows is the result of {@link SpillableRowsHandler}, it's a read-only
+ * indexed list of rows (Object[]). Rows are kept on heap until their estimated
+ * size exceed a threshold, then all rows are moved into a temp data file (in
+ * {@link BinaryRowCodec} format) and a temp index file, both files are
+ * memory-mapped when read.
+ *
+ * Reading is thread safe, rows are decoded when read, so each get() call return
+ * a new Object[]. Call close() to release mapped buffers and delete temp files.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class SpillableRows implements Iterable<Object[]>, Closeable {
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT; // 1G per mapped segment
+
+	private final String[] columnLabels;
+	private final long heapThreshold;
+	private final File tempDir;
+
+	private List<Object[]> heapRows = new ArrayList<Object[]>();
+	private long heapBytes = 0;
+	private int size = 0;
+
+	private File dataFile;
+	private File indexFile;
+	private DataOutputStream dataOut;
+	private DataOutputStream indexOut;
+	private CountingOutputStream dataCounter;
+
+	private MappedByteBuffer[] dataSegments;
+	private MappedByteBuffer[] indexSegments;
+	private boolean spilled = false;
+	private volatile boolean closed = false;
+
+	SpillableRows(String[] columnLabels, long heapThreshold, File tempDir) {
+		this.columnLabels = columnLabels;
+		this.heapThreshold = heapThreshold;
+		this.tempDir = tempDir;
+	}
+
+	void add(Object[] row) throws IOException {
+		if (!spilled) {
+			heapRows.add(row);
+			heapBytes += BinaryRowCodec.estimateHeapSize(row);
+			if (heapBytes > heapThreshold)
+				spill();
+		} else
+			writeToFile(row);
+		size++;
+	}
+
+	private void spill() throws IOException {
+		dataFile = File.createTempFile("jdbpro_rows", ".dat", tempDir);
+		indexFile = File.createTempFile("jdbpro_rows", ".idx", tempDir);
+		dataCounter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile), 65536));
+		dataOut = new DataOutputStream(dataCounter);
+		indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 8192));
+		List<Object[]> rows = heapRows;
+		heapRows = null;
+		spilled = true;
+		heapBytes = 0;
+		for (Object[] row : rows)
+			writeToFile(row);
+	}
+
+	private void writeToFile(Object[] row) throws IOException {
+		indexOut.writeLong(dataCounter.count);
+		BinaryRowCodec.writeRow(dataOut, row);
+	}
+
+	/** Called by handler after last row added, map files if spilled */
+	void finish() throws IOException {
+		if (!spilled)
+			return;
+		dataOut.close();
+		indexOut.writeLong(dataCounter.count);
+		indexOut.close();
+		dataSegments = map(dataFile);
+		indexSegments = map(indexFile);
+	}
+
+	private static MappedByteBuffer[] map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long length = channel.size();
+			int count = (int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+			MappedByteBuffer[] segments = new MappedByteBuffer[count];
+			for (int i = 0; i < count; i++) {
+				long start = i * SEGMENT_SIZE;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, length - start));
+			}
+			return segments;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/** @return Row count */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/** @return true if rows are moved to temp file */
+	public boolean isSpilled() {
+		return spilled;
+	}
+
+	/** @return Column labels */
+	public String[] getColumnLabels() {
+		return columnLabels.clone();
+	}
+
+	/** @return Column index (start from 0) of given column label, -1 if not found */
+	public int getColumnIndex(String columnLabel) {
+		for (int i = 0; i < columnLabels.length; i++)
+			if (columnLabels[i].equalsIgnoreCase(columnLabel))
+				return i;
+		return -1;
+	}
+
+	/** Get a row by row index (start from 0) */
+	public Object[] get(int index) {
+		if (closed)
+			throw new DbProException("SpillableRows already closed");
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		if (!spilled)
+			return heapRows.get(index).clone();
+		long start = readOffset(index);
+		long end = readOffset(index + 1);
+		return BinaryRowCodec.readRow(slice(start, (int) (end - start)), columnLabels.length);
+	}
+
+	private long readOffset(int index) {
+		long pos = 8L * index;
+		return indexSegments[(int) (pos >>> SEGMENT_SHIFT)].getLong((int) (pos & (SEGMENT_SIZE - 1)));
+	}
+
+	/** Return a ByteBuffer positioned at start, copy bytes if cross segments */
+	private ByteBuffer slice(long start, int length) {
+		int seg = (int) (start >>> SEGMENT_SHIFT);
+		int pos = (int) (start & (SEGMENT_SIZE - 1));
+		ByteBuffer buf = dataSegments[seg].duplicate();
+		if (pos + length <= buf.limit()) {
+			buf.position(pos);
+			return buf;
+		}
+		byte[] bytes = new byte[length];
+		int copied = 0;
+		while (copied < length) {
+			buf.position(pos);
+			int n = Math.min(buf.remaining(), length - copied);
+			buf.get(bytes, copied, n);
+			copied += n;
+			buf = (++seg < dataSegments.length) ? dataSegments[seg].duplicate() : null;
+			pos = 0;
+		}
+		return ByteBuffer.wrap(bytes);
+	}
+
+	@Override
+	public Iterator<Object[]> iterator() {
+		return new Iterator<Object[]>() {
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			@Override
+			public Object[] next() {
+				if (next >= size)
+					throw new NoSuchElementException();
+				return get(next++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("SpillableRows is read-only");
+			}
+		};
+	}
+
+	/** Release memory and delete temp files, can call it multiple times */
+	@Override
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		heapRows = null;
+		dataSegments = null;
+		indexSegments = null;
+		closeQuietly(dataOut);
+		closeQuietly(indexOut);
+		deleteFile(dataFile);
+		deleteFile(indexFile);
+	}
+
+	private static void closeQuietly(Closeable c) {
+		if (c != null)
+			try {
+				c.close();
+			} catch (IOException e) {// NOSONAR
+				// Do nothing
+			}
+	}
+
+	/** Count written bytes by long, DataOutputStream's int counter may overflow */
+	private static class CountingOutputStream extends FilterOutputStream {
+		long count = 0;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	/** On some OS a mapped file can not be deleted until it be unmapped by GC */
+	private static void deleteFile(File file) {
+		if (file != null && file.exists() && !file.delete())
+			file.deleteOnExit();
+	}
+
+}
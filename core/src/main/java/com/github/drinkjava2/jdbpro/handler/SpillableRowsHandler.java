@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import org.apache.commons.dbutils.ResultSetHandler;
+
+import com.github.drinkjava2.jdbpro.DbProException;
+
+/**
+ * SpillableRowsHandler buffer whole ResultSet into a {@link SpillableRows},
+ * rows are kept on heap until their estimated size exceed heapThreshold bytes,
+ * then rows are spilled into a memory-mapped temp file, so heap memory use is
+ * bounded no matter how big the result is, and result still can be randomly
+ * accessed and scanned many times. Blob and Clob values are read into byte[]
+ * and String, values neither scalar nor Serializable are stored as their
+ * toString() value, both for rows kept on heap and spilled rows. Usage:
+ *
+ * <pre>
+ * SpillableRows rows = db.iQuery(new SpillableRowsHandler(), "select * from big_table");
+ * try {
+ * 	for (Object[] row : rows) {
+ * 		...
+ * 	}
+ * } finally {
+ * 	rows.close(); // delete temp file
+ * }
+ * </pre>
+ *
+ * This handler is stateless and thread safe.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class SpillableRowsHandler implements ResultSetHandler<SpillableRows> {
+	public static final long DEFAULT_HEAP_THRESHOLD = 64L * 1024 * 1024;
+
+	private final long heapThreshold;
+	private final File tempDir;
+
+	/** Use 64M heap threshold and system default temp folder */
+	public SpillableRowsHandler() {
+		this(DEFAULT_HEAP_THRESHOLD, null);
+	}
+
+	public SpillableRowsHandler(long heapThreshold) {
+		this(heapThreshold, null);
+	}
+
+	/**
+	 * @param heapThreshold
+	 *            Max estimated bytes of rows kept on heap
+	 * @param tempDir
+	 *            Folder to create temp files, null means system default temp
+	 *            folder
+	 */
+	public SpillableRowsHandler(long heapThreshold, File tempDir) {
+		this.heapThreshold = heapThreshold;
+		this.tempDir = tempDir;
+	}
+
+	@Override
+	public SpillableRows handle(ResultSet rs) throws SQLException {
+		ResultSetMetaData meta = rs.getMetaData();
+		int cols = meta.getColumnCount();
+		String[] labels = new String[cols];
+		for (int i = 1; i <= cols; i++) {
+			String columnName = meta.getColumnLabel(i);
+			if (null == columnName || 0 == columnName.length())
+				columnName = meta.getColumnName(i);
+			labels[i - 1] = columnName;
+		}
+		SpillableRows rows = new SpillableRows(labels, heapThreshold, tempDir);
+		boolean success = false;
+		try {
+			while (rs.next()) {
+				Object[] row = new Object[cols];
+				for (int i = 0; i < cols; i++)
+					row[i] = BinaryRowCodec.normalize(rs.getObject(i + 1)); // same types no matter spilled or not
+				rows.add(row);
+			}
+			rows.finish();
+			success = true;
+		} catch (IOException e) {
+			throw new DbProException("Fail to read LOB or spill rows into temp file", e);
+		} finally {
+			if (!success)
+				rows.close();
+		}
+		return rows;
+	}
+
+	public long getHeapThreshold() {
+		return heapThreshold;
+	}
+
+	public File getTempDir() {
+		return tempDir;
+	}
+
+}
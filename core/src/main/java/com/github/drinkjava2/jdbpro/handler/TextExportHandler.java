@@ -0,0 +1,215 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Base64;
+
+import org.apache.commons.dbutils.ResultSetHandler;
+
+import com.github.drinkjava2.jdbpro.DbProException;
+
+/**
+ * TextExportHandler is the base class of ResultSetHandlers which write rows
+ * directly to a Writer / OutputStream / WritableByteChannel while iterating the
+ * ResultSet, rows are never materialized, so memory use is constant no matter
+ * how big the result is. The handle method returns the number of exported rows.
+ *
+ * All text goes through one reusable char buffer, so no object is created per
+ * row except the column values created by JDBC driver. The target is flushed
+ * but not closed after export.
+ *
+ * Note: an export handler instance holds its target and buffer, it's not thread
+ * safe, use one instance for one export.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public abstract class TextExportHandler implements ResultSetHandler<Long> {
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Column kinds, decided once by column type before iterating rows */
+	protected static final int KIND_TEXT = 0;
+	protected static final int KIND_NUMBER = 1;
+	protected static final int KIND_BOOLEAN = 2;
+	protected static final int KIND_BINARY = 3;
+
+	private final Writer writer;
+	private final char[] buf;
+	private int pos = 0;
+
+	/** If true, output column titles (if the format has title row) */
+	protected boolean includeHeader = true;
+
+	protected TextExportHandler(Writer writer, int bufferSize) {
+		DbProException.assertNotNull(writer, "Export target can not be null");
+		this.writer = writer;
+		this.buf = new char[bufferSize < 16 ? 16 : bufferSize];
+	}
+
+	protected TextExportHandler(OutputStream out, Charset charset, int bufferSize) {
+		this(new OutputStreamWriter(nullCheck(out), charset.newEncoder()), bufferSize);
+	}
+
+	protected TextExportHandler(WritableByteChannel channel, Charset charset, int bufferSize) {
+		this(Channels.newWriter(nullCheck(channel), charset.newEncoder(), bufferSize), bufferSize);
+	}
+
+	private static <T> T nullCheck(T target) {
+		DbProException.assertNotNull(target, "Export target can not be null");
+		return target;
+	}
+
+	@Override
+	public Long handle(ResultSet rs) throws SQLException {
+		ResultSetMetaData meta = rs.getMetaData();
+		int cols = meta.getColumnCount();
+		String[] titles = new String[cols];
+		int[] kinds = new int[cols];
+		for (int i = 1; i <= cols; i++) {
+			String columnName = meta.getColumnLabel(i);
+			if (null == columnName || 0 == columnName.length())
+				columnName = meta.getColumnName(i);
+			titles[i - 1] = columnName;
+			kinds[i - 1] = kindOf(meta.getColumnType(i));
+		}
+		long rows = 0;
+		try {
+			pos = 0;
+			beforeRows(titles);
+			while (rs.next()) {
+				writeRow(rs, kinds);
+				rows++;
+			}
+			afterRows();
+			flushBuffer();
+			writer.flush();
+		} catch (IOException e) {
+			throw new DbProException("Export failed at row " + rows, e);
+		}
+		return rows;
+	}
+
+	/** Called once before first row, usually used to write title row */
+	protected abstract void beforeRows(String[] titles) throws IOException;
+
+	/** Write current row of ResultSet, kinds are column kinds */
+	protected abstract void writeRow(ResultSet rs, int[] kinds) throws SQLException, IOException;
+
+	/** Called once after last row */
+	protected void afterRows() throws IOException {// NOSONAR
+	}
+
+	/**
+	 * Read column value as text, null value return null, binary column be encoded
+	 * as Base64 String
+	 */
+	protected String getText(ResultSet rs, int col, int kind) throws SQLException {
+		switch (kind) {
+		case KIND_BOOLEAN: {
+			boolean b = rs.getBoolean(col);
+			return rs.wasNull() ? null : (b ? "true" : "false");
+		}
+		case KIND_BINARY: {
+			byte[] bytes = rs.getBytes(col);
+			return bytes == null ? null : Base64.getEncoder().encodeToString(bytes);
+		}
+		default:
+			return rs.getString(col);
+		}
+	}
+
+	protected static int kindOf(int sqlType) {
+		switch (sqlType) {
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+		case Types.BIGINT:
+		case Types.REAL:
+		case Types.FLOAT:
+		case Types.DOUBLE:
+		case Types.NUMERIC:
+		case Types.DECIMAL:
+			return KIND_NUMBER;
+		case Types.BIT:
+		case Types.BOOLEAN:
+			return KIND_BOOLEAN;
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+		case Types.BLOB:
+			return KIND_BINARY;
+		default:
+			return KIND_TEXT;
+		}
+	}
+
+	protected void write(char c) throws IOException {
+		if (pos == buf.length)
+			flushBuffer();
+		buf[pos++] = c;
+	}
+
+	protected void write(String s) throws IOException {
+		int len = s.length();
+		int start = 0;
+		while (start < len) {
+			if (pos == buf.length)
+				flushBuffer();
+			int n = Math.min(buf.length - pos, len - start);
+			s.getChars(start, start + n, buf, pos);
+			pos += n;
+			start += n;
+		}
+	}
+
+	protected void write(char[] chars) throws IOException {
+		int start = 0;
+		while (start < chars.length) {
+			if (pos == buf.length)
+				flushBuffer();
+			int n = Math.min(buf.length - pos, chars.length - start);
+			System.arraycopy(chars, start, buf, pos, n);
+			pos += n;
+			start += n;
+		}
+	}
+
+	protected void flushBuffer() throws IOException {
+		if (pos > 0) {
+			writer.write(buf, 0, pos);
+			pos = 0;
+		}
+	}
+
+	public boolean isIncludeHeader() {
+		return includeHeader;
+	}
+
+	/** If true, output column titles (if the format has title row) */
+	public TextExportHandler setIncludeHeader(boolean includeHeader) {
+		this.includeHeader = includeHeader;
+		return this;
+	}
+
+}
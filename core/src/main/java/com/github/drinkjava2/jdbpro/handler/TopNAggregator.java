@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.github.drinkjava2.jdbpro.DbProException;
+
+/**
+ * TopNAggregator keep the top N rows ordered by a column in a bounded heap, a
+ * row is copied into an Object[] only if it enters the heap. Rows with null
+ * value in the order column are ignored. Result is a List of rows (Object[]),
+ * best row first.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class TopNAggregator extends RowAggregator<List<Object[]>> {
+	private final int n;
+	private final String orderColumn;
+	private final boolean descending;
+
+	private int orderIndex;
+	private int columnCount;
+	private Comparator<Object[]> worstFirst;
+	private PriorityQueue<Object[]> heap;
+
+	/**
+	 * @param n
+	 *            How many rows to keep
+	 * @param orderColumn
+	 *            The order column label
+	 * @param descending
+	 *            If true keep rows with biggest values, otherwise keep smallest
+	 */
+	public TopNAggregator(int n, String orderColumn, boolean descending) {
+		if (n <= 0)
+			throw new DbProException("TopNAggregator's n should be bigger than 0");
+		this.n = n;
+		this.orderColumn = orderColumn;
+		this.descending = descending;
+	}
+
+	@Override
+	public void start(ResultSetMetaData meta) throws SQLException {
+		orderIndex = findColumn(meta, orderColumn) - 1;
+		columnCount = meta.getColumnCount();
+		final int idx = orderIndex;
+		final int sign = descending ? 1 : -1;
+		worstFirst = new Comparator<Object[]>() {
+			@Override
+			public int compare(Object[] a, Object[] b) {
+				return sign * compareValues(a[idx], b[idx]);
+			}
+		};
+		heap = new PriorityQueue<Object[]>(Math.min(n, 1024), worstFirst);
+	}
+
+	@Override
+	public void accept(ResultSet rs) throws SQLException {
+		Object value = rs.getObject(orderIndex + 1);
+		if (value == null)
+			return;
+		if (heap.size() >= n) {
+			int cmp = compareValues(value, heap.peek()[orderIndex]);
+			if ((descending && cmp <= 0) || (!descending && cmp >= 0))
+				return; // not better than the worst kept row
+			heap.poll();
+		}
+		Object[] row = new Object[columnCount];
+		for (int i = 0; i < columnCount; i++)
+			row[i] = i == orderIndex ? value : rs.getObject(i + 1);
+		heap.add(row);
+	}
+
+	@Override
+	protected List<Object[]> computeResult() {
+		List<Object[]> result = new ArrayList<Object[]>(heap);
+		Collections.sort(result, Collections.reverseOrder(worstFirst));
+		heap = null;
+		return result;
+	}
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jdbpro.handler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * TsvExportHandler write ResultSet to target as tab separated values, fields
+ * are never quoted, tab, line break and back slash characters in fields are
+ * escaped as \t, \n, \r and \\, null value is written as \N by default (same as
+ * MySQL and PostgreSQL text format)
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class TsvExportHandler extends CsvExportHandler {
+
+	public TsvExportHandler(Writer writer) {
+		super(writer);
+		init();
+	}
+
+	public TsvExportHandler(OutputStream out) {
+		super(out);
+		init();
+	}
+
+	public TsvExportHandler(OutputStream out, Charset charset, int bufferSize) {
+		super(out, charset, bufferSize);
+		init();
+	}
+
+	public TsvExportHandler(WritableByteChannel channel) {
+		super(channel);
+		init();
+	}
+
+	public TsvExportHandler(WritableByteChannel channel, Charset charset, int bufferSize) {
+		super(channel, charset, bufferSize);
+		init();
+	}
+
+	private void init() {
+		delimiter = '\t';
+		lineSeparator = "\n";
+		nullText = "\\N";
+	}
+
+	@Override
+	protected void writeField(String text) throws IOException {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '\t':
+				write('\\');
+				write('t');
+				break;
+			case '\n':
+				write('\\');
+				write('n');
+				break;
+			case '\r':
+				write('\\');
+				write('r');
+				break;
+			case '\\':
+				write('\\');
+				write('\\');
+				break;
+			default:
+				write(c);
+			}
+		}
+	}
+
+}
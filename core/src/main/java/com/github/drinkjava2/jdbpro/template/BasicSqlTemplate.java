@@ -16,11 +16,10 @@
 package com.github.drinkjava2.jdbpro.template;
 
 import java.beans.IntrospectionException;
-import java.beans.PropertyDescriptor;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.github.drinkjava2.jdbpro.PreparedSQL;
 
@@ -29,6 +28,14 @@ import com.github.drinkjava2.jdbpro.PreparedSQL;
  * use #{xxxx} format parameters in template, and replace ${xxxx} pieces
  * directly. This is a thread safe class.
  * 
+ * A parameter can be a JavaBean property like #{user.name}, or a nested
+ * property like #{user.address.city}, if a bean is a Map, its value is read by
+ * Map.get() method. Getter methods are cached, Introspector is only used at
+ * first time.
+ * 
+ * A template is parsed only once and cached as a compiled list of literal
+ * pieces and placeholders, render a compiled template only look up values.
+ * 
  * @author Yong Zhu
  * @since 1.7.0
  */
@@ -52,6 +59,11 @@ public class BasicSqlTemplate implements SqlTemplateEngine {
 	private static final String DIRECT_REPLACE_START_DELIMITER = "${";
 	private static final String DIRECT_REPLACE_END_DELIMITER = "}";
 
+	private static final int MAX_COMPILED_TEMPLATES = 2048;
+
+	/** Compiled templates, key is the template */
+	private final ConcurrentHashMap<String, CompiledTemplate> compiledTemplates = new ConcurrentHashMap<String, CompiledTemplate>();
+
 	/** A lazy initialization singleton pattern */
 	private static class InnerBasicSqlTemplate {
 		private InnerBasicSqlTemplate() {
@@ -116,35 +128,45 @@ public class BasicSqlTemplate implements SqlTemplateEngine {
 		if (!paramMap.isEmpty() && unbindParams != null && unbindParams.length > 0)
 			throw new BasicSqlTemplateException(
 					"Can not use paramMap or unbindParams at same time in BasicSqlTemplate.");
-		String newSql = sqlTemplate;
-		if (allowColonAsDelimiter)
-			newSql = translateColonToDelimiter(sqlTemplate);
-		return doRender(newSql, paramMap, unbindParams);
+		return doRender(getCompiled(sqlTemplate), paramMap, unbindParams);
 	}
 
 	/**
-	 * Render a template with
-	 * 
-	 * @param template
-	 *            A SQL Template String
-	 * @param paramMap
-	 *            A Map stored SQL parameters
-	 * @param unbindedParams
-	 *            Optional, unbinded params,
-	 * @return A PreparedSQL instance which filled SQL and Params
+	 * Parse a template and cache it, so first render of it need not parse, a
+	 * syntax error will be thrown when render
 	 */
-	private PreparedSQL doRender(String template, Map<String, Object> paramMap, Object[] unbindParams) {
-		if (template == null)
+	public void precompile(String sqlTemplate) {
+		getCompiled(sqlTemplate);
+	}
+
+	private CompiledTemplate getCompiled(String sqlTemplate) {
+		if (sqlTemplate == null)
 			throw new NullPointerException("Template can not be null");
-		int unbindParamPos = 0;
-		List<Object> realUnbindParam = null;// unbindParams has some direct replace String, need kick out
-		boolean unbindMode = unbindParams != null && unbindParams.length > 0;
-		if (unbindMode)
-			realUnbindParam = new ArrayList<Object>();
+		CompiledTemplate compiled = compiledTemplates.get(sqlTemplate);
+		if (compiled == null || compiled.allowColon != Boolean.TRUE.equals(allowColonAsDelimiter)
+				|| compiled.dollarKey != Boolean.TRUE.equals(dollarKeyForDollarPlaceHolder)) {
+			if (compiledTemplates.size() >= MAX_COMPILED_TEMPLATES)
+				compiledTemplates.clear();
+			compiled = compile(sqlTemplate);
+			compiledTemplates.put(sqlTemplate, compiled);
+		}
+		return compiled;
+	}
+
+	/**
+	 * Parse a template into literal pieces and placeholders, a syntax error is
+	 * recorded and thrown when render reach it
+	 */
+	CompiledTemplate compile(String sqlTemplate) {
+		boolean allowColon = Boolean.TRUE.equals(allowColonAsDelimiter);
+		boolean dollarKey = Boolean.TRUE.equals(dollarKeyForDollarPlaceHolder);
+		String template = allowColon ? translateColonToDelimiter(sqlTemplate) : sqlTemplate;
+		List<String> literals = new ArrayList<String>();
+		List<Placeholder> placeholders = new ArrayList<Placeholder>();
+		String error = null;
 
 		StringBuilder sql = new StringBuilder();
 		StringBuilder keyNameSB = new StringBuilder();
-		List<Object> paramList = new ArrayList<Object>();
 		char[] chars = ("   " + template + "   ").toCharArray();
 
 		int lg = startDelimiter.length();
@@ -188,73 +210,29 @@ public class BasicSqlTemplate implements SqlTemplateEngine {
 				status = 0;
 			} else if (status == 2 && (((c == e) && !directRep) || ((c == eDirect) && directRep))) {
 				status = 3;
-				if (keyNameSB.length() == 0)
-					throwEX("Empty parameter name '" + startDelimiter + endDelimiter + "' found in template: "
-							+ template);
+				if (keyNameSB.length() == 0) {
+					error = "Empty parameter name '" + startDelimiter + endDelimiter + "' found in template: "
+							+ template;
+					break;
+				}
 				String key = keyNameSB.toString();
+				String[] propertyPath = null;
+				String paramKey = key;
 				if (key.indexOf('.') >= 0) {// JavaBean
 					String beanName = substringBefore(key, ".");
 					String propertyName = substringAfter(key, ".");
-					if (isEmpty(beanName) || isEmpty(propertyName))
-						throwEX("illegal parameter name '" + key + "' found in template: " + template);
-
-					String paramKey = (directRep && dollarKeyForDollarPlaceHolder) ? "$" + beanName : beanName;
-					boolean hasValue = paramMap.containsKey(paramKey);
-
-					if (unbindMode) {// unbindMode
-						if (directRep)
-							sql.append(unbindParams[unbindParamPos++]);
-						else {
-							sql.append("?");
-							realUnbindParam.add(unbindParams[unbindParamPos++]);
-						}
-					} else {// template mode
-						if (!hasValue)
-							throwEX("Not found bean '" + paramKey + "' when render template: " + template);
-						Object bean = paramMap.get(paramKey);
-						PropertyDescriptor pd = null;
-						try {
-							pd = new PropertyDescriptor(propertyName, bean.getClass());
-						} catch (IntrospectionException e1) {
-							throwEX("IntrospectionException happen when get bean property '" + key + "' in template: "
-									+ template, e1);
-						}
-						Method method = pd.getReadMethod();
-						Object beanProperty = null;
-						try {
-							beanProperty = method.invoke(bean);
-						} catch (Exception e1) {
-							throwEX("Exception happen when read bean property '" + key + "' in template: " + template,
-									e1);
-						}
-						if (directRep) {
-							sql.append(beanProperty);
-						} else {
-							sql.append("?");
-							paramList.add(beanProperty);
-						}
-					}
-				} else {
-					if (unbindMode) {
-						if (directRep)
-							sql.append(unbindParams[unbindParamPos++]);
-						else {
-							sql.append("?");
-							realUnbindParam.add(unbindParams[unbindParamPos++]);
-						}
-					} else { // template mode
-						String paramKey = (directRep && dollarKeyForDollarPlaceHolder) ? "$" + key : key;
-						if (!paramMap.containsKey(paramKey)) {
-							throwEX("No parameter bind for '" + paramKey + "' in template: " + template);
-						}
-						if (directRep) {
-							sql.append(paramMap.get(paramKey));
-						} else {
-							sql.append("?");
-							paramList.add(paramMap.get(paramKey));
-						}
+					propertyPath = propertyName.split("\\.", -1);
+					if (isEmpty(beanName) || isEmpty(propertyName)) {
+						error = "illegal parameter name '" + key + "' found in template: " + template;
+						break;
 					}
+					paramKey = beanName;
 				}
+				if (directRep && dollarKey)
+					paramKey = "$" + paramKey;
+				literals.add(sql.toString());
+				sql.setLength(0);
+				placeholders.add(new Placeholder(key, paramKey, propertyPath, directRep));
 				keyNameSB.setLength(0);
 			}
 			if (status == 0)
@@ -262,18 +240,85 @@ public class BasicSqlTemplate implements SqlTemplateEngine {
 			else if (status == 2)
 				keyNameSB.append(c);
 		}
-		if (status != 0)
-			throwEX("Missing end delimiter '" + endDelimiter + "' in template: " + template);
+		if (error == null && status != 0)
+			error = "Missing end delimiter '" + endDelimiter + "' in template: " + template;
+		if (error == null)
+			sql.setLength(sql.length() - 1);
+		literals.add(sql.toString());
+		return new CompiledTemplate(template, allowColon, dollarKey, literals.toArray(new String[literals.size()]),
+				placeholders.toArray(new Placeholder[placeholders.size()]), error);
+	}
+
+	/**
+	 * Render a compiled template
+	 * 
+	 * @param compiled
+	 *            A compiled SQL Template
+	 * @param paramMap
+	 *            A Map stored SQL parameters
+	 * @param unbindedParams
+	 *            Optional, unbinded params,
+	 * @return A PreparedSQL instance which filled SQL and Params
+	 */
+	private PreparedSQL doRender(CompiledTemplate compiled, Map<String, Object> paramMap, Object[] unbindParams) {
+		StringBuilder sql = new StringBuilder(compiled.literalLength + 8 * compiled.placeholders.length);
+		List<Object> paramList = new ArrayList<Object>(compiled.placeholders.length);
+		renderTo(compiled, paramMap, unbindParams, sql, paramList);
 		PreparedSQL sp = new PreparedSQL();
-		sql.setLength(sql.length() - 1);
 		sp.setSql(sql.toString());
-		if (unbindMode)
-			sp.setParams(realUnbindParam.toArray(new Object[realUnbindParam.size()]));
-		else
-			sp.setParams(paramList.toArray());
+		sp.setParams(paramList.toArray());
 		return sp;
 	}
 
+	/** Render a compiled template, append SQL and parameters to given builders */
+	void renderTo(CompiledTemplate compiled, Map<String, Object> paramMap, Object[] unbindParams, StringBuilder sql,
+			List<Object> paramList) {
+		String template = compiled.template;
+		int unbindParamPos = 0;
+		boolean unbindMode = unbindParams != null && unbindParams.length > 0;
+		for (int i = 0; i < compiled.placeholders.length; i++) {
+			sql.append(compiled.literals[i]);
+			Placeholder holder = compiled.placeholders[i];
+			if (unbindMode) {// unbind params has some direct replace String, need kick out
+				if (holder.directRep)
+					sql.append(unbindParams[unbindParamPos++]);
+				else {
+					sql.append("?");
+					paramList.add(unbindParams[unbindParamPos++]);
+				}
+				continue;
+			}
+			Object value;
+			if (holder.propertyPath != null) {// JavaBean
+				if (!paramMap.containsKey(holder.paramKey))
+					throwEX("Not found bean '" + holder.paramKey + "' when render template: " + template);
+				value = null;
+				try {
+					value = BeanProperties.read(paramMap.get(holder.paramKey), holder.propertyPath);
+				} catch (IntrospectionException e1) {
+					throwEX("IntrospectionException happen when get bean property '" + holder.key + "' in template: "
+							+ template, e1);
+				} catch (Exception e1) {
+					throwEX("Exception happen when read bean property '" + holder.key + "' in template: " + template,
+							e1);
+				}
+			} else {
+				if (!paramMap.containsKey(holder.paramKey))
+					throwEX("No parameter bind for '" + holder.paramKey + "' in template: " + template);
+				value = paramMap.get(holder.paramKey);
+			}
+			if (holder.directRep)
+				sql.append(value);
+			else {
+				sql.append("?");
+				paramList.add(value);
+			}
+		}
+		if (compiled.error != null)
+			throwEX(compiled.error);
+		sql.append(compiled.literals[compiled.placeholders.length]);
+	}
+
 	/** Translate colon to delimiter, for example: user to #{user} */
 	private String translateColonToDelimiter(String sql) {
 		StringBuilder sb = new StringBuilder();
@@ -429,6 +474,46 @@ public class BasicSqlTemplate implements SqlTemplateEngine {
 		return str.substring(pos + separator.length());
 	}
 
+	/** A ${key} or #{key} placeholder in template */
+	private static final class Placeholder {
+		final String key;
+		final String paramKey;
+		final String[] propertyPath; // not null if it's a JavaBean property
+		final boolean directRep;
+
+		Placeholder(String key, String paramKey, String[] propertyPath, boolean directRep) {
+			this.key = key;
+			this.paramKey = paramKey;
+			this.propertyPath = propertyPath;
+			this.directRep = directRep;
+		}
+	}
+
+	/** A parsed template, literals has one more item than placeholders */
+	static final class CompiledTemplate {
+		final String template; // after colon translated, used in error messages
+		final boolean allowColon;
+		final boolean dollarKey;
+		final String[] literals;
+		final Placeholder[] placeholders;
+		final String error;
+		final int literalLength;
+
+		CompiledTemplate(String template, boolean allowColon, boolean dollarKey, String[] literals,
+				Placeholder[] placeholders, String error) {
+			this.template = template;
+			this.allowColon = allowColon;
+			this.dollarKey = dollarKey;
+			this.literals = literals;
+			this.placeholders = placeholders;
+			this.error = error;
+			int length = 0;
+			for (String literal : literals)
+				length += literal.length();
+			this.literalLength = length;
+		}
+	}
+
 	public static class BasicSqlTemplateException extends RuntimeException {
 		private static final long serialVersionUID = 1L;
 
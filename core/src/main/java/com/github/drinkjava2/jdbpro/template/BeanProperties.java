@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.template;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read JavaBean properties by cached getter methods, a property path like
+ * "address.city" reads nested properties, a Map bean is read by Map.get(). The
+ * Introspector is only used at first time a property of a class is read.
+ * 
+ * @author Yong Zhu
+ * @since 4.0
+ */
+final class BeanProperties {// NOSONAR
+	private static final ClassValue<ConcurrentHashMap<String, Method>> GETTERS = new ClassValue<ConcurrentHashMap<String, Method>>() {
+		@Override
+		protected ConcurrentHashMap<String, Method> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<String, Method>();
+		}
+	};
+
+	private BeanProperties() {// Utility class
+	}
+
+	/**
+	 * Read a property path of a bean, if a nested bean is null, return null
+	 * 
+	 * @throws IntrospectionException
+	 *             If a property not found
+	 */
+	static Object read(Object bean, String[] path) throws Exception {// NOSONAR
+		if (bean == null)
+			throw new NullPointerException("Can not read property '" + path[0] + "' of a null bean");
+		Object value = bean;
+		for (String property : path) {
+			if (value == null)
+				return null;
+			if (value instanceof Map)
+				value = ((Map<?, ?>) value).get(property);
+			else
+				value = getter(value.getClass(), property).invoke(value);
+		}
+		return value;
+	}
+
+	/** Return the cached read method of a property */
+	static Method getter(Class<?> type, String property) throws IntrospectionException {
+		ConcurrentHashMap<String, Method> getters = GETTERS.get(type);
+		Method getter = getters.get(property);
+		if (getter == null) {
+			getter = findGetter(type, property);
+			getters.put(property, getter);
+		}
+		return getter;
+	}
+
+	private static Method findGetter(Class<?> type, String property) throws IntrospectionException {
+		for (PropertyDescriptor pd : Introspector.getBeanInfo(type).getPropertyDescriptors())
+			if (pd.getName().equals(property) && pd.getReadMethod() != null)
+				return pd.getReadMethod();
+		Method getter = new PropertyDescriptor(property, type).getReadMethod(); // throw exception if not found
+		if (getter == null)
+			throw new IntrospectionException("No read method for property '" + property + "' of " + type);
+		return getter;
+	}
+
+}
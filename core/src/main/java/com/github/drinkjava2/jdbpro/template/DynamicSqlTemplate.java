@@ -0,0 +1,480 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.template;
+
+import java.lang.reflect.Array;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.drinkjava2.jdbpro.PreparedSQL;
+import com.github.drinkjava2.jdbpro.template.BasicSqlTemplate.CompiledTemplate;
+
+/**
+ * DynamicSqlTemplate is a SqlTemplateEngine support &lt;if&gt;,
+ * &lt;where&gt;, &lt;set&gt; and &lt;foreach&gt; tags, text between tags is
+ * rendered by a BasicSqlTemplate, so #{xxx}, ${xxx} and :xxx placeholders
+ * work as same as BasicSqlTemplate. For example:
+ * 
+ * <pre>
+ * select * from users
+ * &lt;where&gt;
+ *   &lt;if test="name != null"&gt; and name = #{name} &lt;/if&gt;
+ *   &lt;if test="ids != null and ids.size &gt; 0"&gt;
+ *     and id in &lt;foreach collection="ids" item="id" open="(" separator="," close=")"&gt;#{id}&lt;/foreach&gt;
+ *   &lt;/if&gt;
+ * &lt;/where&gt;
+ * </pre>
+ * 
+ * &lt;where&gt; output " where " and its content if content is not blank, a
+ * leading "and" or "or" of content is removed. &lt;set&gt; output " set " and
+ * its content, leading and tailing commas are removed. &lt;foreach&gt; iterate
+ * a Collection, array or Map (item is value and index is key), output nothing
+ * if it's empty, attributes "item" (default is "item"), "index", "open",
+ * "close" and "separator" are optional. For syntax of &lt;if test=""&gt; see
+ * {@link TestExpression}.
+ * 
+ * A template is compiled only once to an immutable tree and cached, so this is
+ * a thread safe class. Usage: db.setSqlTemplateEngine(new DynamicSqlTemplate());
+ * 
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class DynamicSqlTemplate implements SqlTemplateEngine {
+	private static final int MAX_COMPILED_TEMPLATES = 2048;
+
+	/** A template without any tag is rendered by BasicSqlTemplate directly */
+	private static final Node[] NO_TAG = new Node[0];
+
+	private final BasicSqlTemplate textTemplate;
+
+	/** Compiled templates, key is the template */
+	private final ConcurrentHashMap<String, Node[]> compiledTemplates = new ConcurrentHashMap<String, Node[]>();
+
+	/** Build a DynamicSqlTemplate, text is rendered by a default BasicSqlTemplate */
+	public DynamicSqlTemplate() {
+		this(new BasicSqlTemplate());
+	}
+
+	/**
+	 * @param textTemplate
+	 *            The BasicSqlTemplate used to render text between tags, it decides
+	 *            delimiters of placeholders
+	 */
+	public DynamicSqlTemplate(BasicSqlTemplate textTemplate) {
+		if (textTemplate == null)
+			throw new DynamicSqlTemplateException("textTemplate can not be null");
+		this.textTemplate = textTemplate;
+	}
+
+	@Override
+	public PreparedSQL render(String sqlTemplate, Map<String, Object> paramMap, Object[] unbindParams) {
+		if (paramMap == null)
+			throw new DynamicSqlTemplateException("In DynamicSqlTemplate, paramMap can not be null");
+		Node[] nodes = getCompiled(sqlTemplate);
+		if (nodes == NO_TAG) // NOSONAR
+			return textTemplate.render(sqlTemplate, paramMap, unbindParams);
+		if (unbindParams != null && unbindParams.length > 0)
+			throw new DynamicSqlTemplateException(
+					"Unbind parameters can not be used in a template has dynamic tags: " + sqlTemplate);
+		StringBuilder sql = new StringBuilder(sqlTemplate.length());
+		List<Object> paramList = new ArrayList<Object>();
+		renderNodes(nodes, paramMap, sql, paramList);
+		PreparedSQL sp = new PreparedSQL();
+		sp.setSql(sql.toString());
+		sp.setParams(paramList.toArray());
+		return sp;
+	}
+
+	/** Compile a template and cache it, throw exception if syntax wrong */
+	public void precompile(String sqlTemplate) {
+		if (getCompiled(sqlTemplate) == NO_TAG) // NOSONAR
+			textTemplate.precompile(sqlTemplate);
+	}
+
+	private Node[] getCompiled(String sqlTemplate) {
+		if (sqlTemplate == null)
+			throw new NullPointerException("Template can not be null");
+		Node[] nodes = compiledTemplates.get(sqlTemplate);
+		if (nodes == null) {
+			if (compiledTemplates.size() >= MAX_COMPILED_TEMPLATES)
+				compiledTemplates.clear();
+			nodes = compile(sqlTemplate);
+			compiledTemplates.put(sqlTemplate, nodes);
+		}
+		return nodes;
+	}
+
+	private void renderNodes(Node[] nodes, Map<String, Object> params, StringBuilder sql, List<Object> paramList) {
+		for (Node node : nodes)
+			node.render(params, sql, paramList);
+	}
+
+	/** Compile a template to a tree of nodes, throw exception if syntax wrong */
+	private Node[] compile(String template) {
+		List<Tag> stack = new ArrayList<Tag>();
+		Tag root = new Tag(null, false, null, 0);
+		stack.add(root);
+		int pos = 0;
+		int textStart = 0;
+		while (true) {
+			int lt = template.indexOf('<', pos);
+			if (lt < 0)
+				break;
+			Tag tag = readTag(template, lt);
+			if (tag == null) {
+				pos = lt + 1;
+				continue;
+			}
+			Tag current = stack.get(stack.size() - 1);
+			addText(current, template.substring(textStart, lt));
+			if (tag.closing) {
+				if (!tag.name.equals(current.name))
+					throw new DynamicSqlTemplateException("Unexpected '</" + tag.name + ">' in template: " + template);
+				stack.remove(stack.size() - 1);
+				stack.get(stack.size() - 1).children.add(buildNode(current, template));
+			} else
+				stack.add(tag);
+			pos = textStart = tag.end;
+		}
+		if (stack.size() > 1)
+			throw new DynamicSqlTemplateException(
+					"Missing '</" + stack.get(stack.size() - 1).name + ">' in template: " + template);
+		if (textStart == 0)
+			return NO_TAG;
+		addText(root, template.substring(textStart));
+		return root.children.toArray(new Node[root.children.size()]);
+	}
+
+	private void addText(Tag parent, String text) {
+		if (text.length() > 0)
+			parent.children.add(new TextNode(textTemplate, textTemplate.compile(text)));
+	}
+
+	private static Node buildNode(Tag tag, String template) {
+		Node[] children = tag.children.toArray(new Node[tag.children.size()]);
+		if ("if".equals(tag.name))
+			return new IfNode(TestExpression.compile(tag.attribute("test", null, template)), children);
+		if ("where".equals(tag.name))
+			return new TrimNode(" where ", children, true);
+		if ("set".equals(tag.name))
+			return new TrimNode(" set ", children, false);
+		String collection = tag.attribute("collection", null, template);
+		return new ForeachNode(TestExpression.compile(collection), collection, tag.attribute("item", "item", template),
+				tag.attribute("index", "", template), tag.attribute("open", "", template),
+				tag.attribute("separator", "", template), tag.attribute("close", "", template), children);
+	}
+
+	/**
+	 * Read a tag start at given position, return null if it's not a tag of
+	 * DynamicSqlTemplate, for example "a &lt; b"
+	 */
+	private static Tag readTag(String template, int start) {
+		int i = start + 1;
+		boolean closing = i < template.length() && template.charAt(i) == '/';
+		if (closing)
+			i++;
+		String name = null;
+		for (String tagName : new String[] { "if", "where", "set", "foreach" })
+			if (template.startsWith(tagName, i)) {
+				int after = i + tagName.length();
+				if (after < template.length()
+						&& (template.charAt(after) == '>' || Character.isWhitespace(template.charAt(after)))) {
+					name = tagName;
+					i = after;
+					break;
+				}
+			}
+		if (name == null)
+			return null;
+		Map<String, String> attributes = new HashMap<String, String>();
+		while (true) {
+			while (i < template.length() && Character.isWhitespace(template.charAt(i)))
+				i++;
+			if (i >= template.length())
+				throw new DynamicSqlTemplateException("Missing '>' of tag '" + name + "' in template: " + template);
+			if (template.charAt(i) == '>')
+				return new Tag(name, closing, attributes, i + 1);
+			int eq = template.indexOf('=', i);
+			if (closing || eq < 0)
+				throw new DynamicSqlTemplateException("Illegal tag '" + name + "' in template: " + template);
+			String key = template.substring(i, eq).trim();
+			i = eq + 1;
+			while (i < template.length() && Character.isWhitespace(template.charAt(i)))
+				i++;
+			char quote = i < template.length() ? template.charAt(i) : ' ';
+			int end = quote == '"' || quote == '\'' ? template.indexOf(quote, i + 1) : -1;
+			if (end < 0)
+				throw new DynamicSqlTemplateException(
+						"Attribute '" + key + "' should be quoted in tag '" + name + "' of template: " + template);
+			attributes.put(key, template.substring(i + 1, end));
+			i = end + 1;
+		}
+	}
+
+	public BasicSqlTemplate getTextTemplate() {
+		return textTemplate;
+	}
+
+	/** A tag being compiled */
+	private static final class Tag {
+		final String name;
+		final boolean closing;
+		final Map<String, String> attributes;
+		final int end;
+		final List<Node> children = new ArrayList<Node>();
+
+		Tag(String name, boolean closing, Map<String, String> attributes, int end) {
+			this.name = name;
+			this.closing = closing;
+			this.attributes = attributes;
+			this.end = end;
+		}
+
+		String attribute(String key, String defaultValue, String template) {
+			String value = attributes.get(key);
+			if (value != null)
+				return value;
+			if (defaultValue == null)
+				throw new DynamicSqlTemplateException(
+						"Missing attribute '" + key + "' of tag '" + name + "' in template: " + template);
+			return defaultValue;
+		}
+	}
+
+	/** A node of compiled template tree, it's immutable */
+	private interface Node {
+		void render(Map<String, Object> params, StringBuilder sql, List<Object> paramList);
+	}
+
+	private static final class TextNode implements Node {
+		final BasicSqlTemplate textTemplate;
+		final CompiledTemplate compiled;
+
+		TextNode(BasicSqlTemplate textTemplate, CompiledTemplate compiled) {
+			this.textTemplate = textTemplate;
+			this.compiled = compiled;
+		}
+
+		@Override
+		public void render(Map<String, Object> params, StringBuilder sql, List<Object> paramList) {
+			textTemplate.renderTo(compiled, params, null, sql, paramList);
+		}
+	}
+
+	private static final class IfNode implements Node {
+		final TestExpression test;
+		final Node[] children;
+
+		IfNode(TestExpression test, Node[] children) {
+			this.test = test;
+			this.children = children;
+		}
+
+		@Override
+		public void render(Map<String, Object> params, StringBuilder sql, List<Object> paramList) {
+			if (test.test(params))
+				for (Node node : children)
+					node.render(params, sql, paramList);
+		}
+	}
+
+	/** &lt;where&gt; or &lt;set&gt; node */
+	private static final class TrimNode implements Node {
+		final String prefix;
+		final Node[] children;
+		final boolean where;
+
+		TrimNode(String prefix, Node[] children, boolean where) {
+			this.prefix = prefix;
+			this.children = children;
+			this.where = where;
+		}
+
+		@Override
+		public void render(Map<String, Object> params, StringBuilder sql, List<Object> paramList) {
+			StringBuilder body = new StringBuilder();
+			for (Node node : children)
+				node.render(params, body, paramList);
+			int start = 0;
+			int end = body.length();
+			while (start < end && Character.isWhitespace(body.charAt(start)))
+				start++;
+			while (end > start && Character.isWhitespace(body.charAt(end - 1)))
+				end--;
+			if (where) {
+				if (startsWithWord(body, start, end, "and"))
+					start += 3;
+				else if (startsWithWord(body, start, end, "or"))
+					start += 2;
+			} else {
+				while (start < end && (body.charAt(start) == ',' || Character.isWhitespace(body.charAt(start))))
+					start++;
+				while (end > start && (body.charAt(end - 1) == ',' || Character.isWhitespace(body.charAt(end - 1))))
+					end--;
+			}
+			while (start < end && Character.isWhitespace(body.charAt(start)))
+				start++;
+			if (start < end)
+				sql.append(prefix).append(body, start, end).append(' ');
+		}
+
+		private static boolean startsWithWord(StringBuilder sb, int start, int end, String word) {
+			int after = start + word.length();
+			if (after >= end || !sb.substring(start, after).equalsIgnoreCase(word))
+				return false;
+			char c = sb.charAt(after);
+			return Character.isWhitespace(c) || c == '(';
+		}
+	}
+
+	private static final class ForeachNode implements Node {
+		final TestExpression collection;
+		final String collectionName;
+		final String item;
+		final String index;
+		final String open;
+		final String separator;
+		final String close;
+		final Node[] children;
+
+		ForeachNode(TestExpression collection, String collectionName, String item, String index, String open, // NOSONAR
+				String separator, String close, Node[] children) {
+			this.collection = collection;
+			this.collectionName = collectionName;
+			this.item = item;
+			this.index = index;
+			this.open = open;
+			this.separator = separator;
+			this.close = close;
+			this.children = children;
+		}
+
+		@Override
+		public void render(Map<String, Object> params, StringBuilder sql, List<Object> paramList) {
+			Object value = collection.eval(params);
+			if (value == null)
+				throw new DynamicSqlTemplateException("Collection '" + collectionName + "' of foreach is null");
+			Iterator<?> it;
+			if (value instanceof Map)
+				it = ((Map<?, ?>) value).entrySet().iterator();
+			else if (value instanceof Iterable)
+				it = ((Iterable<?>) value).iterator();
+			else if (value.getClass().isArray())
+				it = new ArrayIterator(value);
+			else
+				throw new DynamicSqlTemplateException(
+						"Collection '" + collectionName + "' of foreach is not a Collection, Map or array");
+			ScopedMap scope = new ScopedMap(params);
+			for (int i = 0; it.hasNext(); i++) {
+				Object element = it.next();
+				if (value instanceof Map) {
+					scope.put(item, ((Entry<?, ?>) element).getValue());
+					if (index.length() > 0)
+						scope.put(index, ((Entry<?, ?>) element).getKey());
+				} else {
+					scope.put(item, element);
+					if (index.length() > 0)
+						scope.put(index, i);
+				}
+				sql.append(i == 0 ? open : separator);
+				for (Node node : children)
+					node.render(scope, sql, paramList);
+				if (!it.hasNext())
+					sql.append(close);
+			}
+		}
+	}
+
+	private static final class ArrayIterator implements Iterator<Object> {
+		final Object array;
+		final int length;
+		int pos = 0;
+
+		ArrayIterator(Object array) {
+			this.array = array;
+			this.length = Array.getLength(array);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return pos < length;
+		}
+
+		@Override
+		public Object next() {
+			return Array.get(array, pos++);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/** A Map has some local variables, other keys are read from parent Map */
+	private static final class ScopedMap extends AbstractMap<String, Object> {
+		final Map<String, Object> parent;
+		final Map<String, Object> locals = new HashMap<String, Object>(4);
+
+		ScopedMap(Map<String, Object> parent) {
+			this.parent = parent;
+		}
+
+		@Override
+		public Object put(String key, Object value) {
+			return locals.put(key, value);
+		}
+
+		@Override
+		public Object get(Object key) {
+			if (locals.containsKey(key))
+				return locals.get(key);
+			return parent.get(key);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return locals.containsKey(key) || parent.containsKey(key);
+		}
+
+		@Override
+		public Set<Entry<String, Object>> entrySet() {
+			Map<String, Object> all = new LinkedHashMap<String, Object>(parent);
+			all.putAll(locals);
+			return all.entrySet();
+		}
+	}
+
+	public static class DynamicSqlTemplateException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public DynamicSqlTemplateException(String msg) {
+			super(msg);
+		}
+
+		public DynamicSqlTemplateException(String msg, Throwable cause) {
+			super(msg, cause);
+		}
+	}
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.drinkjava2.jdbpro.template;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.github.drinkjava2.jdbpro.template.DynamicSqlTemplate.DynamicSqlTemplateException;
+
+/**
+ * A compiled test expression of DynamicSqlTemplate, for example:
+ * 
+ * <pre>
+ * name != null and name != ''
+ * user.age &gt;= 18 or vip
+ * !(ids == null || ids.size == 0)
+ * </pre>
+ * 
+ * Supported operators are "or ||", "and &amp;&amp;", "not !", "== eq", "!= ne",
+ * "&lt; lt", "&lt;= lte", "&gt; gt", "&gt;= gte", operands can be null, true,
+ * false, a number, a 'quoted string' or a parameter path like "user.address.city".
+ * A path part "size" of a Collection, Map or array and "length" of an array or
+ * String return their sizes, a missing parameter is null.
+ * 
+ * A value used as a condition is false if it's null, false, zero, or an empty
+ * String, Collection, Map or array.
+ * 
+ * @author Yong Zhu
+ * @since 4.0
+ */
+abstract class TestExpression {// NOSONAR
+
+	abstract Object eval(Map<String, Object> params);
+
+	boolean test(Map<String, Object> params) {
+		return isTrue(eval(params));
+	}
+
+	/** Compile an expression, throw DynamicSqlTemplateException if syntax wrong */
+	static TestExpression compile(String text) {
+		Parser parser = new Parser(text);
+		TestExpression exp = parser.parseOr();
+		if (parser.peek() != null)
+			throw new DynamicSqlTemplateException(
+					"Unexpected '" + parser.peek() + "' in test expression: " + text);
+		return exp;
+	}
+
+	static boolean isTrue(Object value) {
+		if (value == null)
+			return false;
+		if (value instanceof Boolean)
+			return (Boolean) value;
+		if (value instanceof Number)
+			return toDecimal((Number) value).signum() != 0;
+		if (value instanceof CharSequence)
+			return ((CharSequence) value).length() > 0;
+		if (value instanceof Collection)
+			return !((Collection<?>) value).isEmpty();
+		if (value instanceof Map)
+			return !((Map<?, ?>) value).isEmpty();
+		if (value.getClass().isArray())
+			return Array.getLength(value) > 0;
+		return true;
+	}
+
+	private static BigDecimal toDecimal(Number n) {
+		if (n instanceof BigDecimal)
+			return (BigDecimal) n;
+		if (n instanceof BigInteger)
+			return new BigDecimal((BigInteger) n);
+		if (n instanceof Double || n instanceof Float)
+			return BigDecimal.valueOf(n.doubleValue());
+		return BigDecimal.valueOf(n.longValue());
+	}
+
+	static boolean isEqual(Object a, Object b) {
+		if (a == null || b == null)
+			return a == b;
+		if (a instanceof Number && b instanceof Number)
+			return toDecimal((Number) a).compareTo(toDecimal((Number) b)) == 0;
+		if (a instanceof Enum || a instanceof Character)
+			a = a instanceof Enum ? ((Enum<?>) a).name() : a.toString();
+		if (b instanceof Enum || b instanceof Character)
+			b = b instanceof Enum ? ((Enum<?>) b).name() : b.toString();
+		return a.equals(b);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static int compare(Object a, Object b, String text) {
+		if (a instanceof Number && b instanceof Number)
+			return toDecimal((Number) a).compareTo(toDecimal((Number) b));
+		if (a instanceof Comparable && b != null && a.getClass() == b.getClass())
+			return ((Comparable) a).compareTo(b);
+		throw new DynamicSqlTemplateException("Can not compare '" + a + "' and '" + b + "' in test expression: " + text);
+	}
+
+	/** Read a parameter path, return null if any part is null */
+	static Object readPath(Map<String, Object> params, String[] path, String text) {
+		Object value = params.get(path[0]);
+		for (int i = 1; i < path.length && value != null; i++) {
+			String name = path[i];
+			if (value instanceof Map) {
+				Map<?, ?> map = (Map<?, ?>) value;
+				value = "size".equals(name) && !map.containsKey(name) ? (Object) map.size() : map.get(name);
+			} else if ("size".equals(name) && value instanceof Collection)
+				value = ((Collection<?>) value).size();
+			else if (("size".equals(name) || "length".equals(name)) && value.getClass().isArray())
+				value = Array.getLength(value);
+			else if ("length".equals(name) && value instanceof CharSequence)
+				value = ((CharSequence) value).length();
+			else
+				try {
+					value = BeanProperties.getter(value.getClass(), name).invoke(value);
+				} catch (Exception e) {
+					throw new DynamicSqlTemplateException(
+							"Fail to read property '" + name + "' of " + value.getClass() + " in: " + text, e);
+				}
+		}
+		return value;
+	}
+
+	private static class Constant extends TestExpression {
+		final Object value;
+
+		Constant(Object value) {
+			this.value = value;
+		}
+
+		@Override
+		Object eval(Map<String, Object> params) {
+			return value;
+		}
+	}
+
+	private static class PathExp extends TestExpression {
+		final String[] path;
+		final String text;
+
+		PathExp(String[] path, String text) {
+			this.path = path;
+			this.text = text;
+		}
+
+		@Override
+		Object eval(Map<String, Object> params) {
+			return readPath(params, path, text);
+		}
+	}
+
+	private static class Not extends TestExpression {
+		final TestExpression exp;
+
+		Not(TestExpression exp) {
+			this.exp = exp;
+		}
+
+		@Override
+		Object eval(Map<String, Object> params) {
+			return !exp.test(params);
+		}
+	}
+
+	private static class Logic extends TestExpression {
+		final boolean and;
+		final TestExpression left;
+		final TestExpression right;
+
+		Logic(boolean and, TestExpression left, TestExpression right) {
+			this.and = and;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		Object eval(Map<String, Object> params) {
+			if (and)
+				return left.test(params) && right.test(params);
+			return left.test(params) || right.test(params);
+		}
+	}
+
+	private static class Compare extends TestExpression {
+		final String op;
+		final TestExpression left;
+		final TestExpression right;
+		final String text;
+
+		Compare(String op, TestExpression left, TestExpression right, String text) {
+			this.op = op;
+			this.left = left;
+			this.right = right;
+			this.text = text;
+		}
+
+		@Override
+		Object eval(Map<String, Object> params) {
+			Object a = left.eval(params);
+			Object b = right.eval(params);
+			if ("==".equals(op))
+				return isEqual(a, b);
+			if ("!=".equals(op))
+				return !isEqual(a, b);
+			if (a == null || b == null)
+				return false;
+			int result = compare(a, b, text);
+			if ("<".equals(op))
+				return result < 0;
+			if ("<=".equals(op))
+				return result <= 0;
+			if (">".equals(op))
+				return result > 0;
+			return result >= 0;
+		}
+	}
+
+	/** A recursive descent parser */
+	private static class Parser {
+		final String text;
+		final List<String> tokens = new ArrayList<String>();
+		int pos = 0;
+
+		Parser(String text) {
+			this.text = text;
+			tokenize();
+		}
+
+		private void tokenize() {
+			int i = 0;
+			int len = text.length();
+			while (i < len) {
+				char c = text.charAt(i);
+				if (Character.isWhitespace(c)) {
+					i++;
+				} else if (c == '\'' || c == '"') {
+					int end = text.indexOf(c, i + 1);
+					if (end < 0)
+						throw new DynamicSqlTemplateException("Unclosed string in test expression: " + text);
+					tokens.add(text.substring(i, end + 1));
+					i = end + 1;
+				} else if (Character.isLetterOrDigit(c) || c == '_' || c == '$') {
+					int start = i;
+					while (i < len && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_'
+							|| text.charAt(i) == '$' || text.charAt(i) == '.'))
+						i++;
+					tokens.add(text.substring(start, i));
+				} else if (i + 1 < len && isTwoCharOperator(text.substring(i, i + 2))) {
+					tokens.add(text.substring(i, i + 2));
+					i += 2;
+				} else if ("()<>!".indexOf(c) >= 0) {
+					tokens.add(String.valueOf(c));
+					i++;
+				} else
+					throw new DynamicSqlTemplateException("Unexpected '" + c + "' in test expression: " + text);
+			}
+		}
+
+		private static boolean isTwoCharOperator(String s) {
+			return "==".equals(s) || "!=".equals(s) || "<=".equals(s) || ">=".equals(s) || "&&".equals(s)
+					|| "||".equals(s);
+		}
+
+		String peek() {
+			return pos < tokens.size() ? tokens.get(pos) : null;
+		}
+
+		private String next() {
+			if (pos >= tokens.size())
+				throw new DynamicSqlTemplateException("Unexpected end of test expression: " + text);
+			return tokens.get(pos++);
+		}
+
+		private boolean accept(String... candidates) {
+			String token = peek();
+			for (String candidate : candidates)
+				if (candidate.equals(token)) {
+					pos++;
+					return true;
+				}
+			return false;
+		}
+
+		TestExpression parseOr() {
+			TestExpression exp = parseAnd();
+			while (accept("or", "||"))
+				exp = new Logic(false, exp, parseAnd());
+			return exp;
+		}
+
+		private TestExpression parseAnd() {
+			TestExpression exp = parseNot();
+			while (accept("and", "&&"))
+				exp = new Logic(true, exp, parseNot());
+			return exp;
+		}
+
+		private TestExpression parseNot() {
+			if (accept("not", "!"))
+				return new Not(parseNot());
+			return parseCompare();
+		}
+
+		private TestExpression parseCompare() {
+			TestExpression left = parseOperand();
+			String op = operator(peek());
+			if (op == null)
+				return left;
+			pos++;
+			return new Compare(op, left, parseOperand(), text);
+		}
+
+		private static String operator(String token) {
+			if (token == null)
+				return null;
+			if ("==".equals(token) || "eq".equals(token))
+				return "==";
+			if ("!=".equals(token) || "ne".equals(token))
+				return "!=";
+			if ("<".equals(token) || "lt".equals(token))
+				return "<";
+			if ("<=".equals(token) || "lte".equals(token))
+				return "<=";
+			if (">".equals(token) || "gt".equals(token))
+				return ">";
+			if (">=".equals(token) || "gte".equals(token))
+				return ">=";
+			return null;
+		}
+
+		private TestExpression parseOperand() {
+			String token = next();
+			if ("(".equals(token)) {
+				TestExpression exp = parseOr();
+				if (!")".equals(next()))
+					throw new DynamicSqlTemplateException("Missing ')' in test expression: " + text);
+				return exp;
+			}
+			char c = token.charAt(0);
+			if (c == '\'' || c == '"')
+				return new Constant(token.substring(1, token.length() - 1));
+			if (Character.isDigit(c))
+				try {
+					return new Constant(new BigDecimal(token));
+				} catch (NumberFormatException e) {
+					throw new DynamicSqlTemplateException("Illegal number '" + token + "' in test expression: " + text,
+							e);
+				}
+			if ("null".equals(token))
+				return new Constant(null);
+			if ("true".equals(token) || "false".equals(token))
+				return new Constant(Boolean.valueOf(token));
+			if (!Character.isLetter(c) && c != '_' && c != '$')
+				throw new DynamicSqlTemplateException("Unexpected '" + token + "' in test expression: " + text);
+			String[] path = token.split("\\.", -1);
+			for (String part : path)
+				if (part.length() == 0)
+					throw new DynamicSqlTemplateException("Illegal name '" + token + "' in test expression: " + text);
+			return new PathExp(path, text);
+		}
+	}
+
+}
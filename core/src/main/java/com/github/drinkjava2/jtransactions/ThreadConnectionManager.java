@@ -21,7 +21,7 @@ import java.sql.SQLException;
  * @author Yong Zhu
  * @since 1.0.0
  */
-public abstract class ThreadConnectionManager implements ConnectionManager {
+public abstract class ThreadConnectionManager implements ConnectionManager, TxInfoHolder {
 
 	private ThreadLocal<TxInfo> threadedTxInfo = new ThreadLocal<TxInfo>();
 
@@ -48,6 +48,11 @@ public abstract class ThreadConnectionManager implements ConnectionManager {
 		threadedTxInfo.set(new TxInfo(txIsolationLevel));
 	}
 
+	@Override
+	public TxInfo getCurrentTxInfo() {
+		return threadedTxInfo.get();
+	}
+
 	public TxInfo getThreadTxInfo() {
 		return threadedTxInfo.get();
 	}
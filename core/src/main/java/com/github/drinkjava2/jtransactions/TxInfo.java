@@ -29,6 +29,11 @@ public class TxInfo {
 	// This is designed for just store connection in TxInfo
 	protected Connection connection = null;
 
+	// Listeners be notified when transaction ended, key is usually the owner
+	protected Map<Object, TxListener> txListeners;
+
+	private boolean completed = false;
+
 	public TxInfo() {
 	}
 
@@ -36,6 +41,57 @@ public class TxInfo {
 		this.txIsolationLevel = txIsolationLevel;
 	}
 
+	/**
+	 * Register a TxListener in this transaction, an old listener with same key
+	 * will be replaced
+	 */
+	public void addTxListener(Object key, TxListener listener) {
+		if (txListeners == null)
+			txListeners = new LinkedHashMap<Object, TxListener>();
+		txListeners.put(key, listener);
+	}
+
+	/** Return the TxListener registered by given key, null if not found */
+	public TxListener getTxListener(Object key) {
+		return txListeners == null ? null : txListeners.get(key);
+	}
+
+	/**
+	 * Notify all listeners transaction committed, only the first notification
+	 * (commit or rollback) of a TxInfo take effect
+	 */
+	public void fireAfterCommit() {
+		fire(true);
+	}
+
+	/**
+	 * Notify all listeners transaction rolled back, only the first notification
+	 * (commit or rollback) of a TxInfo take effect
+	 */
+	public void fireAfterRollback() {
+		fire(false);
+	}
+
+	private void fire(boolean committed) {
+		if (completed || txListeners == null)
+			return;
+		completed = true;
+		RuntimeException first = null;
+		for (TxListener listener : txListeners.values()) {
+			try {
+				if (committed)
+					listener.afterCommit();
+				else
+					listener.afterRollback();
+			} catch (RuntimeException e) {
+				if (first == null)
+					first = e;
+			}
+		}
+		if (first != null)
+			throw first;
+	}
+
 	// ===============getter setters==================
 	public Integer getTxIsolationLevel() {
 		return txIsolationLevel;
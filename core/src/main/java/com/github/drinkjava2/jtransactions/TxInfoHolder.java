@@ -0,0 +1,26 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jtransactions;
+
+/**
+ * A ConnectionManager implements TxInfoHolder exposes TxInfo of current
+ * transaction, so TxListener can be registered in it
+ * 
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public interface TxInfoHolder {// NOSONAR
+
+	/** Return TxInfo of current transaction, null if not in transaction */
+	public TxInfo getCurrentTxInfo();
+
+}
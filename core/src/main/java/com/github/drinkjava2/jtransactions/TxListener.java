@@ -0,0 +1,30 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jtransactions;
+
+/**
+ * TxListener is notified when the transaction it registered in is ended, it's
+ * registered by TxInfo.addTxListener() method, usually used by cache to apply
+ * invalidations only after data be committed.
+ * 
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public interface TxListener {// NOSONAR
+
+	/** Called after transaction committed and connection released */
+	public void afterCommit();
+
+	/** Called after transaction rolled back, or commit failed */
+	public void afterRollback();
+
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by
+ * applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package com.github.drinkjava2.jtransactions;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * TxRetryPolicy re-run a whole transaction if it failed by a transient
+ * database error like deadlock or serialization failure, after a exponential
+ * backoff with random jitter. A SQLException (found in cause chain or next
+ * exception chain) is transient if its SQLState or vendor error code is in the
+ * retryable lists. Only the outermost transaction is retried, a transaction
+ * joined by an inner call is not retried by itself. Usage:
+ * 
+ * <pre>
+ * TinyTxAOP aop = new TinyTxAOP();
+ * aop.setRetryPolicy(new TxRetryPolicy().maxAttempts(5));
+ * </pre>
+ * 
+ * or use ConnectionManager directly:
+ * 
+ * <pre>
+ * policy.execute(cm, Connection.TRANSACTION_READ_COMMITTED, new Callable&lt;Object&gt;() {...});
+ * </pre>
+ * 
+ * Note: the transaction body is called again on every attempt, its side
+ * effects outside of database (sending mail, changing fields...) also happen
+ * again. TinyTxAOP and GroupTxAOP run each attempt on a fresh copy of the
+ * MethodInvocation made by its invocableClone() method (for example Spring's
+ * ProxyMethodInvocation), so interceptors after them also run again; if the
+ * MethodInvocation has no such method, the transaction is not retried.
+ *
+ * @author Yong Zhu
+ * @since 4.0
+ */
+public class TxRetryPolicy {
+	/**
+	 * 40001 serialization failure or deadlock, 40P01 PostgreSQL deadlock, 40XL1
+	 * and 40XL2 Derby lock timeout and deadlock
+	 */
+	public static final Set<String> DEFAULT_RETRYABLE_SQL_STATES = Collections
+			.unmodifiableSet(new HashSet<String>(Arrays.asList("40001", "40P01", "40XL1", "40XL2")));
+
+	/** 1205 MySQL lock wait timeout, 1213 MySQL deadlock */
+	public static final Set<Integer> DEFAULT_RETRYABLE_ERROR_CODES = Collections
+			.unmodifiableSet(new HashSet<Integer>(Arrays.asList(1205, 1213)));
+
+	private int maxAttempts = 3;
+	private long initialBackoffMillis = 20;
+	private long maxBackoffMillis = 1000;
+	private double multiplier = 2;
+	private Set<String> retryableSqlStates = DEFAULT_RETRYABLE_SQL_STATES;
+	private Set<Integer> retryableErrorCodes = DEFAULT_RETRYABLE_ERROR_CODES;
+
+	private final AtomicLong retryCount = new AtomicLong();
+	private final AtomicLong retriedTxCount = new AtomicLong();
+	private final AtomicLong recoveredTxCount = new AtomicLong();
+	private final AtomicLong exhaustedTxCount = new AtomicLong();
+
+	/** The transaction body */
+	public interface TxWork {
+		public Object run() throws Throwable;// NOSONAR
+	}
+
+	/** Cache invocableClone method of MethodInvocation classes, or NO_CLONE */
+	private static final ConcurrentHashMap<Class<?>, Object> cloneMethods = new ConcurrentHashMap<Class<?>, Object>();
+	private static final Object NO_CLONE = new Object();
+
+	/**
+	 * Return a TxWork proceed a fresh copy of given MethodInvocation on each
+	 * attempt, or null if MethodInvocation has no public invocableClone() method,
+	 * a MethodInvocation can not be proceeded twice in that case
+	 */
+	public static TxWork invocationWork(final MethodInvocation caller) {
+		Object method = cloneMethods.get(caller.getClass());
+		if (method == null) {
+			method = NO_CLONE;
+			try {
+				Method m = caller.getClass().getMethod("invocableClone");
+				if (MethodInvocation.class.isAssignableFrom(m.getReturnType())) {
+					m.setAccessible(true);// declaring class may be not public
+					method = m;
+				}
+			} catch (Exception e) {// NOSONAR not found or not accessible
+			}
+			cloneMethods.put(caller.getClass(), method);
+		}
+		if (method == NO_CLONE)
+			return null;
+		final Method cloneMethod = (Method) method;
+		return new TxWork() {
+			@Override
+			public Object run() throws Throwable {// NOSONAR
+				MethodInvocation fresh;
+				try {
+					fresh = (MethodInvocation) cloneMethod.invoke(caller);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+				return fresh.proceed();
+			}
+		};
+	}
+
+	/**
+	 * Run work in a new transaction, if it failed by a transient error, roll
+	 * back and run it again until success or maxAttempts reached. If cm already
+	 * in a transaction, just run the work in it.
+	 * 
+	 * @param retryCommitFailure
+	 *            if a transient error thrown by commit should be retried, should
+	 *            be false if commit may partly succeed (for example GroupTx)
+	 */
+	public Object run(ConnectionManager cm, int txIsolationLevel, boolean retryCommitFailure, TxWork work)
+			throws Throwable {// NOSONAR
+		if (cm.isInTransaction())
+			return work.run();
+		for (int attempt = 1;; attempt++) {
+			boolean committing = false;
+			cm.startTransaction(txIsolationLevel);
+			try {
+				Object result = work.run();
+				committing = true;
+				cm.commitTransaction();
+				if (attempt > 1)
+					recoveredTxCount.incrementAndGet();
+				return result;
+			} catch (Throwable t) {// NOSONAR
+				if (cm.isInTransaction()) {
+					try {
+						cm.rollbackTransaction();
+					} catch (RuntimeException e) {
+						t.addSuppressed(e);
+						throw t;
+					}
+				}
+				if ((committing && !retryCommitFailure) || !isRetryable(t))
+					throw t;
+				if (attempt >= maxAttempts) {
+					exhaustedTxCount.incrementAndGet();
+					throw t;
+				}
+				if (!sleepBeforeRetry(attempt))
+					throw t;
+				retryCount.incrementAndGet();
+				if (attempt == 1)
+					retriedTxCount.incrementAndGet();
+			}
+		}
+	}
+
+	/** Run a Callable in a transaction by given ConnectionManager, see run method */
+	@SuppressWarnings("unchecked")
+	public <T> T execute(ConnectionManager cm, int txIsolationLevel, final Callable<T> work) throws Exception {
+		try {
+			return (T) run(cm, txIsolationLevel, true, new TxWork() {
+				@Override
+				public Object run() throws Exception {
+					return work.call();
+				}
+			});
+		} catch (Exception e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable t) {// NOSONAR never happen, Callable only throw Exception
+			throw new TransactionsException(t);
+		}
+	}
+
+	/** Check if a Throwable is caused by a transient SQL error */
+	public boolean isRetryable(Throwable t) {
+		int depth = 0;
+		for (Throwable e = t; e != null && depth < 32; e = e.getCause(), depth++) {// NOSONAR
+			if (!(e instanceof SQLException))
+				continue;
+			for (SQLException s = (SQLException) e; s != null && depth < 32; s = s.getNextException(), depth++)
+				if ((s.getSQLState() != null && retryableSqlStates.contains(s.getSQLState()))
+						|| retryableErrorCodes.contains(s.getErrorCode()))
+					return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Return backoff time before given retry (start from 1), it's a random value
+	 * between half and full of min(initialBackoff * multiplier^(retry-1),
+	 * maxBackoff)
+	 */
+	public long backoffMillis(int retry) {
+		double backoff = initialBackoffMillis * Math.pow(multiplier, retry - 1.0);
+		long cap = (long) Math.min(backoff, maxBackoffMillis);
+		if (cap <= 1)
+			return cap;
+		return cap / 2 + ThreadLocalRandom.current().nextLong(cap - cap / 2 + 1);
+	}
+
+	/** Sleep before retry, return false if interrupted */
+	private boolean sleepBeforeRetry(int retry) {
+		long millis = backoffMillis(retry);
+		if (millis <= 0)
+			return true;
+		try {
+			Thread.sleep(millis);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	protected void ________Metrics________() {// NOSONAR
+	}
+
+	/** @return How many times transactions be retried */
+	public long getRetryCount() {
+		return retryCount.get();
+	}
+
+	/** @return How many transactions be retried at least once */
+	public long getRetriedTxCount() {
+		return retriedTxCount.get();
+	}
+
+	/** @return How many transactions succeeded after retry */
+	public long getRecoveredTxCount() {
+		return recoveredTxCount.get();
+	}
+
+	/** @return How many transactions still failed after maxAttempts */
+	public long getExhaustedTxCount() {
+		return exhaustedTxCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "TxRetryPolicy[retries=" + retryCount.get() + ", retriedTx=" + retriedTxCount.get() + ", recoveredTx="
+				+ recoveredTxCount.get() + ", exhaustedTx=" + exhaustedTxCount.get() + "]";
+	}
+
+	protected void ________Settings________() {// NOSONAR
+	}
+
+	/**
+	 * How many times a transaction can run at most, include the first run, 1
+	 * means no retry. This method is not thread safe, suggest only use at
+	 * program starting
+	 */
+	public TxRetryPolicy maxAttempts(int maxAttempts) {
+		if (maxAttempts < 1)
+			throw new TransactionsException("maxAttempts should be at least 1");
+		this.maxAttempts = maxAttempts;
+		return this;
+	}
+
+	/** This method is not thread safe, suggest only use at program starting */
+	public TxRetryPolicy backoff(long initialBackoffMillis, long maxBackoffMillis, double multiplier) {
+		if (initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis || multiplier < 1)
+			throw new TransactionsException("Wrong backoff setting");
+		this.initialBackoffMillis = initialBackoffMillis;
+		this.maxBackoffMillis = maxBackoffMillis;
+		this.multiplier = multiplier;
+		return this;
+	}
+
+	/** This method is not thread safe, suggest only use at program starting */
+	public TxRetryPolicy retryableSqlStates(String... sqlStates) {
+		this.retryableSqlStates = new HashSet<String>(Arrays.asList(sqlStates));
+		return this;
+	}
+
+	/** This method is not thread safe, suggest only use at program starting */
+	public TxRetryPolicy retryableErrorCodes(Integer... errorCodes) {
+		this.retryableErrorCodes = new HashSet<Integer>(Arrays.asList(errorCodes));
+		return this;
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public long getInitialBackoffMillis() {
+		return initialBackoffMillis;
+	}
+
+	public long getMaxBackoffMillis() {
+		return maxBackoffMillis;
+	}
+
+	public double getMultiplier() {
+		return multiplier;
+	}
+
+	public Set<String> getRetryableSqlStates() {
+		return retryableSqlStates;
+	}
+
+	public Set<Integer> getRetryableErrorCodes() {
+		return retryableErrorCodes;
+	}
+
+}
@@ -75,10 +75,19 @@ public class GroupTxConnectionManager extends ThreadConnectionManager {
 	public TxResult commitTransaction() throws Exception {
 		if (!isInTransaction())
 			throw new TransactionsException("Transaction not opened, can not commit");
-		Collection<Connection> conns = getThreadTxInfo().getConnectionCache().values();
-		for (Connection con : conns)
-			con.commit();
-		endTransaction(null);
+		TxInfo tx = getThreadTxInfo();
+		int committed = 0;
+		try {
+			for (Connection con : tx.getConnectionCache().values()) {
+				con.commit();
+				committed++;
+			}
+		} catch (SQLException e) {
+			if (committed > 0)
+				tx.fireAfterCommit(); // partly committed, listeners should treat it as committed
+			throw e;
+		}
+		endTransaction(null, true);
 		return TxResult.TX_SUCESS;
 	}
 
@@ -97,15 +106,27 @@ public class GroupTxConnectionManager extends ThreadConnectionManager {
 				lastExp = e;
 			}
 		}
-		endTransaction(lastExp);
+		endTransaction(lastExp, false);
 		return TxResult.TX_FAIL;
 	}
 
-	private void endTransaction(SQLException lastExp) {// NOSONAR
+	/** End transaction, then notify TxListeners */
+	private void endTransaction(SQLException lastExp, boolean committed) {
 		if (!isInTransaction())
 			return;
-		Collection<Connection> conns = getThreadTxInfo().getConnectionCache().values();
+		TxInfo tx = getThreadTxInfo();
 		setThreadTxInfo(null);
+		try {
+			releaseConnections(tx.getConnectionCache().values(), lastExp);
+		} finally {
+			if (committed)
+				tx.fireAfterCommit();
+			else
+				tx.fireAfterRollback();
+		}
+	}
+
+	private static void releaseConnections(Collection<Connection> conns, SQLException lastExp) {// NOSONAR
 		if (conns.isEmpty())
 			return; // no actual transaction open
 		for (Connection con : conns) {
@@ -20,6 +20,7 @@ import com.github.drinkjava2.jtransactions.ConnectionManager;
 import com.github.drinkjava2.jtransactions.DataSourceHolder;
 import com.github.drinkjava2.jtransactions.TransactionsException;
 import com.github.drinkjava2.jtransactions.TxInfo;
+import com.github.drinkjava2.jtransactions.TxInfoHolder;
 import com.github.drinkjava2.jtransactions.TxResult;
 
 /**
@@ -33,7 +34,7 @@ import com.github.drinkjava2.jtransactions.TxResult;
  * @author Yong Zhu
  * @since 2.0.5
  */
-public class ManualTxConnectionManager implements ConnectionManager {
+public class ManualTxConnectionManager implements ConnectionManager, TxInfoHolder {
 	private TxInfo txInfo;
 
 	/** Check if manualTx already started a transaction */
@@ -41,6 +42,11 @@ public class ManualTxConnectionManager implements ConnectionManager {
 		return txInfo != null;
 	}
 
+	@Override
+	public TxInfo getCurrentTxInfo() {
+		return txInfo;
+	}
+
 	/** Start a transaction, i.e., set a TxTag */
 	public void startTransaction() {
 		if (isInTransaction())
@@ -89,16 +95,20 @@ public class ManualTxConnectionManager implements ConnectionManager {
 	public TxResult commitTransaction() throws Exception {
 		if (!isInTransaction())
 			throw new TransactionsException("Transaction not opened, can not commit");
+		boolean committed = false;
 		try {
 			Connection con = txInfo.getConnection();
-			if (con == null)
+			if (con == null) {
+				committed = true;
 				return TxResult.TX_SUCESS; // no actual transaction open
+			}
 			if (!con.getAutoCommit())
 				con.commit();
 			else
 				throw new TransactionsException("Connection is auto commit status, can not commit");
+			committed = true;
 		} finally {
-			endTransaction();
+			endTransaction(committed);
 		}
 		return TxResult.TX_SUCESS;
 	}
@@ -118,16 +128,16 @@ public class ManualTxConnectionManager implements ConnectionManager {
 		} catch (SQLException e) {
 			throw new TransactionsException(e);
 		} finally {
-			endTransaction();
+			endTransaction(false);
 		}
 		return TxResult.TX_FAIL;
 	}
 
 	/**
 	 * set autoCommit to true, restore normal status. so this connection can be
-	 * re-used by other thread
+	 * re-used by other thread, then notify TxListeners
 	 */
-	private void endTransaction() {
+	private void endTransaction(boolean committed) {
 		if (!isInTransaction())
 			return;
 		Connection con = txInfo.getConnection();
@@ -140,14 +150,20 @@ public class ManualTxConnectionManager implements ConnectionManager {
 		} catch (SQLException e) {
 			throw new TransactionsException("Fail to setAutoCommit to true", e);
 		} finally {
+			TxInfo tx = txInfo;
 			txInfo.setConnection(null);
 			txInfo = null;
-			if (con != null)
-				try {
+			try {
+				if (con != null)
 					con.close();
-				} catch (SQLException e) {
-					throw new TransactionsException("Fail to close connection", e);// NOSONAR
-				}
+			} catch (SQLException e) {
+				throw new TransactionsException("Fail to close connection", e);// NOSONAR
+			} finally {
+				if (committed)
+					tx.fireAfterCommit();
+				else
+					tx.fireAfterRollback();
+			}
 		}
 	}
 
@@ -22,6 +22,7 @@ import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
 
 import com.github.drinkjava2.jtransactions.TransactionsException;
+import com.github.drinkjava2.jtransactions.TxRetryPolicy;
 
 /**
  * The TinyTx AOP MethodInterceptor
@@ -34,6 +35,9 @@ public class TinyTxAOP implements MethodInterceptor {
 
 	private int transactionIsolation = Connection.TRANSACTION_READ_COMMITTED;
 
+	/** If not null, retry transaction failed by transient errors */
+	private TxRetryPolicy retryPolicy = null;
+
 	public TinyTxAOP() {
 	}
 
@@ -46,10 +50,22 @@ public class TinyTxAOP implements MethodInterceptor {
 		this.transactionIsolation = transactionIsolation;
 	}
 
+	public TinyTxAOP(TinyTxConnectionManager cm, Integer transactionIsolation, TxRetryPolicy retryPolicy) {
+		this(cm, transactionIsolation);
+		this.retryPolicy = retryPolicy;
+	}
+
 	@Override
-	public Object invoke(MethodInvocation caller) throws Throwable {// NOSONAR
-		if (cm.isInTransaction()) {
+	public Object invoke(final MethodInvocation caller) throws Throwable {// NOSONAR
+		if (cm.isInTransaction())
 			return caller.proceed();
+		TxRetryPolicy.TxWork work = retryPolicy == null ? null : TxRetryPolicy.invocationWork(caller);
+		if (work != null) {
+			try {
+				return retryPolicy.run(cm, transactionIsolation, true, work);
+			} catch (Throwable t) {
+				throw new TransactionsException("TinyTx found a runtime Exception, transaction rollbacked.", t);
+			}
 		} else {
 			Object invokeResult = null;
 			try {
@@ -64,4 +80,20 @@ public class TinyTxAOP implements MethodInterceptor {
 		}
 	}
 
-}
\ No newline at end of file
+	public TxRetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * Set a TxRetryPolicy to retry transactions failed by transient errors, null
+	 * means no retry. Each attempt runs the method again on a copy made by
+	 * MethodInvocation's invocableClone() method, so its side effects outside of
+	 * database also happen again; if the MethodInvocation has no invocableClone()
+	 * method, transaction is not retried. This method is not thread safe, suggest
+	 * only use at program starting
+	 */
+	public void setRetryPolicy(TxRetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+}
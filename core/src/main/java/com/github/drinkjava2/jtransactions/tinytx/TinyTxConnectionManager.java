@@ -74,18 +74,22 @@ public class TinyTxConnectionManager extends ThreadConnectionManager {
 	public TxResult commitTransaction() throws Exception {
 		if (!isInTransaction())
 			throw new TransactionsException("Transaction not opened, can not commit");
+		boolean committed = false;
 		try {
 			Collection<Connection> conns = getThreadTxInfo().getConnectionCache().values();
-			if (conns.isEmpty())
+			if (conns.isEmpty()) {
+				committed = true;
 				return TxResult.TX_SUCESS; // no actual transaction open
+			}
 			if (conns.size() > 1)
 				throw new TransactionsException("TinyTx can only support one dataSource in one thread, can not commit");
 			Connection con = conns.iterator().next();
 			if (con.getAutoCommit())
 				throw new TransactionsException("Connection is auto commit status, can not commit");
 			con.commit();
+			committed = true;
 		} finally {
-			endTransaction();
+			endTransaction(committed);
 		}
 		return TxResult.TX_SUCESS;
 	}
@@ -106,12 +110,13 @@ public class TinyTxConnectionManager extends ThreadConnectionManager {
 		} catch (SQLException e) {
 			throw new TransactionsException(e);
 		} finally {
-			endTransaction();
+			endTransaction(false);
 		}
 		return TxResult.TX_FAIL;
 	}
 
-	private void endTransaction() {
+	/** End transaction, then notify TxListeners */
+	private void endTransaction(boolean committed) {
 		if (!isInTransaction())
 			return;
 		Connection con = null;
@@ -128,14 +133,20 @@ public class TinyTxConnectionManager extends ThreadConnectionManager {
 		} catch (SQLException e) {
 			throw new TransactionsException("Fail to setAutoCommit to true", e);
 		} finally {
-			getThreadTxInfo().getConnectionCache().clear();
+			TxInfo tx = getThreadTxInfo();
+			tx.getConnectionCache().clear();
 			setThreadTxInfo(null);
-			if (con != null)
-				try {
+			try {
+				if (con != null)
 					con.close();
-				} catch (SQLException e) {
-					throw new TransactionsException("Fail to close connection", e);// NOSONAR
-				}
+			} catch (SQLException e) {
+				throw new TransactionsException("Fail to close connection", e);// NOSONAR
+			} finally {
+				if (committed)
+					tx.fireAfterCommit();
+				else
+					tx.fireAfterRollback();
+			}
 		}
 
 	}